@@ -0,0 +1,58 @@
+/*
+ * Copyright 2010-2011, Sikuli.org
+ * Released under the MIT License.
+ *
+ */
+package org.sikuli.benchmark;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Locates the image corpora in the source tree. The root of the tree is
+ * taken from the system property sikuli.benchmark.root (set by
+ * 'make run-benchmark').
+ */
+public class BenchmarkFiles {
+   static final String NATIVE_TESTDATA = "sikuli-script/src/test/native/testdata";
+
+   public static File getRoot(){
+      return new File(System.getProperty("sikuli.benchmark.root", ".."));
+   }
+
+   public static File getTestImagesDir(){
+      return new File(getRoot(), "test-images");
+   }
+
+   public static File getImagesDir(){
+      return new File(getRoot(), NATIVE_TESTDATA + "/images");
+   }
+
+   public static File getOcrDir(){
+      return new File(getRoot(), NATIVE_TESTDATA + "/ocr");
+   }
+
+   /**
+    * the screen of a numbered test case in testdata/images
+    */
+   public static String getScreen(String id) throws FileNotFoundException{
+      File f = new File(getImagesDir(), id + "-screen.png");
+      if(!f.exists())
+         throw new FileNotFoundException(f.getAbsolutePath());
+      return f.getAbsolutePath();
+   }
+
+   /**
+    * the targets of a numbered test case in testdata/images
+    */
+   public static List<String> getTargets(String id){
+      List<String> ret = new ArrayList<String>();
+      for(int i=1;;i++){
+         File f = new File(getImagesDir(), id + "-target-" + i + ".png");
+         if(!f.exists())
+            break;
+         ret.add(f.getAbsolutePath());
+      }
+      return ret;
+   }
+}
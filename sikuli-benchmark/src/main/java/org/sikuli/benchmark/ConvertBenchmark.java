@@ -0,0 +1,69 @@
+/*
+ * Copyright 2010-2011, Sikuli.org
+ * Released under the MIT License.
+ *
+ */
+package org.sikuli.benchmark;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.*;
+
+import org.sikuli.script.OpenCV;
+import org.sikuli.script.natives.Mat;
+
+/**
+ * OpenCV.convertBufferedImageToMat for the image types captures and
+ * image files usually come in.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ConvertBenchmark {
+
+   @Param({"1-screen.png", "10-screen.png"})
+   public String image;
+
+   @Param({"INT_RGB", "3BYTE_BGR", "4BYTE_ABGR"})
+   public String type;
+
+   BufferedImage _img;
+   Mat _mat;
+
+   @Setup
+   public void setup() throws Exception{
+      BufferedImage src = ImageIO.read(new File(BenchmarkFiles.getImagesDir(), image));
+      int t = BufferedImage.class.getField("TYPE_" + type).getInt(null);
+      _img = new BufferedImage(src.getWidth(), src.getHeight(), t);
+      Graphics2D g = _img.createGraphics();
+      g.drawImage(src, 0, 0, null);
+      g.dispose();
+      _mat = new Mat();
+   }
+
+   @TearDown
+   public void tearDown(){
+      _mat.delete();
+   }
+
+   @Benchmark
+   public Mat convert(){
+      Mat mat = OpenCV.convertBufferedImageToMat(_img);
+      mat.delete();
+      return mat;
+   }
+
+   // into a reused buffer, as capture loops do
+   @Benchmark
+   public Mat convertInto(){
+      OpenCV.convertBufferedImageToMat(_img, _mat);
+      return _mat;
+   }
+}
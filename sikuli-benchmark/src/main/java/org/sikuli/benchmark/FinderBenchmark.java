@@ -0,0 +1,66 @@
+/*
+ * Copyright 2010-2011, Sikuli.org
+ * Released under the MIT License.
+ *
+ */
+package org.sikuli.benchmark;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import org.sikuli.script.Finder;
+import org.sikuli.script.Settings;
+
+/**
+ * Finder.find/findAll of all the targets of one testdata/images case.
+ * Matches are not turned into Match objects, which would need a screen.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FinderBenchmark {
+
+   @Param({"1", "2", "3", "4", "5", "6", "7", "8", "9", "10"})
+   public String screen;
+
+   // in MB, 0 disables the template cache
+   @Param({"64", "0"})
+   public int templateCacheSize;
+
+   @Param({"1", "0"})
+   public int matchThreads;
+
+   Finder _finder;
+   List<String> _targets;
+
+   @Setup
+   public void setup() throws IOException{
+      Settings.TemplateCacheSize = templateCacheSize;
+      Settings.MatchThreads = matchThreads;
+      _finder = new Finder(BenchmarkFiles.getScreen(screen));
+      _targets = BenchmarkFiles.getTargets(screen);
+   }
+
+   @Benchmark
+   public void find(Blackhole bh) throws IOException{
+      for(String target : _targets){
+         _finder.find(target);
+         bh.consume(_finder.hasNext());
+      }
+   }
+
+   @Benchmark
+   public void findAll(Blackhole bh) throws IOException{
+      for(String target : _targets){
+         _finder.findAll(target);
+         bh.consume(_finder.hasNext());
+      }
+   }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2010-2011, Sikuli.org
+ * Released under the MIT License.
+ *
+ */
+package org.sikuli.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import org.sikuli.script.ImageLocator;
+import org.sikuli.script.Pattern;
+import org.sikuli.script.Settings;
+
+/**
+ * Resolving and reading pattern images from the test-images bundle.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ImageBenchmark {
+
+   @Param({"network-icon.png", "sys-pref.png"})
+   public String image;
+
+   ImageLocator _locator;
+
+   @Setup
+   public void setup(){
+      Settings.BundlePath = BenchmarkFiles.getTestImagesDir().getAbsolutePath();
+      _locator = new ImageLocator();
+   }
+
+   @Benchmark
+   public String locate() throws IOException{
+      return _locator.locate(image);
+   }
+
+   // a new Pattern each time, as scripts do
+   @Benchmark
+   public BufferedImage patternGetImage() throws IOException{
+      return new Pattern(image).getImage();
+   }
+}
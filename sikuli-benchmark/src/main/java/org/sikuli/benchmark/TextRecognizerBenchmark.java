@@ -0,0 +1,45 @@
+/*
+ * Copyright 2010-2011, Sikuli.org
+ * Released under the MIT License.
+ *
+ */
+package org.sikuli.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.*;
+
+import org.sikuli.script.TextRecognizer;
+
+/**
+ * TextRecognizer.recognize on the OCR fixtures.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TextRecognizerBenchmark {
+
+   @Param({"access.png", "arial.png", "gmail_zoom.png", "keyboard.png",
+           "network_large.png", "trash_large.png"})
+   public String image;
+
+   TextRecognizer _recognizer;
+   BufferedImage _img;
+
+   @Setup
+   public void setup() throws IOException{
+      _recognizer = TextRecognizer.getInstance();
+      _img = ImageIO.read(new File(BenchmarkFiles.getOcrDir(), image));
+   }
+
+   @Benchmark
+   public String recognize(){
+      return _recognizer.recognize(_img);
+   }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2010-2011, Sikuli.org
+ * Released under the MIT License.
+ *
+ */
+package org.sikuli.script;
+
+import java.awt.Dimension;
+import java.util.*;
+
+import org.sikuli.script.natives.Mat;
+
+/**
+ * Keeps the native frame buffers of recent captures so that polling loops
+ * (wait, observe) convert every new screenshot into an existing buffer
+ * instead of allocating a new one that is only freed by the finalizer.
+ */
+public class CaptureBufferPool {
+   public static final int DEFAULT_CAPACITY = 4;
+
+   private int _capacity;
+   private int _size = 0;
+   private Map<Dimension, LinkedList<Mat>> _free =
+                              new LinkedHashMap<Dimension, LinkedList<Mat>>();
+
+   public CaptureBufferPool(){
+      this(DEFAULT_CAPACITY);
+   }
+
+   public CaptureBufferPool(int capacity){
+      _capacity = capacity;
+   }
+
+   /**
+    * returns a free buffer last used for a w x h frame, or an empty one.
+    */
+   public synchronized Mat acquire(int w, int h){
+      Dimension d = new Dimension(w, h);
+      LinkedList<Mat> list = _free.get(d);
+      if(list == null)
+         return new Mat();
+      Mat mat = list.removeFirst();
+      if(list.isEmpty())
+         _free.remove(d);
+      _size--;
+      return mat;
+   }
+
+   /**
+    * gives a buffer back to the pool. If the pool is full, a buffer
+    * of another size (or this one) is freed right away.
+    */
+   public synchronized void release(int w, int h, Mat mat){
+      if(mat == null)
+         return;
+      Dimension d = new Dimension(w, h);
+      if(_size >= _capacity && !evictOtherThan(d)){
+         mat.delete();
+         return;
+      }
+      LinkedList<Mat> list = _free.get(d);
+      if(list == null){
+         list = new LinkedList<Mat>();
+         _free.put(d, list);
+      }
+      list.addFirst(mat);
+      _size++;
+   }
+
+   public synchronized int size(){
+      return _size;
+   }
+
+   public synchronized void clear(){
+      for(LinkedList<Mat> list : _free.values())
+         for(Mat m : list)
+            m.delete();
+      _free.clear();
+      _size = 0;
+   }
+
+   private boolean evictOtherThan(Dimension d){
+      for(Iterator<Map.Entry<Dimension, LinkedList<Mat>>> it =
+            _free.entrySet().iterator(); it.hasNext();){
+         Map.Entry<Dimension, LinkedList<Mat>> e = it.next();
+         if(e.getKey().equals(d))
+            continue;
+         e.getValue().removeLast().delete();
+         if(e.getValue().isEmpty())
+            it.remove();
+         _size--;
+         return true;
+      }
+      return false;
+   }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2010-2011, Sikuli.org
+ * Released under the MIT License.
+ *
+ */
+package org.sikuli.script;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+
+/**
+ * Tells whether a region looks any different from the last time it was
+ * checked, by comparing a hash of all of its pixels. This is much cheaper
+ * than matching, so a wait can check often and match only after changes.
+ */
+class ChangeDetector {
+   boolean _first = true;
+   long _digest = 0;
+   int[] _row = null;
+
+   /**
+    * returns true if img differs from the image given last time, or if
+    * there was none.
+    */
+   boolean update(BufferedImage img){
+      long d = digest(img);
+      boolean changed = _first || d != _digest;
+      _first = false;
+      _digest = d;
+      return changed;
+   }
+
+   void reset(){
+      _first = true;
+   }
+
+   // 64-bit FNV-1a over the pixels, row by row. The even and the odd
+   // pixels go into two separate hashes so that the multiplications can
+   // overlap.
+   long digest(BufferedImage img){
+      int w = img.getWidth(), h = img.getHeight();
+      if(_row == null || _row.length < w)
+         _row = new int[w];
+      // screen captures hold one int per pixel, which can be read without
+      // converting the colors
+      int type = img.getType();
+      WritableRaster raster = null;
+      if(type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)
+         raster = img.getRaster();
+      long hash = 0xcbf29ce484222325L, odd = hash;
+      for(int y=0;y<h;y++){
+         if(raster != null)
+            raster.getDataElements(0, y, w, 1, _row);
+         else
+            img.getRGB(0, y, w, 1, _row, 0, w);
+         int x = 0;
+         for(;x+1<w;x+=2){
+            hash ^= _row[x];
+            hash *= 0x100000001b3L;
+            odd ^= _row[x+1];
+            odd *= 0x100000001b3L;
+         }
+         if(x < w){
+            hash ^= _row[x];
+            hash *= 0x100000001b3L;
+         }
+      }
+      return hash ^ (odd * 31);
+   }
+}
@@ -23,6 +23,7 @@ public class EventManager {
 
    private Region _region;
    private Mat _lastImgMat = null;
+   private Mat _nextImgMat = null;
    private Map<Object, State> _state;
    private Map<Object, Match> _lastMatch;
    private Map<Object, SikuliEventObserver> _appearOb, _vanishOb;
@@ -79,39 +80,55 @@ public class EventManager {
 
 
    protected void checkPatterns(ScreenImage img){
-      Finder finder = new Finder(img, _region);
+      if(_state.isEmpty())
+         return;
+      // all observed patterns that can be read are searched in one pass
+      // over the image; the others are left as they are
+      List<Object> ptns = new ArrayList<Object>();
       for(Object ptn : _state.keySet()){
          try{
-            finder.find(ptn);
-            Match m = null;
-            boolean hasMatch = false;
-            if(finder.hasNext()){
-               m = finder.next();
-               if(m.getScore() >= getSimiliarity(ptn)){
-                  hasMatch = true;
-                  _lastMatch.put(ptn, m);
-               }
-            }
-            Debug.log(9, "check pattern: " + _state.get(ptn) + " match:" + hasMatch);
-            if(_appearOb.containsKey(ptn)){
-               if(_state.get(ptn) != State.APPEARED && hasMatch)
-                  callAppearObserver(ptn, m);
-            }
-            if(_vanishOb.containsKey(ptn)){
-               if(_state.get(ptn) != State.VANISHED && !hasMatch){
-                  callVanishObserver(ptn, _lastMatch.get(ptn));
-               }
-            }
-            if(hasMatch)
-               _state.put(ptn, State.APPEARED);
-            else
-               _state.put(ptn, State.VANISHED);
+            if(ptn instanceof Pattern)
+               ((Pattern)ptn).getSharedImage();  // kept by the pattern once read
+            ptns.add(ptn);
          }
          catch(IOException e){
             Debug.error("Can't access "+ ptn +"\n" + e.getMessage()); 
          }
       }
-
+      if(ptns.isEmpty())
+         return;
+      Match[] matches;
+      try{
+         Finder finder = new Finder(img, _region);
+         matches = finder.findEach(ptns);
+      }
+      catch(IOException e){
+         Debug.error("Can't access "+ ptns +"\n" + e.getMessage()); 
+         return;
+      }
+      for(int i=0;i<ptns.size();i++){
+         Object ptn = ptns.get(i);
+         Match m = matches[i];
+         boolean hasMatch = false;
+         if(m != null && m.getScore() >= getSimiliarity(ptn)){
+            hasMatch = true;
+            _lastMatch.put(ptn, m);
+         }
+         Debug.log(9, "check pattern: " + _state.get(ptn) + " match:" + hasMatch);
+         if(_appearOb.containsKey(ptn)){
+            if(_state.get(ptn) != State.APPEARED && hasMatch)
+               callAppearObserver(ptn, m);
+         }
+         if(_vanishOb.containsKey(ptn)){
+            if(_state.get(ptn) != State.VANISHED && !hasMatch){
+               callVanishObserver(ptn, _lastMatch.get(ptn));
+            }
+         }
+         if(hasMatch)
+            _state.put(ptn, State.APPEARED);
+         else
+            _state.put(ptn, State.VANISHED);
+      }
    }
 
    protected void callChangeObserver(FindResults results) throws AWTException{
@@ -146,7 +163,10 @@ public class EventManager {
 
       FindInput fin = new FindInput();
       fin.setSource(_lastImgMat);
-      Mat target = OpenCV.convertBufferedImageToMat(img.getImage());
+      // the previous frame's buffer is not needed after this round,
+      // so the two buffers take turns
+      Mat target = _nextImgMat != null? _nextImgMat : new Mat();
+      OpenCV.convertBufferedImageToMat(img.getImage(), target);
       fin.setTarget(target);
       fin.setSimilarity(_minChanges);
 
@@ -158,6 +178,7 @@ public class EventManager {
          e.printStackTrace();
       }
 
+      _nextImgMat = _lastImgMat;
       _lastImgMat = target;
    }
 
@@ -7,14 +7,17 @@ package org.sikuli.script;
 
 import java.awt.*;
 import java.util.Iterator;
+import java.util.List;
 import java.io.File;
 import java.io.IOException;
 import java.io.FileNotFoundException;
 
 import org.sikuli.script.natives.FindInput;
+import org.sikuli.script.natives.FindInputs;
 import org.sikuli.script.natives.FindResult;
 import org.sikuli.script.natives.FindResults;
 import org.sikuli.script.natives.Mat;
+import org.sikuli.script.natives.PackedFindResults;
 import org.sikuli.script.natives.TARGET_TYPE;
 import org.sikuli.script.natives.Vision;
 
@@ -24,7 +27,7 @@ public class Finder implements Iterator<Match>{
    private Region _region = null;
    private Pattern _pattern = null;
    private FindInput _findInput = new FindInput();
-   private FindResults _results = null;
+   private PackedMatches _results = null;
    private ImageLocator _imgLocator = null;
    private int _cur_result_i;
 
@@ -67,8 +70,7 @@ public class Finder implements Iterator<Match>{
     *  Finder constructor (finding within the given region).
     */
    public Finder(ScreenImage img, Region region){
-      Mat target = OpenCV.convertBufferedImageToMat(img.getImage());
-      _findInput.setSource(target);
+      _findInput.setSource(img.getMat());
       _region = region;
    }
 
@@ -86,10 +88,27 @@ public class Finder implements Iterator<Match>{
       return _imgLocator.locate(file);
    }
 
+   // the settings last pushed to the vision engine
+   private static int _templateCacheSize = Integer.MIN_VALUE;
+   private static int _matchThreads = Integer.MIN_VALUE;
+
+   // pushes the settings to the vision engine, only when they have changed
+   protected static synchronized void updateVisionParameters(){
+      if(Settings.TemplateCacheSize != _templateCacheSize){
+         _templateCacheSize = Settings.TemplateCacheSize;
+         Vision.setParameter("TemplateCacheSize", _templateCacheSize);
+      }
+      if(Settings.MatchThreads != _matchThreads){
+         _matchThreads = Settings.MatchThreads;
+         Vision.setParameter("MatchThreads", _matchThreads);
+      }
+   }
+
    protected <PSC> void setFindInput(PSC ptn) throws IOException{
+      updateVisionParameters();
       if( ptn instanceof Pattern ){
          _pattern = (Pattern)ptn;
-         Mat targetMat = OpenCV.convertBufferedImageToMat(_pattern.getImage());
+         Mat targetMat = OpenCV.convertBufferedImageToMat(_pattern.getSharedImage());
          _findInput.setTarget(targetMat);
          _findInput.setSimilarity(_pattern.similarity);
       }
@@ -100,6 +119,7 @@ public class Finder implements Iterator<Match>{
    }
 
    protected void setTargetSmartly(FindInput fin, String target){
+      updateVisionParameters();
       try{
          //assume it's a file first
          String filename = findImageFile(target);
@@ -123,14 +143,14 @@ public class Finder implements Iterator<Match>{
     */
    public <PSC> void find(PSC ptn) throws IOException{
       setFindInput(ptn);
-      _results = Vision.find(_findInput);
+      _results = findPacked();
       _cur_result_i = 0;
    }
 
    public void find(String templateFilename, double minSimilarity) throws IOException{
       setTargetSmartly(_findInput, templateFilename);
       _findInput.setSimilarity(minSimilarity);
-      _results = Vision.find(_findInput);
+      _results = findPacked();
       _cur_result_i = 0;
    }
 
@@ -140,7 +160,7 @@ public class Finder implements Iterator<Match>{
 
       setFindInput(ptn);
       _findInput.setFindAll(true);
-      _results = Vision.find(_findInput);
+      _results = findPacked();
       _cur_result_i = 0;
 
       timing.endTiming("Finder.findAll");
@@ -153,12 +173,50 @@ public class Finder implements Iterator<Match>{
       setTargetSmartly(_findInput, templateFilename);
       _findInput.setSimilarity(minSimilarity);
       _findInput.setFindAll(true);
-      _results = Vision.find(_findInput);
+      _results = findPacked();
       _cur_result_i = 0;
 
       timing.endTiming("Finder.findAll");
    }
 
+   // all results in one call, turned into matches as they are asked for
+   private PackedMatches findPacked(){
+      PackedFindResults results = Vision.findPacked(_findInput);
+      return new PackedMatches(results, _region, _pattern);
+   }
+
+   /**
+    * Match[] findEach( List of Pattern/String/PatternClass )
+    * finds the best match of every given pattern in a single pass over
+    * the source image. The i-th entry is null if the i-th pattern
+    * was not found.
+    */
+   public <PSC> Match[] findEach(List<PSC> ptns) throws IOException {
+      Debug timing = new Debug();
+      timing.startTiming("Finder.findEach");
+
+      FindInputs inputs = new FindInputs();
+      Pattern[] patterns = new Pattern[ptns.size()];
+      for(int i=0;i<ptns.size();i++){
+         _pattern = null;
+         setFindInput(ptns.get(i));
+         _findInput.setFindAll(false);
+         patterns[i] = _pattern;
+         inputs.add(_findInput); // copied, shares the source
+      }
+      FindResults results = Vision.findEach(inputs);
+
+      Match[] matches = new Match[ptns.size()];
+      for(int i=0;i<matches.length;i++){
+         FindResult fr = results.get(i);
+         if(fr.getScore() >= 0)
+            matches[i] = toMatch(fr, patterns[i]);
+      }
+
+      timing.endTiming("Finder.findEach");
+      return matches;
+   }
+
    public boolean hasNext(){
       if(_results != null && _results.size() > _cur_result_i)
          return true;
@@ -168,19 +226,22 @@ public class Finder implements Iterator<Match>{
 
    public Match next(){
       Match ret = null;
-      if(hasNext()){
-         FindResult fr = _results.get(_cur_result_i++);
-         IScreen parentScreen = null;
-         if(_region != null)
-            parentScreen = _region.getScreen();
-         ret = new Match(fr, parentScreen);
-         if(_region != null){
-            ret = _region.toGlobalCoord(ret);
-         }
-         if(_pattern != null){
-            Location offset = _pattern.getTargetOffset();
-            ret.setTargetOffset(offset);
-         }
+      if(hasNext())
+         ret = _results.get(_cur_result_i++);
+      return ret;
+   }
+
+   private Match toMatch(FindResult fr, Pattern ptn){
+      IScreen parentScreen = null;
+      if(_region != null)
+         parentScreen = _region.getScreen();
+      Match ret = new Match(fr, parentScreen);
+      if(_region != null){
+         ret = _region.toGlobalCoord(ret);
+      }
+      if(ptn != null){
+         Location offset = ptn.getTargetOffset();
+         ret.setTargetOffset(offset);
       }
       return ret;
    }
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2010-2011, Sikuli.org
+ * Released under the MIT License.
+ *
+ */
+package org.sikuli.script;
+
+import java.awt.Rectangle;
+
+/**
+ * Captures one screen on demand and shares the frames. Regions of the
+ * same screen asking for a frame at about the same time get views of one
+ * capture instead of a capture each (java.awt.Robot serializes them
+ * anyway).
+ */
+public class FrameBus {
+   IRobot _robot;
+   Rectangle _bounds;
+   CaptureBufferPool _pool;
+
+   ScreenFrame _latest = null;
+   boolean _capturing = false;
+   long _captures = 0;
+
+   /**
+    * @param bounds the screen area, in global coordinates
+    */
+   public FrameBus(IRobot robot, Rectangle bounds, CaptureBufferPool pool){
+      _robot = robot;
+      _bounds = bounds;
+      _pool = pool;
+   }
+
+   /**
+    * returns a frame whose capture started at most maxAge seconds ago,
+    * capturing a new one only if there is none. If another thread is
+    * capturing already, waits for its frame. The caller must release()
+    * the frame.
+    */
+   public ScreenFrame acquire(double maxAge){
+      long oldest = System.nanoTime() - (long)(maxAge * 1e9);
+      synchronized(this){
+         while(true){
+            if(_latest != null && _latest.getTime() - oldest >= 0)
+               return _latest.retain();
+            if(!_capturing)
+               break;
+            try{
+               wait();
+            }
+            catch(InterruptedException e){
+               Thread.currentThread().interrupt();
+               break;
+            }
+         }
+         _capturing = true;
+      }
+
+      ScreenFrame frame = null, old = null;
+      try{
+         long t = System.nanoTime();
+         Rectangle local = new Rectangle(0, 0, _bounds.width, _bounds.height);
+         ScreenImage simg = _robot.captureScreen(local);
+         frame = new ScreenFrame(new Rectangle(_bounds), simg.getImage(), t, _pool);
+      }
+      finally{
+         synchronized(this){
+            _capturing = false;
+            if(frame != null){
+               old = _latest;
+               _latest = frame.retain();
+               _captures++;
+            }
+            notifyAll();
+         }
+      }
+      if(old != null)
+         old.release();
+      return frame;
+   }
+
+   /**
+    * number of captures taken so far.
+    */
+   public synchronized long getCaptureCount(){
+      return _captures;
+   }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2010-2011, Sikuli.org
+ * Released under the MIT License.
+ *
+ */
+package org.sikuli.script;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Process-wide cache of where image files were found and of the images
+ * decoded from them, so that patterns given again and again by name
+ * neither search the image path nor decode the file each time.
+ *
+ * Locations are forgotten when the image path changes or the file found
+ * is gone, and a name that could not be found is only looked up again
+ * after NOT_FOUND_MILLIS.
+ * Decoded images are kept in LRU order up to Settings.ImageCacheSize
+ * megabytes, through soft references so that memory can still be
+ * reclaimed, and are decoded again when their file changes. They are
+ * shared, so they must not be drawn on; Pattern.getImage() hands out
+ * copies.
+ */
+public class ImageCache {
+   static final long NOT_FOUND_MILLIS = 1000;
+
+   private static class Location {
+      String path;   // null if not found
+      long expires;
+   }
+
+   private static class Entry {
+      SoftReference<BufferedImage> image;
+      long lastModified, length;
+      long bytes;
+   }
+
+   private static Map<String, Location> _locations = new HashMap<String, Location>();
+   private static String _imagePath = null;
+
+   private static LinkedHashMap<String, Entry> _images =
+      new LinkedHashMap<String, Entry>(16, 0.75f, true);
+   private static long _bytes = 0;
+   private static long _hits = 0, _misses = 0;
+
+   private static String locationKey(String bundlePath, String filename){
+      return bundlePath + File.pathSeparator + filename;
+   }
+
+   // the path a name was found at with the given bundle and image path,
+   // or null if it hasn't been looked up
+   static synchronized String getLocation(String bundlePath, String imagePath,
+                                          String filename) throws FileNotFoundException{
+      if(!imagePath.equals(_imagePath)){
+         _locations.clear();
+         _imagePath = imagePath;
+         return null;
+      }
+      String key = locationKey(bundlePath, filename);
+      Location loc = _locations.get(key);
+      if(loc == null)
+         return null;
+      if(loc.path == null){
+         if(System.currentTimeMillis() < loc.expires)
+            throw new FileNotFoundException("File " + filename + " not exists");
+         _locations.remove(key);
+         return null;
+      }
+      if(!new File(loc.path).exists()){
+         _locations.remove(key);
+         return null;
+      }
+      return loc.path;
+   }
+
+   // path is null if the name could not be found
+   static synchronized void putLocation(String bundlePath, String imagePath,
+                                        String filename, String path){
+      if(!imagePath.equals(_imagePath))
+         return;
+      Location loc = new Location();
+      loc.path = path;
+      loc.expires = System.currentTimeMillis() + NOT_FOUND_MILLIS;
+      _locations.put(locationKey(bundlePath, filename), loc);
+   }
+
+   // the image in a file, decoded only if it isn't cached or the file
+   // has changed since
+   static BufferedImage read(String path) throws IOException{
+      File f = new File(path);
+      long lastModified = f.lastModified(), length = f.length();
+      synchronized(ImageCache.class){
+         Entry e = _images.get(path);
+         if(e != null){
+            BufferedImage img = e.image.get();
+            if(img != null && e.lastModified == lastModified && e.length == length){
+               _hits++;
+               return img;
+            }
+            remove(path);
+         }
+         _misses++;
+      }
+
+      BufferedImage img = ImageIO.read(f);
+      if(img == null)
+         throw new IOException("Can't read the image " + path);
+
+      long capacity = Settings.ImageCacheSize * 1024L * 1024L;
+      Entry e = new Entry();
+      e.image = new SoftReference<BufferedImage>(img);
+      e.lastModified = lastModified;
+      e.length = length;
+      e.bytes = (long)img.getWidth() * img.getHeight() *
+                ((img.getColorModel().getPixelSize() + 7) / 8);
+      synchronized(ImageCache.class){
+         if(e.bytes <= capacity){
+            remove(path);
+            _images.put(path, e);
+            _bytes += e.bytes;
+            evict(capacity);
+         }
+      }
+      return img;
+   }
+
+   private static void remove(String path){
+      Entry e = _images.remove(path);
+      if(e != null)
+         _bytes -= e.bytes;
+   }
+
+   // drops the images the garbage collector took, then the least
+   // recently used ones until the rest fit
+   private static void evict(long capacity){
+      Iterator<Entry> it = _images.values().iterator();
+      while(it.hasNext()){
+         Entry e = it.next();
+         if(e.image.get() == null){
+            _bytes -= e.bytes;
+            it.remove();
+         }
+      }
+      it = _images.values().iterator();
+      while(_bytes > capacity && it.hasNext()){
+         _bytes -= it.next().bytes;
+         it.remove();
+      }
+   }
+
+   public static synchronized void clear(){
+      _locations.clear();
+      _images.clear();
+      _bytes = 0;
+   }
+
+   public static synchronized long getHits(){ return _hits; }
+   public static synchronized long getMisses(){ return _misses; }
+   public static synchronized long getBytes(){ return _bytes; }
+}
@@ -15,24 +15,10 @@ import java.net.MalformedURLException;
 public class ImageLocator {
 
    Map<URI,String> _cache = new HashMap<URI, String>();
-   String _cache_dir;
    String _bundle_path;
 
    public ImageLocator(String bundlePath){
       _bundle_path = bundlePath;
-      String name = "";
-      if(bundlePath != null){
-         File f = new File(bundlePath);
-         name = f.getName() + "/";
-      }
-      _cache_dir = System.getProperty("java.io.tmpdir")
-                   + "/sikuli_cache/" + name;
-      File dir = new File(_cache_dir);
-      if(!dir.exists())
-         dir.mkdir();
-      else{
-         //TODO: init _cache from the content of the cache dir
-      }
    }
 
    public ImageLocator(){
@@ -55,8 +41,9 @@ public class ImageLocator {
          URI uri = url.toURI();
          if(_cache.containsKey(uri))
             return _cache.get(uri);
-         String localFile = Util.downloadURL(url, _cache_dir);
-         Debug.log(3, "download " + uri + " to local: "  + localFile);
+         // kept across runs, see URLCache
+         String localFile = URLCache.getInstance().get(url);
+         Debug.log(3, "locate " + uri + " at local: "  + localFile);
          _cache.put(uri, localFile);
          return localFile;
       }
@@ -70,6 +57,12 @@ public class ImageLocator {
       }
    }
 
+   // downloads the images a bundle on the web refers to, all at once,
+   // so that they are found in the cache later
+   public static int prefetchBundle(String url) throws IOException{
+      return URLCache.getInstance().prefetchBundle(new URL(url)).size();
+   }
+
    public static void addImagePath(String path){
       String imgPath = System.getProperty("SIKULI_IMAGE_PATH");
       if(imgPath != null)
@@ -124,6 +117,15 @@ public class ImageLocator {
    }
 
    public static String[] getImagePath(){
+      String sikuli_img_path = getImagePathString();
+      if(sikuli_img_path.length() > 0){
+         return splitImagePath(sikuli_img_path);
+      }
+      return new String[]{};
+   }
+
+   // ENV[SIKULI_IMAGE_PATH] and System.getProperty("SIKULI_IMAGE_PATH") joined
+   protected static String getImagePathString(){
       String sikuli_img_path = "";
       if(System.getenv("SIKULI_IMAGE_PATH") != null)
          sikuli_img_path += System.getenv("SIKULI_IMAGE_PATH");
@@ -133,10 +135,7 @@ public class ImageLocator {
             sikuli_img_path += Env.getSeparator();
          sikuli_img_path += System.getProperty("SIKULI_IMAGE_PATH");
       }
-      if(sikuli_img_path.length() > 0){
-         return splitImagePath(sikuli_img_path);
-      }
-      return new String[]{};
+      return sikuli_img_path;
    }
 
    protected String searchFile(String filename) throws IOException {
@@ -169,7 +168,25 @@ public class ImageLocator {
    // find the file in the following order:
    // 1. absolute path > 2. the current bundle path >
    // 3. ENV[SIKULI_IMAGE_PATH] > 4. System.getProperty("SIKULI_IMAGE_PATH")
+   // Where a name was found is remembered (see ImageCache).
    public String locate(String filename) throws IOException{
+      String imagePath = getImagePathString();
+      String ret = ImageCache.getLocation(_bundle_path, imagePath, filename);
+      if(ret != null)
+         return ret;
+      try{
+         ret = search(filename);
+      }
+      catch(FileNotFoundException e){
+         ImageCache.putLocation(_bundle_path, imagePath, filename, null);
+         throw e;
+      }
+      if(ret != null)
+         ImageCache.putLocation(_bundle_path, imagePath, filename, ret);
+      return ret;
+   }
+
+   protected String search(String filename) throws IOException{
       String ret = filename;
       URL url = getURL(filename);
       if( url != null )
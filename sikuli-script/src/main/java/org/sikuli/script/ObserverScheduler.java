@@ -0,0 +1,493 @@
+/*
+ * Copyright 2010-2011, Sikuli.org
+ * Released under the MIT License.
+ *
+ */
+package org.sikuli.script;
+
+import java.awt.Rectangle;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Runs the observers of all regions on a small pool of worker threads
+ * (Settings.ObserveThreads, one per core by default) instead of a thread
+ * per observing region.
+ * <p>
+ * Each region is scanned at its own observe scan rate until its observation
+ * ends. When a scan is due, the regions of the same screen overlapping it
+ * that are due within half a period are captured along with it, and the
+ * other workers pick them up with their part of that capture.
+ * <p>
+ * A region observed in the foreground by {@link #observe} is scanned in the
+ * thread that called it, so that its handlers may observe or wait on other
+ * regions without holding up a worker.
+ * <p>
+ * {@link #register()} publishes the queue depth and the scheduling lag over
+ * JMX under {@link #OBJECT_NAME}.
+ */
+public class ObserverScheduler implements ObserverSchedulerMXBean {
+   public static final String OBJECT_NAME = "org.sikuli.script:type=ObserverScheduler";
+
+   static ObserverScheduler _instance;
+
+   public static synchronized ObserverScheduler getInstance(){
+      if (_instance == null){
+         _instance = new ObserverScheduler();
+      }
+      return _instance;
+   }
+
+   /**
+    * A region being observed. Owned by a worker while it is scanned, in
+    * the timed queue otherwise. A foreground observation is never queued;
+    * the thread in observe() scans it.
+    */
+   static class Observation {
+      Region region;
+      long end;        // System.nanoTime() when the observation ends
+      long period;     // nanoseconds between scans
+      long due;        // when the next scan should start
+      ScreenImage image = null;  // a capture made along with another region
+      boolean queued = false, done = false;
+      boolean scanning = false;   // taken by a worker
+      boolean waited = false;   // someone is in observe() for it, and scans it
+      RuntimeException error = null;
+
+      Observation(Region r){
+         region = r;
+      }
+   }
+
+   Map<Region, Observation> _observations = new IdentityHashMap<Region, Observation>();
+   PriorityQueue<Observation> _timed = new PriorityQueue<Observation>(11,
+      new Comparator<Observation>(){
+         public int compare(Observation a, Observation b){
+            return a.due - b.due < 0? -1 : (a.due == b.due? 0 : 1);
+         }
+      });
+   LinkedList<Observation> _ready = new LinkedList<Observation>();
+   int _workers = 0, _nextWorker = 1;
+   boolean _registered = false;
+
+   long _scans = 0, _captures = 0;
+   double _lagTotal = 0, _lagMax = 0;
+
+   ObserverScheduler(){
+   }
+
+   static int getPoolSize(){
+      if(Settings.ObserveThreads > 0)
+         return Settings.ObserveThreads;
+      return Runtime.getRuntime().availableProcessors();
+   }
+
+   static long getPeriod(Region r){
+      return (long)(1e9 / r.getObserveScanRate());
+   }
+
+   /**
+    * starts observing the region for the given number of seconds, or
+    * changes the end of its running observation.
+    */
+   public synchronized void add(Region r, double secs){
+      long now = System.nanoTime();
+      Observation o = _observations.get(r);
+      if(o == null){
+         o = new Observation(r);
+         o.due = now;
+         _observations.put(r, o);
+         o.queued = true;
+         _timed.add(o);
+      }
+      o.end = secs*1e9 >= Long.MAX_VALUE/2? Long.MAX_VALUE : now + (long)(secs*1e9);
+      if(_workers < Math.min(getPoolSize(), _observations.size()))
+         startWorker();
+      notifyAll();
+   }
+
+   /**
+    * ends the observation of the region.
+    */
+   public synchronized void remove(Region r){
+      Observation o = _observations.get(r);
+      if(o == null)
+         return;
+      if(o.queued){
+         _timed.remove(o);
+         _ready.remove(o);
+         finish(o);
+      }
+      else{
+         o.end = System.nanoTime();  // finished after the scan
+         notifyAll();
+      }
+   }
+
+   /**
+    * observes the region in the calling thread and returns when the
+    * observation is over. An exception thrown by one of its observers ends
+    * it and is rethrown here.
+    */
+   public void observe(Region r, double secs){
+      Observation o;
+      synchronized(this){
+         long now = System.nanoTime();
+         o = _observations.get(r);
+         if(o == null){
+            o = new Observation(r);
+            o.due = now;
+            _observations.put(r, o);
+         }
+         else if(o.queued){
+            _timed.remove(o);
+            _ready.remove(o);
+            o.queued = false;
+         }
+         o.end = secs*1e9 >= Long.MAX_VALUE/2? Long.MAX_VALUE : now + (long)(secs*1e9);
+         o.waited = true;
+      }
+      try{
+         while(true){
+            ScreenImage simg;
+            synchronized(this){
+               // a worker may be scanning it, or capturing it with others
+               while(!o.done){
+                  long now = System.nanoTime();
+                  if(!o.scanning){
+                     if(o.end - now <= 0)
+                        finish(o);
+                     else if(o.image != null || o.due - now <= 0)
+                        break;
+                  }
+                  wait(o.scanning? 0 : Math.max(1, (o.due - now) / 1000000));
+               }
+               if(o.done)
+                  break;
+               simg = o.image;
+               o.image = null;
+            }
+            long begin = System.nanoTime();
+            RuntimeException error = scan(o, simg);
+            synchronized(this){
+               reschedule(o, begin, error);
+            }
+         }
+      }
+      catch(InterruptedException e){
+         synchronized(this){
+            if(!o.done)
+               finish(o);
+         }
+         Thread.currentThread().interrupt();
+         return;
+      }
+      if(o.error != null)
+         throw o.error;
+   }
+
+   public synchronized boolean isObserving(Region r){
+      return _observations.containsKey(r);
+   }
+
+   // must hold the lock
+   void startWorker(){
+      _workers++;
+      Thread th = new Thread("Observer " + _nextWorker++){
+         public void run(){
+            work();
+         }
+      };
+      th.start();
+   }
+
+   // must hold the lock
+   void finish(Observation o){
+      o.queued = false;
+      o.done = true;
+      if(o.image != null){
+         o.image.release();
+         o.image = null;
+      }
+      _observations.remove(o.region);
+      notifyAll();
+   }
+
+   static boolean sameScreen(IScreen a, IScreen b){
+      if(a == b)
+         return true;
+      if(a instanceof Screen && b instanceof Screen &&
+            !(a instanceof UnionScreen) && !(b instanceof UnionScreen))
+         return ((Screen)a).getID() == ((Screen)b).getID();
+      return false;
+   }
+
+   // takes the observations that can share the capture for o out of the
+   // timed queue. Must hold the lock.
+   List<Observation> takeOverlapping(Observation o, long now){
+      List<Observation> group = new ArrayList<Observation>();
+      group.add(o);
+      Rectangle union = o.region.getROI();
+      List<Observation> candidates = new ArrayList<Observation>(_timed);
+      Collections.sort(candidates, _timed.comparator());
+      boolean grown = true;
+      while(grown){
+         grown = false;
+         for(Observation c : candidates){
+            if(group.contains(c) || c.due - now > c.period/2 ||
+                  !sameScreen(c.region.getScreen(), o.region.getScreen()) ||
+                  !union.intersects(c.region.getROI()))
+               continue;
+            group.add(c);
+            union.add(c.region.getROI());
+            grown = true;
+         }
+      }
+      for(int i=1;i<group.size();i++)
+         _timed.remove(group.get(i));
+      return group;
+   }
+
+   // true if another region of the same screen is observed, which may
+   // use a capture of the whole screen taken for this one
+   synchronized boolean isShared(Observation o){
+      for(Observation c : _observations.values()){
+         if(c != o && sameScreen(c.region.getScreen(), o.region.getScreen()))
+            return true;
+      }
+      return false;
+   }
+
+   // the part of simg inside rect (in global coordinates), or null
+   static ScreenImage crop(ScreenImage simg, Rectangle rect){
+      Rectangle bounds = new Rectangle(simg.x, simg.y,
+            simg.getImage().getWidth(), simg.getImage().getHeight());
+      Rectangle r = rect.intersection(bounds);
+      if(r.isEmpty())
+         return null;
+      int dx = r.x - simg.x, dy = r.y - simg.y;
+      Rectangle roi = simg.getROI();
+      ScreenImage sub = new ScreenImage(
+            new Rectangle(roi.x + dx, roi.y + dy, r.width, r.height),
+            simg.getImage().getSubimage(dx, dy, r.width, r.height));
+      sub.setBufferPool(simg._pool);
+      sub.x = r.x;
+      sub.y = r.y;
+      return sub;
+   }
+
+   // captures the group once and hands the others their part of it
+   ScreenImage captureGroup(List<Observation> group){
+      Observation o = group.get(0);
+      if(group.size() == 1)
+         return o.region.captureForObserve(o.period/1e9, isShared(o));
+
+      Rectangle union = o.region.getROI();
+      long period = o.period;
+      for(Observation c : group){
+         union.add(c.region.getROI());
+         period = Math.min(period, c.period);
+      }
+      ScreenImage simg = null;
+      try{
+         simg = o.region.captureForObserve(union, period/1e9, true);
+      }
+      finally{
+         synchronized(this){
+            long now = System.nanoTime();
+            for(Observation c : group){
+               if(c == o)
+                  continue;
+               c.scanning = false;
+               if(c.end - now <= 0)
+                  finish(c);
+               else if(c.waited)
+                  c.image = simg == null? null : crop(simg, c.region.getROI());
+               else if(simg == null || (c.image = crop(simg, c.region.getROI())) == null){
+                  // try again on their own
+                  c.queued = true;
+                  _timed.add(c);
+               }
+               else{
+                  c.queued = true;
+                  _ready.add(c);
+               }
+            }
+            notifyAll();
+         }
+      }
+      ScreenImage mine = crop(simg, o.region.getROI());
+      return mine != null? mine : o.region.captureForObserve(o.period/1e9, isShared(o));
+   }
+
+   void work(){
+      while(true){
+         Observation o;
+         List<Observation> group = null;
+         synchronized(this){
+            while(true){
+               if(_observations.isEmpty()){
+                  _workers--;
+                  return;
+               }
+               long now = System.nanoTime();
+               if(!_ready.isEmpty()){
+                  o = _ready.removeFirst();
+                  break;
+               }
+               Observation head = _timed.peek();
+               if(head != null && head.due - now <= 0){
+                  _timed.poll();
+                  group = takeOverlapping(head, now);
+                  o = head;
+                  break;
+               }
+               try{
+                  long left = head == null? 0 : Math.max(1, (head.due - now) / 1000000);
+                  wait(left);
+               }
+               catch(InterruptedException e){
+                  _workers--;
+                  return;
+               }
+            }
+            for(Observation c : (group != null? group : Collections.singletonList(o))){
+               c.queued = false;
+               c.scanning = true;
+            }
+            double lag = Math.max(0, System.nanoTime() - o.due) / 1e6;
+            _scans++;
+            _lagTotal += lag;
+            _lagMax = Math.max(_lagMax, lag);
+            if(group != null)
+               _captures++;
+         }
+
+         long begin = System.nanoTime();
+         RuntimeException error = null;
+         ScreenImage simg = null;
+         try{
+            if(group != null)
+               simg = captureGroup(group);
+            else{
+               simg = o.image;
+               o.image = null;
+            }
+         }
+         catch(RuntimeException e){
+            error = e;
+         }
+         if(error == null)
+            error = scan(o, simg);
+
+         synchronized(this){
+            reschedule(o, begin, error);
+         }
+      }
+   }
+
+   // runs the observers of o on simg, or on a capture of its own if null
+   RuntimeException scan(Observation o, ScreenImage simg){
+      try{
+         if(simg == null)
+            simg = o.region.captureForObserve(o.period/1e9, isShared(o));
+         o.region.observeOnce(simg);
+      }
+      catch(RuntimeException e){
+         return e;
+      }
+      return null;
+   }
+
+   // schedules the next scan of o, or finishes it. Must hold the lock.
+   void reschedule(Observation o, long begin, RuntimeException error){
+      long now = System.nanoTime();
+      o.scanning = false;
+      o.period = getPeriod(o.region);
+      o.due = Math.max(begin + o.period, now);
+      if(error != null){
+         o.error = error;
+         if(!o.waited)
+            Debug.error("Observer of " + o.region + ": " + error);
+         finish(o);
+      }
+      else if(o.due - o.end >= 0)
+         finish(o);
+      else if(o.waited)
+         notifyAll();
+      else{
+         o.queued = true;
+         _timed.add(o);
+         notifyAll();
+      }
+   }
+
+   /**
+    * registers the MXBean with the platform MBean server (once).
+    */
+   public static boolean register(){
+      ObserverScheduler scheduler = getInstance();
+      synchronized(scheduler){
+         if(scheduler._registered)
+            return true;
+         try{
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(scheduler, new ObjectName(OBJECT_NAME));
+         }
+         catch(JMException e){
+            Debug.error("Can't register " + OBJECT_NAME + ": " + e.getMessage());
+            return false;
+         }
+         scheduler._registered = true;
+      }
+      return true;
+   }
+
+   public synchronized int getWorkers(){
+      return _workers;
+   }
+
+   public synchronized int getObservedRegions(){
+      return _observations.size();
+   }
+
+   public synchronized int getQueueDepth(){
+      long now = System.nanoTime();
+      int depth = _ready.size();
+      for(Observation o : _timed)
+         if(o.due - now <= 0)
+            depth++;
+      return depth;
+   }
+
+   public synchronized long getScans(){
+      return _scans;
+   }
+
+   public synchronized long getCaptures(){
+      return _captures;
+   }
+
+   public synchronized double getMeanLagMillis(){
+      return _scans > 0? _lagTotal / _scans : 0;
+   }
+
+   public synchronized double getMaxLagMillis(){
+      return _lagMax;
+   }
+
+   public synchronized void reset(){
+      _scans = _captures = 0;
+      _lagTotal = _lagMax = 0;
+   }
+}
@@ -0,0 +1,26 @@
+/*
+ * Copyright 2010-2011, Sikuli.org
+ * Released under the MIT License.
+ *
+ */
+package org.sikuli.script;
+
+/**
+ * JMX view of the ObserverScheduler.
+ */
+public interface ObserverSchedulerMXBean {
+   public int getWorkers();
+   public int getObservedRegions();
+
+   // scans that are due but not started yet
+   public int getQueueDepth();
+
+   public long getScans();
+   public long getCaptures();
+
+   // how late the scans start, in milliseconds
+   public double getMeanLagMillis();
+   public double getMaxLagMillis();
+
+   public void reset();
+}
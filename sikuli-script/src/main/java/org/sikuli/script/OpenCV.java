@@ -8,6 +8,7 @@ package org.sikuli.script;
 import java.awt.*;
 import java.awt.image.*;
 import java.awt.color.*;
+import java.nio.ByteBuffer;
 
 import org.sikuli.script.natives.Mat;
 import org.sikuli.script.natives.Vision;
@@ -38,8 +39,60 @@ public class OpenCV {
    }
 
    public static Mat convertBufferedImageToMat(BufferedImage img){
+      Mat mat = new Mat();
+      convertBufferedImageToMat(img, mat);
+      return mat;
+   }
+
+   /**
+    * Converts into the given Mat, reusing its buffer if it already
+    * holds an image of the same size.
+    */
+   public static void convertBufferedImageToMat(BufferedImage img, Mat mat){
+      int w = img.getWidth(), h = img.getHeight();
+      Raster raster = img.getRaster();
+      DataBuffer db = raster.getDataBuffer();
+      if(db.getNumBanks() == 1){
+         // hand the raster's own array to the vision engine. A view made
+         // by getSubimage starts further into its parent's array.
+         int x0 = raster.getMinX() - raster.getSampleModelTranslateX();
+         int y0 = raster.getMinY() - raster.getSampleModelTranslateY();
+         switch(img.getType()){
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_ARGB:{
+               int stride = ((SinglePixelPackedSampleModel)raster.getSampleModel())
+                                          .getScanlineStride();
+               int[] pixels = ((DataBufferInt)db).getData();
+               Vision.fillMatFromInts(h, w, pixels, db.getOffset() + y0*stride + x0,
+                                      stride, mat);
+               return;
+            }
+            case BufferedImage.TYPE_3BYTE_BGR:{
+               ComponentSampleModel sm = (ComponentSampleModel)raster.getSampleModel();
+               if(sm.getPixelStride() != 3)
+                  break;
+               int stride = sm.getScanlineStride();
+               byte[] pixels = ((DataBufferByte)db).getData();
+               Vision.fillMatFromBGR(h, w, pixels, db.getOffset() + y0*stride + x0*3,
+                                     stride, mat);
+               return;
+            }
+         }
+      }
       byte[] data = convertBufferedImageToByteArray(img);
-      return Vision.createMat(img.getHeight(), img.getWidth(), data);
+      Vision.fillMat(h, w, data, mat);
+   }
+
+   /**
+    * Converts w*h 4-byte BGRA pixels held in a direct ByteBuffer.
+    */
+   public static Mat convertByteBufferToMat(ByteBuffer buf, int w, int h){
+      if(!buf.isDirect() || buf.capacity() < w*h*4)
+         throw new IllegalArgumentException(
+               "need a direct buffer of at least " + (w*h*4) + " bytes");
+      Mat mat = new Mat();
+      Vision.fillMatFromBuffer(h, w, buf, mat);
+      return mat;
    }
 
 }
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2010-2011, Sikuli.org
+ * Released under the MIT License.
+ *
+ */
+package org.sikuli.script;
+
+import java.util.AbstractList;
+
+import org.sikuli.script.natives.PackedFindResults;
+
+/**
+ * The results of a search as the vision engine packs them: x, y, w, h and
+ * score of each result in one array, fetched in a single call. A Match is
+ * only created when it is first asked for, in the coordinates of the
+ * region searched.
+ */
+class PackedMatches extends AbstractList<Match> {
+   static final int FIELDS = 5;
+
+   private final double[] _values;
+   private final String _texts;
+   private String[] _splitTexts = null;
+   private final Match[] _matches;
+   private final Region _region;
+   private final Pattern _pattern;
+
+   PackedMatches(double[] values, String texts, Region region, Pattern ptn){
+      _values = values;
+      _texts = texts;
+      _matches = new Match[values.length / FIELDS];
+      _region = region;
+      _pattern = ptn;
+   }
+
+   PackedMatches(PackedFindResults results, Region region, Pattern ptn){
+      this(getValues(results), results.getTexts(), region, ptn);
+   }
+
+   static double[] getValues(PackedFindResults results){
+      double[] values = new double[results.size() * FIELDS];
+      if(values.length > 0)
+         results.getValues(values);
+      return values;
+   }
+
+   public int size(){
+      return _matches.length;
+   }
+
+   public Match get(int i){
+      if(i < 0 || i >= _matches.length)
+         throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + _matches.length);
+      if(_matches[i] == null)
+         _matches[i] = createMatch(i);
+      return _matches[i];
+   }
+
+   String getText(int i){
+      if(_texts == null || _texts.length() == 0)
+         return null;
+      if(_splitTexts == null)
+         _splitTexts = _texts.split("\n", -1);
+      return i < _splitTexts.length? _splitTexts[i] : null;
+   }
+
+   private Match createMatch(int i){
+      int k = i*FIELDS;
+      IScreen parentScreen = null;
+      if(_region != null)
+         parentScreen = _region.getScreen();
+      Match m = new Match((int)_values[k], (int)_values[k+1], (int)_values[k+2],
+                          (int)_values[k+3], _values[k+4], parentScreen, getText(i));
+      if(_region != null)
+         m = _region.toGlobalCoord(m);
+      if(_pattern != null)
+         m.setTargetOffset(_pattern.getTargetOffset());
+      return m;
+   }
+}
@@ -6,15 +6,15 @@
 package org.sikuli.script;
 
 import java.awt.image.BufferedImage;
-import java.io.File;
+import java.awt.image.ColorModel;
+import java.awt.image.WritableRaster;
 import java.io.IOException;
 
-import javax.imageio.ImageIO;
-
 public class Pattern {
    String imgURL = null;
    float similarity = 0.7f;
    BufferedImage image;
+   boolean shared = false;   // image is from the ImageCache
 
    int dx=0, dy=0;
 
@@ -23,6 +23,7 @@ public class Pattern {
       imgURL = p.imgURL;
       similarity = p.similarity;
       image = p.image;
+      shared = p.shared;
       dx = p.dx;
       dy = p.dy;
    }
@@ -75,15 +76,33 @@ public class Pattern {
       return imgURL;
    }
    
+   /**
+    * returns the image of the pattern. An image read from a file is a
+    * copy of its own, which the caller may draw on.
+    */
    public BufferedImage getImage() throws IOException{
+      BufferedImage img = getSharedImage();
+      return shared? copy(img) : img;
+   }
+
+   // the image as it is searched for. One read from a file is shared by
+   // every pattern of that file and must not be drawn on.
+   BufferedImage getSharedImage() throws IOException{
       if (image == null){
-         // locate and read the image into memory
+         // locate and read the image into memory, or take it from the cache
          ImageLocator locator = new ImageLocator();
          String foundImageFullPath = locator.locate(getFilename());       
-         image = ImageIO.read(new File(foundImageFullPath));
+         image = ImageCache.read(foundImageFullPath);
+         shared = true;
       }
       return image;
    }
 
+   static BufferedImage copy(BufferedImage img){
+      ColorModel cm = img.getColorModel();
+      WritableRaster raster = img.copyData(img.getRaster().createCompatibleWritableRaster());
+      return new BufferedImage(cm, raster, cm.isAlphaPremultiplied(), null);
+   }
+
 }
 
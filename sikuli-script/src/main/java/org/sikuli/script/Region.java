@@ -21,6 +21,10 @@ import java.util.List;
 import org.python.util.PythonInterpreter;
 import org.python.core.*;
 
+import org.sikuli.script.natives.FindResult;
+import org.sikuli.script.natives.IncrementalFinder;
+import org.sikuli.script.natives.Mat;
+
 public class Region {
    final static float DEFAULT_HIGHLIGHT_TIME = 2f;
    private IRobot _robot;
@@ -43,6 +47,7 @@ public class Region {
 
    protected boolean _observing = false;
    protected EventManager _evtMgr = null;
+   protected float _observeScanRate = 0; // 0 for Settings.ObserveScanRate
 
    // the last captured screen image the last match or matches are based on
    // TODO: consider moving this to Screen class
@@ -51,6 +56,10 @@ public class Region {
    protected Match _lastMatch;
    protected Iterator<Match> _lastMatches;
 
+   // a capture taken by an adaptive wait, for the next find of the same
+   // thread to use (observers scan the region on other threads)
+   final ThreadLocal<ScreenImage> _prefetched = new ThreadLocal<ScreenImage>();
+
 
   /**
    * Create a region with the provided coordinate / size
@@ -363,6 +372,12 @@ public class Region {
    public boolean getThrowException(){ return _throwException; }
    public double getAutoWaitTimeout(){ return _autoWaitTimeout; }
 
+   public void setObserveScanRate(float rate){ _observeScanRate = rate; }
+
+   public float getObserveScanRate(){ 
+      return _observeScanRate > 0? _observeScanRate : Settings.ObserveScanRate; 
+   }
+
 
 
    
@@ -378,6 +393,12 @@ public class Region {
     * @throws FindFailed if the Find operation failed
     */
    public <PSC> Match find(final PSC target) throws FindFailed{
+      return new TimedOperation<Match, FindFailed>(){
+         Match run() throws FindFailed{ return _find(target); }
+      }.perform(RegionOperation.Type.FIND, target);
+   }
+
+   private <PSC> Match _find(final PSC target) throws FindFailed{
       if(_autoWaitTimeout > 0){
          return wait(target, _autoWaitTimeout);
       }
@@ -433,7 +454,14 @@ public class Region {
     * @return All elements matching
     * @throws FindFailed if the Find operation failed
     */
-   public <PSC> Iterator<Match> findAll(PSC target) 
+   public <PSC> Iterator<Match> findAll(final PSC target) 
+                                             throws  FindFailed{
+      return new TimedOperation<Iterator<Match>, FindFailed>(){
+         Iterator<Match> run() throws FindFailed{ return _findAll(target); }
+      }.perform(RegionOperation.Type.FIND_ALL, target);
+   }
+
+   private <PSC> Iterator<Match> _findAll(PSC target) 
                                              throws  FindFailed{
       
       while (true){
@@ -489,7 +517,13 @@ public class Region {
     * @return All elements matching
     * @throws FindFailed if the Find operation failed
     */
-   public <PSC> Match wait(PSC target, double timeout) throws FindFailed{
+   public <PSC> Match wait(final PSC target, final double timeout) throws FindFailed{
+      return new TimedOperation<Match, FindFailed>(){
+         Match run() throws FindFailed{ return _wait(target, timeout); }
+      }.perform(RegionOperation.Type.WAIT, target);
+   }
+
+   private <PSC> Match _wait(PSC target, double timeout) throws FindFailed{
       
       while (true){         
          try {
@@ -533,7 +567,13 @@ public class Region {
     * @param timeout Timeout in second
     * @return The element matching
     */
-   public <PSC> Match exists(PSC target, double timeout) {
+   public <PSC> Match exists(final PSC target, final double timeout) {
+      return new TimedOperation<Match, RuntimeException>(){
+         Match run(){ return _exists(target, timeout); }
+      }.perform(RegionOperation.Type.EXISTS, target);
+   }
+
+   private <PSC> Match _exists(PSC target, double timeout) {
       try{
          RepeatableFind rf = new RepeatableFind(target);
          if (rf.repeat(timeout)){
@@ -550,6 +590,85 @@ public class Region {
    }
 
 
+   /**
+    *  Look for several targets at once (with the default autoWaitTimeout)
+    *
+    * @param targets A list of search criteria
+    * @return The best match of each target, null for the targets that
+    *         were not found. null if none of them was found.
+    */
+   public <PSC> List<Match> findAny(List<PSC> targets) {
+      return findAny(targets, _autoWaitTimeout);
+   }
+
+   /**
+    *  Look for several targets at once, waiting until at least one of
+    *  them appears or the timeout is passed. Every scan captures the
+    *  screen only once and searches all the targets in it.
+    *
+    * @param targets A list of search criteria
+    * @param timeout Timeout in second
+    * @return The best match of each target, null for the targets that
+    *         were not found. null if none of them was found.
+    */
+   public <PSC> List<Match> findAny(final List<PSC> targets, final double timeout) {
+      return new TimedOperation<List<Match>, RuntimeException>(){
+         List<Match> run(){ return _findAny(targets, timeout); }
+      }.perform(RegionOperation.Type.FIND_ANY, targets);
+   }
+
+   private <PSC> List<Match> _findAny(List<PSC> targets, double timeout) {
+      try{
+         RepeatableFindAny rf = new RepeatableFindAny(targets);
+         if (rf.repeat(timeout)){
+            List<Match> matches = Arrays.asList(rf.getMatches());
+            _lastMatch = best(matches);
+            return matches;
+         }
+      }
+      catch(Exception ff){
+         Debug.error("findAny: " + ff.getMessage());
+      }
+      _lastMatch = null;
+      return null;
+   }
+
+   // the match with the highest score, null if there is none
+   private static Match best(List<Match> matches){
+      Match best = null;
+      for(Match m : matches){
+         if(m != null && (best == null || m.getScore() > best.getScore()))
+            best = m;
+      }
+      return best;
+   }
+
+   /**
+    *  Find the target that matches best (with the default autoWaitTimeout)
+    *
+    * @param targets A list of search criteria
+    * @return The match with the highest score, null if none was found
+    */
+   public <PSC> Match findBest(List<PSC> targets) {
+      return findBest(targets, _autoWaitTimeout);
+   }
+
+   /**
+    *  Find the target that matches best, waiting until at least one of
+    *  them appears or the timeout is passed.
+    *
+    * @param targets A list of search criteria
+    * @param timeout Timeout in second
+    * @return The match with the highest score, null if none was found
+    */
+   public <PSC> Match findBest(List<PSC> targets, double timeout) {
+      List<Match> matches = findAny(targets, timeout);
+      if(matches == null)
+         return null;
+      return _lastMatch;
+   }
+
+
    public <PSC> boolean waitVanish(PSC target) {
       return waitVanish(target, _autoWaitTimeout);
    }
@@ -559,7 +678,14 @@ public class Region {
     *  waits until target vanishes or timeout (in second) is passed
     *  @return true if the target vanishes, otherwise returns false.
     */
-   public <PSC> boolean waitVanish(PSC target, double timeout) {
+   public <PSC> boolean waitVanish(final PSC target, final double timeout) {
+      return new TimedOperation<Boolean, RuntimeException>(){
+         Boolean run(){ return _waitVanish(target, timeout); }
+         boolean succeeded(Boolean ret){ return ret; }
+      }.perform(RegionOperation.Type.WAIT_VANISH, target);
+   }
+
+   private <PSC> boolean _waitVanish(PSC target, double timeout) {
       try {
          Debug.log(2, "waiting for " + target + " to vanish");
          RepeatableVanish r = new RepeatableVanish(target);
@@ -602,13 +728,17 @@ public class Region {
    * @return 1 if success, 0 otherwise
    * @throws FindFailed if the Find operation failed
    */
-   public <PSRML> int click(PSRML target, int modifiers) 
+   public <PSRML> int click(final PSRML target, final int modifiers) 
                                                 throws  FindFailed{
-      Location loc = getLocationFromPSRML(target);
-      int ret = _click(loc, InputEvent.BUTTON1_MASK, modifiers, false);
-      
-      SikuliActionManager.getInstance().clickTarget(this, target, _lastScreenImage, _lastMatch);      
-      return ret;
+      return new ClickOperation(){
+         Integer run() throws FindFailed{
+            Location loc = getLocationFromPSRML(target);
+            int ret = _click(loc, InputEvent.BUTTON1_MASK, modifiers, false);
+
+            SikuliActionManager.getInstance().clickTarget(Region.this, target, _lastScreenImage, _lastMatch);      
+            return ret;
+         }
+      }.perform(RegionOperation.Type.CLICK, target);
    }
 
 
@@ -631,13 +761,17 @@ public class Region {
    * @return 1 if success, 0 otherwise
    * @throws FindFailed if the Find operation failed
    */
-   public <PSRML> int doubleClick(PSRML target, int modifiers) 
+   public <PSRML> int doubleClick(final PSRML target, final int modifiers) 
                                                 throws  FindFailed{
-      Location loc = getLocationFromPSRML(target);
-      int ret = _click(loc, InputEvent.BUTTON1_MASK, modifiers, true);
+      return new ClickOperation(){
+         Integer run() throws FindFailed{
+            Location loc = getLocationFromPSRML(target);
+            int ret = _click(loc, InputEvent.BUTTON1_MASK, modifiers, true);
 
-      SikuliActionManager.getInstance().doubleClickTarget(this, target, _lastScreenImage, _lastMatch);      
-      return ret;
+            SikuliActionManager.getInstance().doubleClickTarget(Region.this, target, _lastScreenImage, _lastMatch);      
+            return ret;
+         }
+      }.perform(RegionOperation.Type.DOUBLE_CLICK, target);
    }
 
 
@@ -661,13 +795,17 @@ public class Region {
    * @return 1 if success, 0 otherwise
    * @throws FindFailed if the Find operation failed
    */
-   public <PSRML> int rightClick(PSRML target, int modifiers) 
+   public <PSRML> int rightClick(final PSRML target, final int modifiers) 
                                                 throws  FindFailed{
-      Location loc = getLocationFromPSRML(target);
-      int ret = _click(loc, InputEvent.BUTTON3_MASK, modifiers, false);
-      
-      SikuliActionManager.getInstance().rightClickTarget(this, target, _lastScreenImage, _lastMatch);      
-      return ret;
+      return new ClickOperation(){
+         Integer run() throws FindFailed{
+            Location loc = getLocationFromPSRML(target);
+            int ret = _click(loc, InputEvent.BUTTON3_MASK, modifiers, false);
+
+            SikuliActionManager.getInstance().rightClickTarget(Region.this, target, _lastScreenImage, _lastMatch);      
+            return ret;
+         }
+      }.perform(RegionOperation.Type.RIGHT_CLICK, target);
    }
 
   /**
@@ -930,35 +1068,37 @@ public class Region {
    }
 
    public void observeInBackground(final double secs){
-      Thread th = new Thread(){
-         public void run(){
-            observe(secs);
-         }
-      };
-      th.start();
+      if(_evtMgr == null)
+         return;
+      _observing = true;
+      ObserverScheduler.getInstance().add(this, secs);
    }
 
    public void stopObserver(){
       _observing = false;
+      ObserverScheduler.getInstance().remove(this);
    }
 
    public void observe(double secs){
       if(_evtMgr == null)
          return;
-      int MaxTimePerScan = (int)(1000.0/Settings.ObserveScanRate); 
-      long begin_t = (new Date()).getTime();
       _observing = true;
-      while( _observing && begin_t + secs*1000 > (new Date()).getTime() ){
-         long before_find = (new Date()).getTime();
-         ScreenImage simg = _scr.capture(x, y, w, h);
-         _lastScreenImage = simg;
+      try{
+         ObserverScheduler.getInstance().observe(this, secs);
+      }
+      finally{
+         _observing = ObserverScheduler.getInstance().isObserving(this);
+      }
+   }
+
+   // one scan of the observer, called by the ObserverScheduler
+   void observeOnce(ScreenImage simg){
+      _lastScreenImage = simg;
+      try{
          _evtMgr.update(simg);
-         long after_find = (new Date()).getTime();
-         try{
-            if(after_find-before_find<MaxTimePerScan)
-               Thread.sleep((int)(MaxTimePerScan-(after_find-before_find)));
-         }
-         catch(Exception e){ }
+      }
+      finally{
+         simg.release();
       }
    }
 
@@ -1010,9 +1150,10 @@ public class Region {
     */
    public <PSC> Match findNow(PSC ptn) throws FindFailed{
       Debug.log("capture: " + x + "," + y);
-      ScreenImage simg = _scr.capture(x, y, w, h);
+      ScreenImage simg = captureForFind();
       Debug.log("ScreenImage: " + simg.getROI());
       _lastScreenImage = simg;
+      long t = beginMatch();
       Finder f = new Finder(simg, this);
       Match ret = null;
       try{
@@ -1024,26 +1165,110 @@ public class Region {
       catch(IOException e){
          throw new FindFailed(e.getMessage());
       }
+      finally{
+         simg.release();
+         endMatch(t);
+      }
       return ret;
    }
    
    
    <PSC> Match doFind(PSC ptn) throws IOException{
-      ScreenImage simg = getScreen().capture(x, y, w, h);
+      ScreenImage simg = captureForFind();
       _lastScreenImage = simg;
+      long t = beginMatch();
       Finder f = new Finder(simg, this);
-      f.find(ptn);
+      try{
+         f.find(ptn);
+      }
+      finally{
+         simg.release();
+         endMatch(t);
+      }
       if(f.hasNext()){
          return f.next();
       }
       return null;
    }
 
+   /**
+    * returns a finder that only rematches the changed parts of
+    * successive captures, or null if the target can't be tracked
+    * that way (e.g. text).
+    */
+   <PSC> IncrementalFinder createIncrementalFinder(PSC ptn) throws IOException{
+      Finder.updateVisionParameters();
+      IncrementalFinder f = null;
+      if( ptn instanceof Pattern ){
+         Pattern p = (Pattern)ptn;
+         Mat target = OpenCV.convertBufferedImageToMat(p.getImage());
+         f = new IncrementalFinder(target, p.similarity);
+      }
+      else if( ptn instanceof String ){
+         try{
+            String filename = new ImageLocator().locate((String)ptn);
+            f = new IncrementalFinder(filename, Settings.MinSimilarity);
+         }
+         catch(IOException e){
+            return null; // not an image, assume it's text
+         }
+      }
+      if(f != null && !f.isSupported()){
+         f.delete();
+         return null;
+      }
+      return f;
+   }
+
+   <PSC> Match doFindIncremental(IncrementalFinder f, PSC ptn){
+      ScreenImage simg = captureForFind();
+      _lastScreenImage = simg;
+      long t = beginMatch();
+      FindResult fr;
+      try{
+         fr = f.find(simg.getMat());
+      }
+      finally{
+         simg.release();
+         endMatch(t);
+      }
+      double similarity = Settings.MinSimilarity;
+      if( ptn instanceof Pattern )
+         similarity = ((Pattern)ptn).similarity;
+      if(fr.getScore() < similarity-0.0000001)
+         return null;
+      Match m = toGlobalCoord(new Match(fr, getScreen()));
+      if( ptn instanceof Pattern )
+         m.setTargetOffset(((Pattern)ptn).getTargetOffset());
+      return m;
+   }
+
+   <PSC> Match[] doFindEach(List<PSC> ptns) throws IOException{
+      ScreenImage simg = captureForFind();
+      _lastScreenImage = simg;
+      long t = beginMatch();
+      Finder f = new Finder(simg, this);
+      try{
+         return f.findEach(ptns);
+      }
+      finally{
+         simg.release();
+         endMatch(t);
+      }
+   }
+
    <PSC> Iterator<Match> doFindAll(PSC ptn) throws IOException{
-      ScreenImage simg = getScreen().capture(x, y, w, h);
+      ScreenImage simg = captureForFind();
       _lastScreenImage = simg;
+      long t = beginMatch();
       Finder f = new Finder(simg, this);
-      f.findAll(ptn);
+      try{
+         f.findAll(ptn);
+      }
+      finally{
+         simg.release();
+         endMatch(t);
+      }
       if(f.hasNext()){
          return f;
       }
@@ -1057,8 +1282,9 @@ public class Region {
     */
    public <PSC> Iterator<Match> findAllNow(PSC ptn) 
                                              throws  FindFailed{
-      ScreenImage simg = _scr.capture(x, y, w, h);
+      ScreenImage simg = captureForFind();
       _lastScreenImage = simg;
+      long t = beginMatch();
       Finder f = new Finder(simg, this);
       try{
          f.findAll(ptn);
@@ -1070,6 +1296,10 @@ public class Region {
       catch(IOException e){
          throw new FindFailed(e.getMessage());
       }
+      finally{
+         simg.release();
+         endMatch(t);
+      }
       return null;
    }
 
@@ -1164,6 +1394,8 @@ public class Region {
       if(loc == null)
          return 0;
       Debug.history( getClickMsg(loc, buttons, modifiers, dblClick) );
+      RegionOperation op = _op.get();
+      long t = op != null? System.nanoTime() : 0;
       _robot.pressModifiers(modifiers);
       _robot.smoothMove(loc);
       _scr.showClick(loc);
@@ -1175,9 +1407,122 @@ public class Region {
       }
       _robot.releaseModifiers(modifiers);
       _robot.waitForIdle();
+      if(op != null)
+         op.addActionTime(System.nanoTime()-t);
       return 1;
    }
 
+   // the operation each thread is timing, only set while RegionMetrics has
+   // listeners. Observers scan the region on threads of their own, and
+   // their captures are not part of the operation of the caller.
+   final ThreadLocal<RegionOperation> _op = new ThreadLocal<RegionOperation>();
+
+   RegionOperation beginOperation(RegionOperation.Type type, Object target){
+      if(!RegionMetrics.isActive())
+         return null;
+      RegionOperation op = new RegionOperation(type, this, target, _op.get());
+      _op.set(op);
+      return op;
+   }
+
+   // reports the operation once
+   void endOperation(RegionOperation op, RegionOperation.Outcome outcome){
+      if(op == null || op.isFinished())
+         return;
+      op.finish(outcome);
+      _op.set(op.getParent());
+      RegionMetrics.getInstance().notifyListeners(op);
+   }
+
+   // an operation of the public API, reported to the RegionMetrics
+   // listeners as SUCCEEDED or FAILED by what run() returns, FAILED if it
+   // throws E (FindFailed) and ERROR if it throws anything unchecked
+   abstract class TimedOperation<T, E extends Exception>{
+
+      abstract T run() throws E;
+
+      boolean succeeded(T ret){ return ret != null; }
+
+      T perform(RegionOperation.Type type, Object target) throws E{
+         RegionOperation op = beginOperation(type, target);
+         RegionOperation.Outcome outcome = RegionOperation.Outcome.FAILED;
+         try{
+            T ret = run();
+            if(succeeded(ret))
+               outcome = RegionOperation.Outcome.SUCCEEDED;
+            return ret;
+         }
+         catch(RuntimeException e){
+            outcome = RegionOperation.Outcome.ERROR;
+            throw e;
+         }
+         catch(Error e){
+            outcome = RegionOperation.Outcome.ERROR;
+            throw e;
+         }
+         finally{
+            endOperation(op, outcome);
+         }
+      }
+   }
+
+   // clicks return 1 if they clicked
+   abstract class ClickOperation extends TimedOperation<Integer, FindFailed>{
+      boolean succeeded(Integer ret){ return ret != 0; }
+   }
+
+   ScreenImage captureForFind(){
+      RegionOperation op = _op.get();
+      ScreenImage simg = _prefetched.get();
+      if(simg != null){
+         _prefetched.remove();
+         if(op != null)
+            op.addScan();
+         return simg;
+      }
+      if(op == null)
+         return getScreen().capture(x, y, w, h);
+      long t = System.nanoTime();
+      simg = getScreen().capture(x, y, w, h);
+      op.addCaptureTime(System.nanoTime()-t);
+      op.addScan();
+      return simg;
+   }
+
+   // a capture only to look for changes, not counted as a scan
+   ScreenImage captureForChanges(){
+      RegionOperation op = _op.get();
+      if(op == null)
+         return getScreen().capture(x, y, w, h);
+      long t = System.nanoTime();
+      ScreenImage simg = getScreen().capture(x, y, w, h);
+      op.addCaptureTime(System.nanoTime()-t);
+      return simg;
+   }
+
+   // an observer is happy with a frame up to one scan old, so regions
+   // observing the same screen share the captures. A region observed on
+   // its own captures only itself rather than the whole screen.
+   ScreenImage captureForObserve(double period, boolean shared){
+      return captureForObserve(getROI(), period, shared);
+   }
+
+   ScreenImage captureForObserve(Rectangle rect, double period, boolean shared){
+      if(shared && _scr instanceof Screen)
+         return ((Screen)_scr).capture(rect, Math.max(period, Settings.MaxFrameAge));
+      return _scr.capture(rect);
+   }
+
+   long beginMatch(){
+      return _op.get() != null? System.nanoTime() : 0;
+   }
+
+   void endMatch(long begin){
+      RegionOperation op = _op.get();
+      if(op != null)
+         op.addMatchTime(System.nanoTime()-begin);
+   }
+
    Location toRobotCoord(Location l){
       return new Location(l.x-x, l.y-y);
    }
@@ -1194,27 +1539,103 @@ public class Region {
 
       abstract void run() throws Exception;
       abstract boolean ifSuccessful();
+
+      // called once repeat() is over
+      void done(){ }
       
       // return TRUE if successful before timeout
       // return FALSE if otherwise
       // throws Exception if any unexpected error occurs
       boolean repeat(double timeout) throws Exception{
+         if(Settings.AdaptiveWait)
+            return repeatOnChanges(timeout);
 
          int MaxTimePerScan = (int)(1000.0/Settings.WaitScanRate); 
          long begin_t = (new Date()).getTime();
-         do{
-            long before_find = (new Date()).getTime();
-            
-            run();
-            if (ifSuccessful())
-               return true;
+         try{
+            do{
+               long before_find = (new Date()).getTime();
+               
+               run();
+               if (ifSuccessful())
+                  return true;
+
+               long after_find = (new Date()).getTime();
+               RegionOperation op = _op.get();
+               long before_sleep = op != null? System.nanoTime() : 0;
+               if(after_find-before_find<MaxTimePerScan)
+                  _robot.delay((int)(MaxTimePerScan-(after_find-before_find)));
+               else
+                  _robot.delay(10);
+               if(op != null)
+                  op.addSleepTime(System.nanoTime()-before_sleep);
+            }while( begin_t + timeout*1000 > (new Date()).getTime() );
+         }
+         finally{
+            done();
+         }
 
-            long after_find = (new Date()).getTime();
-            if(after_find-before_find<MaxTimePerScan)
-               _robot.delay((int)(MaxTimePerScan-(after_find-before_find)));
-            else
-               _robot.delay(10);
-         }while( begin_t + timeout*1000 > (new Date()).getTime() );
+         return false;
+      }
+
+      // like repeat(), but looks for changes in the region at up to
+      // Settings.AdaptiveWaitPollRate and only runs again when it changed,
+      // and never more often than Settings.WaitScanRate. While nothing
+      // changes, the polls slow down to a quarter of a scan period, so that
+      // a change is still seen well before repeat() would have looked.
+      boolean repeatOnChanges(double timeout) throws Exception{
+         long MinTimePerRun = (long)(1000.0/Settings.WaitScanRate);
+         long MinTimePerPoll = (long)(1000.0/Settings.AdaptiveWaitPollRate);
+         long MaxTimePerPoll = Math.max(MinTimePerPoll, MinTimePerRun/4);
+         long timePerPoll = MinTimePerPoll;
+         ChangeDetector changes = new ChangeDetector();
+         long begin_t = (new Date()).getTime();
+         long last_run = begin_t - MinTimePerRun;
+         boolean changed = false;  // since the last run
+         try{
+            do{
+               long before_poll = (new Date()).getTime();
+               ScreenImage simg = captureForChanges();
+               if(changes.update(simg.getImage()))
+                  changed = true;
+               if(changed && before_poll-last_run >= MinTimePerRun){
+                  changed = false;
+                  last_run = before_poll;
+                  _prefetched.set(simg);
+                  try{
+                     run();
+                  }
+                  finally{
+                     ScreenImage unused = _prefetched.get();
+                     if(unused != null){
+                        unused.release();
+                        _prefetched.remove();
+                     }
+                  }
+                  if (ifSuccessful())
+                     return true;
+                  timePerPoll = MinTimePerPoll;
+               }
+               else{
+                  simg.release();
+                  if(!changed)
+                     timePerPoll = Math.min(timePerPoll*2, MaxTimePerPoll);
+               }
+
+               long after_poll = (new Date()).getTime();
+               // a change waiting for its run needs no more polls
+               long delay = changed? last_run+MinTimePerRun-after_poll
+                                   : timePerPoll-(after_poll-before_poll);
+               RegionOperation op = _op.get();
+               long before_sleep = op != null? System.nanoTime() : 0;
+               _robot.delay((int)Math.max(delay, 10));
+               if(op != null)
+                  op.addSleepTime(System.nanoTime()-before_sleep);
+            }while( begin_t + timeout*1000 > (new Date()).getTime() );
+         }
+         finally{
+            done();
+         }
 
          return false;
       }
@@ -1224,6 +1645,9 @@ public class Region {
       
       Object _target;
       Match _match = null;
+      // keeps the last frame so that later scans only look at changes
+      IncrementalFinder _tracker = null;
+      boolean _firstRun = true;
       public <PSC> RepeatableFind(PSC target){
          _target = target;
       }
@@ -1234,7 +1658,22 @@ public class Region {
 
       @Override
       public void run() throws IOException{
-         _match = doFind(_target);
+         if(_firstRun){
+            _firstRun = false;
+            _tracker = createIncrementalFinder(_target);
+         }
+         if(_tracker != null)
+            _match = doFindIncremental(_tracker, _target);
+         else
+            _match = doFind(_target);
+      }
+
+      @Override
+      void done(){
+         if(_tracker != null){
+            _tracker.delete();
+            _tracker = null;
+         }
       }
 
        @Override
@@ -1244,6 +1683,33 @@ public class Region {
 
    }   
 
+   class RepeatableFindAny extends Repeatable{
+
+      List<?> _targets;
+      Match[] _matches = null;
+      public <PSC> RepeatableFindAny(List<PSC> targets){
+         _targets = targets;
+      }
+
+      public Match[] getMatches() {
+         return _matches;
+      }
+
+      @Override
+      public void run() throws IOException{
+         _matches = doFindEach(_targets);
+      }
+
+      @Override
+      boolean ifSuccessful() {
+         if(_matches != null)
+            for(Match m : _matches)
+               if(m != null)
+                  return true;
+         return false;
+      }
+   }
+
    class RepeatableVanish extends RepeatableFind{
       public <PSC> RepeatableVanish(PSC target){
          super(target);
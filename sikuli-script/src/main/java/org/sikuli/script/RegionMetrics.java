@@ -0,0 +1,169 @@
+/*
+ * Copyright 2010-2011, Sikuli.org
+ * Released under the MIT License.
+ *
+ */
+package org.sikuli.script;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Hands every finished Region operation to the registered
+ * RegionOperationListeners. Regions only time their operations while
+ * there is a listener, so this costs nothing otherwise.
+ * <p>
+ * {@link #register()} adds a listener that totals the operations by type
+ * and publishes them over JMX under {@link #OBJECT_NAME}.
+ */
+public class RegionMetrics implements RegionMetricsMXBean, RegionOperationListener {
+   public static final String OBJECT_NAME = "org.sikuli.script:type=RegionMetrics";
+
+   static RegionMetrics _instance;
+
+   public static synchronized RegionMetrics getInstance(){
+      if (_instance == null){
+         _instance = new RegionMetrics();
+      }
+      return _instance;
+   }
+
+   // read by every Region operation, so kept outside of the lock
+   static volatile boolean _active = false;
+
+   static boolean isActive(){
+      return _active;
+   }
+
+   /**
+    * The operations of one type since the last reset.
+    */
+   public static class Totals {
+      private RegionOperation.Type _type;
+      private long _count = 0, _succeeded = 0, _failed = 0, _errors = 0;
+      private long _scans = 0;
+      private double _total = 0, _capture = 0, _match = 0, _sleep = 0, _action = 0;
+
+      Totals(RegionOperation.Type type){
+         _type = type;
+      }
+
+      Totals(Totals t){
+         _type = t._type;
+         _count = t._count;
+         _succeeded = t._succeeded;
+         _failed = t._failed;
+         _errors = t._errors;
+         _scans = t._scans;
+         _total = t._total;
+         _capture = t._capture;
+         _match = t._match;
+         _sleep = t._sleep;
+         _action = t._action;
+      }
+
+      void add(RegionOperation op){
+         _count++;
+         if(op.getOutcome() == RegionOperation.Outcome.SUCCEEDED)
+            _succeeded++;
+         else if(op.getOutcome() == RegionOperation.Outcome.FAILED)
+            _failed++;
+         else
+            _errors++;
+         _scans += op.getScans();
+         _total += op.getTotalMillis();
+         _capture += op.getCaptureMillis();
+         _match += op.getMatchMillis();
+         _sleep += op.getSleepMillis();
+         _action += op.getActionMillis();
+      }
+
+      public String getType(){ return _type.toString(); }
+      public long getCount(){ return _count; }
+      public long getSucceeded(){ return _succeeded; }
+      public long getFailed(){ return _failed; }
+      public long getErrors(){ return _errors; }
+      public long getScans(){ return _scans; }
+      public double getTotalMillis(){ return _total; }
+      public double getCaptureMillis(){ return _capture; }
+      public double getMatchMillis(){ return _match; }
+      public double getSleepMillis(){ return _sleep; }
+      public double getActionMillis(){ return _action; }
+   }
+
+   ArrayList<RegionOperationListener> _listeners;
+   EnumMap<RegionOperation.Type, Totals> _totals;
+   boolean _registered = false;
+
+   RegionMetrics(){
+      _listeners = new ArrayList<RegionOperationListener>();
+      _totals = new EnumMap<RegionOperation.Type, Totals>(RegionOperation.Type.class);
+   }
+
+   public synchronized void addListener(RegionOperationListener l){
+      _listeners.add(l);
+      _active = true;
+   }
+
+   public synchronized void removeListener(RegionOperationListener l){
+      _listeners.remove(l);
+      _active = !_listeners.isEmpty();
+   }
+
+   void notifyListeners(RegionOperation op){
+      RegionOperationListener[] listeners;
+      synchronized(this){
+         listeners = _listeners.toArray(new RegionOperationListener[_listeners.size()]);
+      }
+      for(RegionOperationListener l : listeners)
+         l.operationFinished(op);
+   }
+
+   /**
+    * starts totalling the operations and registers the MXBean with the
+    * platform MBean server (once).
+    */
+   public static boolean register(){
+      RegionMetrics metrics = getInstance();
+      synchronized(metrics){
+         if(metrics._registered)
+            return true;
+         try{
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(metrics, new ObjectName(OBJECT_NAME));
+         }
+         catch(JMException e){
+            Debug.error("Can't register " + OBJECT_NAME + ": " + e.getMessage());
+            return false;
+         }
+         metrics._registered = true;
+         metrics.addListener(metrics);
+      }
+      return true;
+   }
+
+   public synchronized void operationFinished(RegionOperation op){
+      Totals t = _totals.get(op.getType());
+      if(t == null){
+         t = new Totals(op.getType());
+         _totals.put(op.getType(), t);
+      }
+      t.add(op);
+   }
+
+   public synchronized List<Totals> getOperations(){
+      List<Totals> ret = new ArrayList<Totals>();
+      for(Totals t : _totals.values())
+         ret.add(new Totals(t));
+      return ret;
+   }
+
+   public synchronized void reset(){
+      _totals.clear();
+   }
+}
@@ -0,0 +1,17 @@
+/*
+ * Copyright 2010-2011, Sikuli.org
+ * Released under the MIT License.
+ *
+ */
+package org.sikuli.script;
+
+import java.util.List;
+
+/**
+ * JMX view of the Region operations, totalled by type.
+ */
+public interface RegionMetricsMXBean {
+   public List<RegionMetrics.Totals> getOperations();
+
+   public void reset();
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2010-2011, Sikuli.org
+ * Released under the MIT License.
+ *
+ */
+package org.sikuli.script;
+
+/**
+ * Where the time of one Region operation (find, wait, click, ...) went.
+ * Operations started by another one, like the find behind click(target),
+ * are reported on their own and also add their times to the outer one.
+ */
+public class RegionOperation {
+
+   public enum Type {FIND, FIND_ALL, WAIT, EXISTS, WAIT_VANISH, FIND_ANY,
+                     CLICK, DOUBLE_CLICK, RIGHT_CLICK};
+
+   // SUCCEEDED: found (or vanished, or clicked), FAILED: not found before
+   // the timeout (including FindFailed), ERROR: ended by another exception
+   public enum Outcome {SUCCEEDED, FAILED, ERROR};
+
+   Type _type;
+   Region _source;
+   Object _target;
+   RegionOperation _parent;
+   Outcome _outcome = null;
+
+   long _begin, _end;
+   long _captureTime = 0, _matchTime = 0, _sleepTime = 0, _actionTime = 0;
+   int _scans = 0;
+
+   RegionOperation(Type type, Region source, Object target, RegionOperation parent){
+      _type = type;
+      _source = source;
+      _target = target;
+      _parent = parent;
+      _begin = System.nanoTime();
+   }
+
+   void addCaptureTime(long nanos){ _captureTime += nanos; }
+   void addMatchTime(long nanos){ _matchTime += nanos; }
+   void addSleepTime(long nanos){ _sleepTime += nanos; }
+   void addActionTime(long nanos){ _actionTime += nanos; }
+   void addScan(){ _scans++; }
+
+   boolean isFinished(){
+      return _outcome != null;
+   }
+
+   void finish(Outcome outcome){
+      _end = System.nanoTime();
+      _outcome = outcome;
+      if(_parent != null){
+         _parent._captureTime += _captureTime;
+         _parent._matchTime += _matchTime;
+         _parent._sleepTime += _sleepTime;
+         _parent._actionTime += _actionTime;
+         _parent._scans += _scans;
+      }
+   }
+
+   public Type getType(){ return _type; }
+   public Region getSource(){ return _source; }
+   public Object getTarget(){ return _target; }
+   public Outcome getOutcome(){ return _outcome; }
+
+   // the operation this one was started by, or null
+   public RegionOperation getParent(){ return _parent; }
+
+   public double getTotalMillis(){ return (_end - _begin) / 1e6; }
+   public double getCaptureMillis(){ return _captureTime / 1e6; }
+   public double getMatchMillis(){ return _matchTime / 1e6; }
+   // time spent between scans, waiting for the next one (WaitScanRate)
+   public double getSleepMillis(){ return _sleepTime / 1e6; }
+   // time spent moving the mouse and clicking
+   public double getActionMillis(){ return _actionTime / 1e6; }
+   // number of captures searched
+   public int getScans(){ return _scans; }
+
+   public String toString(){
+      return String.format("%s %s: %s in %.1fms (capture %.1fms, match %.1fms, " +
+                           "sleep %.1fms, action %.1fms, %d scans)",
+                           _type, _target, _outcome, getTotalMillis(),
+                           getCaptureMillis(), getMatchMillis(),
+                           getSleepMillis(), getActionMillis(), _scans);
+   }
+}
@@ -0,0 +1,13 @@
+/*
+ * Copyright 2010-2011, Sikuli.org
+ * Released under the MIT License.
+ *
+ */
+package org.sikuli.script;
+
+import java.util.EventListener;
+
+public interface RegionOperationListener extends EventListener{
+   // called in the thread of the operation, once it is over
+   public void operationFinished(RegionOperation op);
+}
@@ -20,6 +20,8 @@ public class Screen extends Region implements Observer, IScreen {
    static GraphicsDevice[] _gdev;
    static GraphicsEnvironment _genv;
    static IRobot[] _robots;
+   static CaptureBufferPool[] _bufferPools;
+   static FrameBus[] _frameBuses;
 
    static{
       _genv = GraphicsEnvironment.getLocalGraphicsEnvironment();
@@ -34,8 +36,12 @@ public class Screen extends Region implements Observer, IScreen {
    private static void initRobots(){
       try{
          _robots = new DesktopRobot[_gdev.length];
+         _bufferPools = new CaptureBufferPool[_gdev.length];
+         _frameBuses = new FrameBus[_gdev.length];
          for(int i=0;i<_gdev.length;i++){
             _robots[i] = new DesktopRobot(_gdev[i]);
+            _bufferPools[i] = new CaptureBufferPool();
+            _frameBuses[i] = new FrameBus(_robots[i], getBounds(i), _bufferPools[i]);
             //_robots[i].setAutoWaitForIdle(false); //TODO: make sure we don't need this
             _robots[i].setAutoDelay(10);
          }
@@ -72,6 +78,14 @@ public class Screen extends Region implements Observer, IScreen {
       return _robots[getPrimaryId()];
    }
 
+   public static FrameBus getFrameBus(int id){
+      return _frameBuses[id];
+   }
+
+   public FrameBus getFrameBus(){
+      return _frameBuses[_curID];
+   }
+
    public GraphicsDevice getGraphicsDevice(){
       return _curGD;
    }
@@ -127,11 +141,14 @@ public class Screen extends Region implements Observer, IScreen {
    }
 
    public ScreenImage capture(Rectangle rect) {
+      if(Settings.MaxFrameAge > 0)
+         return capture(rect, Settings.MaxFrameAge);
       Debug.log(5, "capture: " + rect);
       Rectangle bounds = getBounds();
       rect.x -= bounds.x;
       rect.y -= bounds.y;
       ScreenImage simg = _robots[_curID].captureScreen(rect);
+      simg.setBufferPool(_bufferPools[_curID]);
       simg.x += bounds.x;
       simg.y += bounds.y;
       return simg;
@@ -141,6 +158,22 @@ public class Screen extends Region implements Observer, IScreen {
       return capture(reg.getROI());
    }
 
+   /**
+    * returns the given area of a frame of this screen whose capture
+    * started at most maxAge seconds ago. Regions capturing at about the
+    * same time share one frame.
+    */
+   public ScreenImage capture(Rectangle rect, double maxAge) {
+      Debug.log(5, "capture: " + rect + ", max age: " + maxAge);
+      ScreenFrame frame = _frameBuses[_curID].acquire(maxAge);
+      try{
+         return frame.view(rect);
+      }
+      finally{
+         frame.release();
+      }
+   }
+
    public ScreenImage userCapture() {
       return userCapture("Select a region on the screen");
    }
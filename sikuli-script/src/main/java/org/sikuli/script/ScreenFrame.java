@@ -0,0 +1,87 @@
+/*
+ * Copyright 2010-2011, Sikuli.org
+ * Released under the MIT License.
+ *
+ */
+package org.sikuli.script;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/**
+ * A capture of a whole screen, shared by everyone who asked for a frame
+ * at about the same time. The image must not be modified.
+ * <p>
+ * Frames are reference counted: whoever gets a frame from a FrameBus, or
+ * keeps one with retain(), must release() it.
+ */
+public class ScreenFrame {
+   Rectangle _bounds;
+   BufferedImage _img;
+   long _time;
+   CaptureBufferPool _pool;
+   int _refs = 1;
+
+   /**
+    * @param bounds the screen area captured, in global coordinates
+    * @param time System.nanoTime() when the capture started
+    */
+   ScreenFrame(Rectangle bounds, BufferedImage img, long time, CaptureBufferPool pool){
+      _bounds = bounds;
+      _img = img;
+      _time = time;
+      _pool = pool;
+   }
+
+   public Rectangle getBounds(){
+      return new Rectangle(_bounds);
+   }
+
+   public BufferedImage getImage(){
+      return _img;
+   }
+
+   /**
+    * System.nanoTime() when the capture of this frame started.
+    */
+   public long getTime(){
+      return _time;
+   }
+
+   public double getAge(){
+      return (System.nanoTime() - _time) / 1e9;
+   }
+
+   public synchronized ScreenFrame retain(){
+      if(_refs <= 0)
+         throw new IllegalStateException("the frame has been released");
+      _refs++;
+      return this;
+   }
+
+   public synchronized void release(){
+      if(_refs <= 0)
+         throw new IllegalStateException("the frame has been released");
+      _refs--;
+   }
+
+   /**
+    * returns the part of the frame inside rect (in global coordinates)
+    * as a screen image. The pixels are shared with the frame, not copied,
+    * and stay valid after the frame is released.
+    */
+   public ScreenImage view(Rectangle rect){
+      Rectangle r = rect.intersection(_bounds);
+      if(r.isEmpty())
+         throw new IllegalArgumentException(rect + " is outside of " + _bounds);
+      // like Screen.capture: the ROI is relative to the screen, x and y are not
+      Rectangle local = new Rectangle(r.x - _bounds.x, r.y - _bounds.y,
+                                      r.width, r.height);
+      BufferedImage sub = _img.getSubimage(local.x, local.y, r.width, r.height);
+      ScreenImage simg = new ScreenImage(local, sub);
+      simg.setBufferPool(_pool);
+      simg.x = r.x;
+      simg.y = r.y;
+      return simg;
+   }
+}
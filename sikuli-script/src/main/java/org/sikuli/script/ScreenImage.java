@@ -11,12 +11,16 @@ import java.io.*;
 import java.util.*;
 import javax.imageio.ImageIO;
 
+import org.sikuli.script.natives.Mat;
+
 
 public class ScreenImage {
    public int x, y, w, h;
    protected Rectangle _roi;
    protected BufferedImage _img;
    protected String _filename = null; 
+   protected Mat _mat = null;
+   protected CaptureBufferPool _pool = null;
 
    public ScreenImage(Rectangle roi, BufferedImage img){
       _img = img;
@@ -47,4 +51,34 @@ public class ScreenImage {
    public Rectangle getROI(){
       return _roi;
    }
+
+   /**
+    * Native pixel buffers for this image are taken from (and returned to)
+    * the given pool.
+    */
+   public void setBufferPool(CaptureBufferPool pool){
+      _pool = pool;
+   }
+
+   /**
+    * lazy method: converts the image for the vision engine only when needed.
+    */
+   public synchronized Mat getMat(){
+      if(_mat == null){
+         int iw = _img.getWidth(), ih = _img.getHeight();
+         _mat = _pool != null? _pool.acquire(iw, ih) : new Mat();
+         OpenCV.convertBufferedImageToMat(_img, _mat);
+      }
+      return _mat;
+   }
+
+   /**
+    * Gives the native buffer back to the pool. The Mat returned by getMat()
+    * must not be used afterwards; getImage() stays valid.
+    */
+   public synchronized void release(){
+      if(_mat != null && _pool != null)
+         _pool.release(_img.getWidth(), _img.getHeight(), _mat);
+      _mat = null;
+   }
 }
@@ -8,6 +8,8 @@ package org.sikuli.script;
 
 public class Settings {
    public static float WaitScanRate = 3f; // frames per second
+   public static boolean AdaptiveWait = false; // find again only after changes
+   public static float AdaptiveWaitPollRate = 30f; // frames per second
    public static float ObserveScanRate = 3f; // frames per second
    public static double MinSimilarity = 0.7;
    public static double DelayBeforeDrop = 0.3;
@@ -18,6 +20,13 @@ public class Settings {
    public static float MoveMouseDelay = 0.5f; // in seconds
    public static String OcrDataPath = null;
    public static int ObserveMinChangedPixels = 50; // in pixels
+   public static int TemplateCacheSize = 64; // in MB, 0 to disable
+   public static int ImageCacheSize = 64; // in MB, 0 to disable
+   public static int URLCacheSize = 100; // in MB, for images on the web
+   public static double URLTimeout = 10; // in seconds, to connect or read
+   public static int MatchThreads = 1; // 0 for one per core
+   public static double MaxFrameAge = 0; // in seconds, 0 to capture every time
+   public static int ObserveThreads = 0; // 0 for one per core
    public static boolean ActionLogs = true;
    public static boolean InfoLogs = true;
    public static boolean DebugLogs = false;
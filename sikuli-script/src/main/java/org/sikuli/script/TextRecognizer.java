@@ -8,14 +8,12 @@ package org.sikuli.script;
 import java.awt.image.*;
 import java.io.*;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.List;
-import java.util.LinkedList;
 
 import org.sikuli.script.natives.Mat;
 import org.sikuli.script.natives.Vision;
-import org.sikuli.script.natives.OCRWord;
-import org.sikuli.script.natives.OCRWords;
 
 import com.wapmx.nativeutils.jniloader.NativeLoader;
 
@@ -77,15 +75,8 @@ public class TextRecognizer {
    // listText only supports WORD mode now.
    public List<Match> listText(ScreenImage simg, Region parent, ListTextMode mode){
       Mat mat = OpenCV.convertBufferedImageToMat(simg.getImage());
-      OCRWords words = Vision.recognize_as_ocrtext(mat).getWords();
-      List<Match> ret = new LinkedList<Match>();
-      for(int i=0;i<words.size();i++){
-         OCRWord w = words.get(i);
-         Match m = new Match(parent.x+w.getX(), parent.y+w.getY(), w.getWidth(), w.getHeight(), 
-                             1, parent.getScreen(), w.getString());
-         ret.add(m);
-      }
-      return ret;
+      // fetched in one call, but handed out as a list the caller may change
+      return new ArrayList<Match>(new PackedMatches(Vision.recognizeWords(mat), parent, null));
    }
 
 
@@ -0,0 +1,505 @@
+/*
+ * Copyright 2010-2011, Sikuli.org
+ * Released under the MIT License.
+ *
+ */
+package org.sikuli.script;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+
+/**
+ * Files downloaded from image paths on the web, kept across runs in a
+ * directory with an index of where each came from. A cached file is
+ * revalidated with a conditional request (ETag / Last-Modified) the first
+ * time it is asked for in a run, and used as it is if the server can't be
+ * reached or doesn't answer within Settings.URLTimeout. The least recently used files are deleted when the cache grows
+ * over Settings.URLCacheSize megabytes.
+ * <p>
+ * Several processes may share the directory. The index is read and
+ * written under a file lock, and merged with what the others saved
+ * before it is written. Files no index entry refers to are deleted once
+ * they are old enough not to be a download in progress.
+ */
+public class URLCache {
+   final static String INDEX_FILE = "index";
+   final static String INDEX_HEADER = "# sikuli url cache 1";
+   final static String LOCK_FILE = "index.lock";
+   final static int PREFETCH_THREADS = 4;
+   // files no entry refers to are deleted once they are this old
+   final static long ORPHAN_MILLIS = 10 * 60 * 1000;
+
+   // file locks are held by the whole process, so the caches of one
+   // process take turns on them
+   private final static Object _processLock = new Object();
+
+   private static class Entry {
+      String url, file, etag;
+      long lastModified, size, lastUsed;
+   }
+
+   private static URLCache _instance = null;
+
+   private File _dir;
+   private long _maxBytes;  // < 0 for Settings.URLCacheSize
+   private Map<String, Entry> _entries = null;
+   private Set<String> _validated = new HashSet<String>();
+   private boolean _swept = false;
+
+   public URLCache(File dir){
+      this(dir, -1);
+   }
+
+   public URLCache(File dir, long maxBytes){
+      _dir = dir;
+      _maxBytes = maxBytes;
+   }
+
+   public static synchronized URLCache getInstance(){
+      if(_instance == null){
+         File dir = new File(System.getProperty("java.io.tmpdir"), "sikuli_cache");
+         _instance = new URLCache(dir);
+      }
+      return _instance;
+   }
+
+   private long maxBytes(){
+      if(_maxBytes >= 0)
+         return _maxBytes;
+      return Settings.URLCacheSize * 1024L * 1024L;
+   }
+
+   // the local copy of a URL, downloaded if it isn't cached, or revalidated
+   // if it hasn't been yet in this run
+   public String get(URL url) throws IOException{
+      String key = url.toString();
+      Entry cached;
+      synchronized(this){
+         loadIndex();
+         cached = _entries.get(key);
+         if(cached != null && !new File(_dir, cached.file).exists()){
+            _entries.remove(key);
+            cached = null;
+         }
+         if(cached != null && _validated.contains(key)){
+            cached.lastUsed = System.currentTimeMillis();
+            return new File(_dir, cached.file).getAbsolutePath();
+         }
+      }
+
+      Entry entry;
+      try{
+         entry = download(url, cached);
+      }
+      catch(FileNotFoundException e){
+         synchronized(this){
+            remove(key);
+            saveIndex(null);
+         }
+         throw e;
+      }
+      catch(IOException e){
+         if(cached == null)
+            throw e;
+         Debug.log(3, "can't revalidate " + url + ", using the cached copy: " + e.getMessage());
+         entry = cached;
+      }
+
+      synchronized(this){
+         // a new download has replaced the file of the old entry
+         entry.lastUsed = System.currentTimeMillis();
+         _entries.put(key, entry);
+         _validated.add(key);
+         saveIndex(entry);
+      }
+      return new File(_dir, entry.file).getAbsolutePath();
+   }
+
+   // a new entry with the content of the URL, or the cached one if the
+   // server says it hasn't changed
+   private Entry download(URL url, Entry cached) throws IOException{
+      URLConnection conn = openConnection(url);
+      if(cached != null){
+         if(cached.etag != null)
+            conn.setRequestProperty("If-None-Match", cached.etag);
+         if(cached.lastModified > 0)
+            conn.setIfModifiedSince(cached.lastModified);
+      }
+      if(conn instanceof HttpURLConnection){
+         int code = ((HttpURLConnection)conn).getResponseCode();
+         if(code == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null){
+            Debug.log(3, "not modified: " + url);
+            ((HttpURLConnection)conn).disconnect();
+            return cached;
+         }
+      }
+
+      if(!_dir.exists())
+         _dir.mkdirs();
+      Entry entry = new Entry();
+      entry.url = url.toString();
+      entry.file = fileName(url);
+      entry.etag = conn.getHeaderField("ETag");
+      if(entry.etag != null && (entry.etag.indexOf('\t') >= 0 || entry.etag.indexOf('\n') >= 0))
+         entry.etag = null;
+      entry.lastModified = conn.getLastModified();
+
+      InputStream reader = conn.getInputStream();
+      File tmp = File.createTempFile("download", ".tmp", _dir);
+      try{
+         OutputStream writer = new FileOutputStream(tmp);
+         try{
+            byte[] buffer = new byte[Util.DOWNLOAD_BUFFER_SIZE];
+            int bytesRead;
+            while((bytesRead = reader.read(buffer)) > 0)
+               writer.write(buffer, 0, bytesRead);
+         }
+         finally{
+            writer.close();
+         }
+         entry.size = tmp.length();
+         File target = new File(_dir, entry.file);
+         target.delete();
+         if(!tmp.renameTo(target))
+            throw new IOException("can't write " + target);
+      }
+      finally{
+         reader.close();
+         tmp.delete();
+      }
+      Debug.log(3, "download " + url + " to local: " + entry.file);
+      return entry;
+   }
+
+   // a name that is unique to the URL and keeps the name of the file
+   static String fileName(URL url){
+      String[] path = url.getPath().split("/");
+      String name = path.length > 0 ? path[path.length-1] : "";
+      try{
+         MessageDigest md = MessageDigest.getInstance("MD5");
+         byte[] digest = md.digest(url.toString().getBytes("UTF-8"));
+         StringBuilder sb = new StringBuilder();
+         for(int i=0;i<8;i++)
+            sb.append(String.format("%02x", digest[i]));
+         return sb.toString() + "-" + name;
+      }
+      catch(NoSuchAlgorithmException e){
+         return Integer.toHexString(url.toString().hashCode()) + "-" + name;
+      }
+      catch(UnsupportedEncodingException e){
+         return Integer.toHexString(url.toString().hashCode()) + "-" + name;
+      }
+   }
+
+   // downloads the URLs that aren't cached yet on a few threads at once,
+   // and returns how many of them are cached
+   public int prefetch(final List<URL> urls){
+      final AtomicInteger next = new AtomicInteger(0);
+      final AtomicInteger cached = new AtomicInteger(0);
+      int n = Math.min(PREFETCH_THREADS, urls.size());
+      Thread[] threads = new Thread[n];
+      for(int i=0;i<n;i++){
+         threads[i] = new Thread("URLCache prefetch " + i){
+            public void run(){
+               int k;
+               while((k = next.getAndIncrement()) < urls.size()){
+                  try{
+                     get(urls.get(k));
+                     cached.incrementAndGet();
+                  }
+                  catch(IOException e){
+                     Debug.log(3, "can't prefetch " + urls.get(k) + ": " + e.getMessage());
+                  }
+               }
+            }
+         };
+         threads[i].start();
+      }
+      for(Thread t : threads){
+         try{
+            t.join();
+         }
+         catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            break;
+         }
+      }
+      return cached.get();
+   }
+
+   // prefetches the images a bundle on the web refers to in its script
+   // (foo.sikuli/foo.py), and returns their URLs
+   public List<URL> prefetchBundle(URL bundle) throws IOException{
+      String base = bundle.toString();
+      if(!base.endsWith("/"))
+         base += "/";
+      String[] path = new URL(base).getPath().split("/");
+      String name = path.length > 0 ? path[path.length-1] : "";
+      if(name.endsWith(".sikuli"))
+         name = name.substring(0, name.length() - ".sikuli".length());
+      URL script = new URL(new URL(base), name + ".py");
+
+      List<URL> images = new ArrayList<URL>();
+      Set<String> seen = new HashSet<String>();
+      Matcher m = java.util.regex.Pattern.compile(
+            "[\"']([^\"'\\\\\\n]+\\.(?:png|jpg))[\"']").matcher(readText(script));
+      while(m.find()){
+         if(seen.add(m.group(1)))
+            images.add(new URL(new URL(base), m.group(1)));
+      }
+      prefetch(images);
+      return images;
+   }
+
+   // a connection that gives up after Settings.URLTimeout instead of
+   // waiting for a stalled server forever
+   static URLConnection openConnection(URL url) throws IOException{
+      URLConnection conn = url.openConnection();
+      int timeout = (int)(Settings.URLTimeout * 1000);
+      conn.setConnectTimeout(timeout);
+      conn.setReadTimeout(timeout);
+      return conn;
+   }
+
+   private static String readText(URL url) throws IOException{
+      InputStream in = openConnection(url).getInputStream();
+      try{
+         Reader reader = new InputStreamReader(in, "UTF-8");
+         StringBuilder sb = new StringBuilder();
+         char[] buffer = new char[4096];
+         int n;
+         while((n = reader.read(buffer)) > 0)
+            sb.append(buffer, 0, n);
+         return sb.toString();
+      }
+      finally{
+         in.close();
+      }
+   }
+
+   // the bytes of all the cached files
+   public synchronized long getBytes(){
+      loadIndex();
+      long bytes = 0;
+      for(Entry e : _entries.values())
+         bytes += e.size;
+      return bytes;
+   }
+
+   private void remove(String key){
+      Entry e = _entries.remove(key);
+      if(e != null)
+         new File(_dir, e.file).delete();
+   }
+
+   // deletes the least recently used files, but not keep, until the
+   // rest fit
+   private void evict(Entry keep){
+      long bytes = 0;
+      for(Entry e : _entries.values())
+         bytes += e.size;
+      long capacity = maxBytes();
+      if(bytes <= capacity)
+         return;
+      List<Entry> entries = new ArrayList<Entry>(_entries.values());
+      Collections.sort(entries, new Comparator<Entry>(){
+         public int compare(Entry a, Entry b){
+            return a.lastUsed < b.lastUsed ? -1 : (a.lastUsed > b.lastUsed ? 1 : 0);
+         }
+      });
+      for(Entry e : entries){
+         if(bytes <= capacity)
+            break;
+         if(e == keep)
+            continue;
+         remove(e.url);
+         _validated.remove(e.url);
+         bytes -= e.size;
+      }
+   }
+
+   private void loadIndex(){
+      if(_entries != null)
+         return;
+      _entries = new HashMap<String, Entry>();
+      if(!new File(_dir, INDEX_FILE).exists())
+         return;
+      synchronized(_processLock){
+         FileLock lock = null;
+         try{
+            lock = lockIndex();
+            _entries = readIndex();
+         }
+         catch(IOException e){
+            Debug.log(3, "can't read the url cache index: " + e.getMessage());
+         }
+         finally{
+            unlock(lock);
+         }
+      }
+   }
+
+   // a lock on the index, held until unlock()
+   private FileLock lockIndex() throws IOException{
+      if(!_dir.exists())
+         _dir.mkdirs();
+      FileChannel channel = new RandomAccessFile(new File(_dir, LOCK_FILE), "rw").getChannel();
+      try{
+         return channel.lock();
+      }
+      catch(IOException e){
+         channel.close();
+         throw e;
+      }
+   }
+
+   private static void unlock(FileLock lock){
+      if(lock == null)
+         return;
+      try{
+         lock.release();
+         lock.channel().close();
+      }
+      catch(IOException e){
+         Debug.log(3, "can't unlock the url cache index: " + e.getMessage());
+      }
+   }
+
+   // one line per entry: url, file, etag, last modified, size and last
+   // used, separated by tabs
+   private Map<String, Entry> readIndex() throws IOException{
+      Map<String, Entry> entries = new HashMap<String, Entry>();
+      File index = new File(_dir, INDEX_FILE);
+      if(!index.exists())
+         return entries;
+      BufferedReader in = new BufferedReader(
+            new InputStreamReader(new FileInputStream(index), "UTF-8"));
+      try{
+         String line = in.readLine();
+         if(!INDEX_HEADER.equals(line))
+            return entries;
+         while((line = in.readLine()) != null){
+            String[] fields = line.split("\t", -1);
+            if(fields.length != 6)
+               continue;
+            try{
+               Entry e = new Entry();
+               e.url = fields[0];
+               e.file = fields[1];
+               e.etag = fields[2].length() > 0 ? fields[2] : null;
+               e.lastModified = Long.parseLong(fields[3]);
+               e.size = Long.parseLong(fields[4]);
+               e.lastUsed = Long.parseLong(fields[5]);
+               entries.put(e.url, e);
+            }
+            catch(NumberFormatException ex){
+            }
+         }
+      }
+      finally{
+         in.close();
+      }
+      return entries;
+   }
+
+   // merges the entries with the index other processes may have saved
+   // since it was read, evicts what doesn't fit, but not keep, and writes
+   // the index back
+   private void saveIndex(Entry keep){
+      synchronized(_processLock){
+         FileLock lock = null;
+         try{
+            lock = lockIndex();
+            merge(readIndex());
+            evict(keep);
+            writeIndex();
+            if(!_swept){
+               _swept = true;
+               sweep();
+            }
+         }
+         catch(IOException e){
+            Debug.log(3, "can't write the url cache index: " + e.getMessage());
+         }
+         finally{
+            unlock(lock);
+         }
+      }
+   }
+
+   // keeps the more recently used of two entries for the same URL, and
+   // drops the entries whose file has been deleted, here or elsewhere
+   private void merge(Map<String, Entry> saved){
+      for(Entry e : saved.values()){
+         Entry mine = _entries.get(e.url);
+         if(mine == null || e.lastUsed > mine.lastUsed)
+            _entries.put(e.url, e);
+      }
+      Iterator<Entry> it = _entries.values().iterator();
+      while(it.hasNext()){
+         Entry e = it.next();
+         if(!new File(_dir, e.file).exists()){
+            it.remove();
+            _validated.remove(e.url);
+         }
+      }
+   }
+
+   // deletes the files no entry refers to, such as those of entries lost
+   // when two processes overwrote the index, once they are old enough not
+   // to be downloads in progress
+   private void sweep(){
+      Set<String> used = new HashSet<String>();
+      used.add(INDEX_FILE);
+      used.add(LOCK_FILE);
+      for(Entry e : _entries.values())
+         used.add(e.file);
+      File[] files = _dir.listFiles();
+      if(files == null)
+         return;
+      long oldest = System.currentTimeMillis() - ORPHAN_MILLIS;
+      for(File f : files){
+         if(!used.contains(f.getName()) && f.isFile() && f.lastModified() < oldest){
+            Debug.log(3, "delete the orphaned cache file " + f.getName());
+            f.delete();
+         }
+      }
+   }
+
+   private void writeIndex() throws IOException{
+      File tmp = File.createTempFile("index", ".tmp", _dir);
+      PrintWriter out = new PrintWriter(new OutputStreamWriter(
+               new FileOutputStream(tmp), "UTF-8"));
+      try{
+         out.println(INDEX_HEADER);
+         for(Entry e : _entries.values()){
+            out.println(e.url + "\t" + e.file + "\t" + (e.etag != null ? e.etag : "") +
+                        "\t" + e.lastModified + "\t" + e.size + "\t" + e.lastUsed);
+         }
+      }
+      finally{
+         out.close();
+      }
+      File index = new File(_dir, INDEX_FILE);
+      index.delete();
+      if(!tmp.renameTo(index))
+         tmp.delete();
+   }
+}
@@ -61,6 +61,11 @@ public class UnionScreen extends Screen {
       return new ScreenImage(rect, ret);
    }
 
+   // the frames of a bus cover a single screen
+   public ScreenImage capture(Rectangle rect, double maxAge) {
+      return capture(rect);
+   }
+
    boolean useFullscreen(){
       return false;
    }
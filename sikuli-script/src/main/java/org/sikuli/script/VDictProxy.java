@@ -5,13 +5,24 @@
  */
 package org.sikuli.script;
 
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.FileNotFoundException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
 import java.util.Vector;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.List;
+import javax.imageio.ImageIO;
 import com.wapmx.nativeutils.jniloader.NativeLoader;
 
 public class VDictProxy<T> {
@@ -45,23 +56,73 @@ public class VDictProxy<T> {
       throw new FileNotFoundException("No such file: " + filename);
    }
 
-   // insert an (key,value) entry using an image key
-   public void insert(String imagekey_filename, T value) throws FileNotFoundException {
-      imagekey_filename = getAbsolutePath(imagekey_filename);
+   // the key passed to the native side for a value
+   private int toHash(T value){
       int hash = value.hashCode();
       while(true){
          if( hash != -1 && !_i2obj.containsKey(hash) ){
             _i2obj.put(hash, value);
-            break;
+            return hash;
          }
          else{
             hash += (int)(Math.random()*100);
          }
       }
-      _insert(_instance, imagekey_filename, hash);
+   }
+
+   private List<T> toValues(int h[]){
+      List<T> ret = new Vector<T>(h.length);
+      for(int i=0;i<h.length;i++){
+         if(h[i] == -1)
+            ret.add(i, null);
+         else
+            ret.add(i, _i2obj.get(h[i]));
+      }
+      return ret;
+   }
+
+   private static int[] getPixels(BufferedImage img){
+      int w = img.getWidth(), h = img.getHeight();
+      return img.getRGB(0, 0, w, h, null, 0, w);
+   }
+
+   // an image key given as a file name, a Pattern, a BufferedImage or a ScreenImage
+   private BufferedImage toImage(Object imagekey) throws IOException{
+      if(imagekey instanceof BufferedImage)
+         return (BufferedImage)imagekey;
+      if(imagekey instanceof ScreenImage)
+         return ((ScreenImage)imagekey).getImage();
+      if(imagekey instanceof Pattern)
+         return ((Pattern)imagekey).getSharedImage();
+      if(imagekey instanceof String){
+         BufferedImage img = ImageIO.read(new File(getAbsolutePath((String)imagekey)));
+         if(img == null)
+            throw new IOException("Can't read " + imagekey);
+         return img;
+      }
+      throw new IllegalArgumentException("Not an image key: " + imagekey);
+   }
+
+   // insert an (key,value) entry using an image key
+   public void insert(String imagekey_filename, T value) throws FileNotFoundException {
+      imagekey_filename = getAbsolutePath(imagekey_filename);
+      _insert(_instance, imagekey_filename, toHash(value));
+   }
+
+   public void insert(BufferedImage imagekey, T value){
+      _insertPixels(_instance, getPixels(imagekey), imagekey.getWidth(), imagekey.getHeight(), toHash(value));
+   }
+
+   public void insert(ScreenImage imagekey, T value){
+      insert(imagekey.getImage(), value);
+   }
+
+   public void insert(Pattern imagekey, T value) throws IOException{
+      insert(imagekey.getImage(), value);
    }
 
    public native void _insert(long instance, String imagekey_filename, int value);
+   private native void _insertPixels(long instance, int[] pixels, int w, int h, int value);
 
    // lookup the entry using an image key (exact match)
    public T lookup(String imagekey_filename) throws FileNotFoundException{
@@ -71,7 +132,22 @@ public class VDictProxy<T> {
       return _i2obj.get(hash);
    }
 
+   public T lookup(BufferedImage imagekey){
+      int hash = _lookupPixels(_instance, getPixels(imagekey), imagekey.getWidth(), imagekey.getHeight());
+      if(hash==-1) return null;
+      return _i2obj.get(hash);
+   }
+
+   public T lookup(ScreenImage imagekey){
+      return lookup(imagekey.getImage());
+   }
+
+   public T lookup(Pattern imagekey) throws IOException{
+      return lookup(imagekey.getImage());
+   }
+
    private native int _lookup(long instance, String imagekey_filename);
+   private native int _lookupPixels(long instance, int[] pixels, int w, int h);
 
    // lookup the first entry with a similar image key
    public T lookup_similar(String imagekey_filename, double similarity_threshold) throws FileNotFoundException{
@@ -81,23 +157,68 @@ public class VDictProxy<T> {
       return _i2obj.get(hash);
    }
 
+   public T lookup_similar(BufferedImage imagekey, double similarity_threshold){
+      int hash = _lookupSimilarPixels(_instance, getPixels(imagekey), imagekey.getWidth(), imagekey.getHeight(), similarity_threshold);
+      if(hash==-1) return null;
+      return _i2obj.get(hash);
+   }
+
+   public T lookup_similar(ScreenImage imagekey, double similarity_threshold){
+      return lookup_similar(imagekey.getImage(), similarity_threshold);
+   }
+
+   public T lookup_similar(Pattern imagekey, double similarity_threshold) throws IOException{
+      return lookup_similar(imagekey.getImage(), similarity_threshold);
+   }
+
    private native int _lookup_similar(long instance, String imagekey_filename, double similarity_threshold);
+   private native int _lookupSimilarPixels(long instance, int[] pixels, int w, int h, double similarity_threshold);
 
    // lookup at most n entries with keys similar to the given image (n = 0 : all)
    public List<T> lookup_similar_n(String imagekey_filename, double similarity_threshold, int n) throws FileNotFoundException{
       imagekey_filename = getAbsolutePath(imagekey_filename);
-      int h[] = _lookup_similar_n(_instance, imagekey_filename, similarity_threshold, n);
-      List<T> ret = new Vector<T>(h.length);
-      for(int i=0;i<h.length;i++){
-         if(h[i] == -1)
-            ret.add(i, null);
-         else
-            ret.add(i, _i2obj.get(h[i]));
-      }
-      return ret;
+      return toValues(_lookup_similar_n(_instance, imagekey_filename, similarity_threshold, n));
+   }
+
+   public List<T> lookup_similar_n(BufferedImage imagekey, double similarity_threshold, int n){
+      return toValues(_lookupSimilarNPixels(_instance, getPixels(imagekey), imagekey.getWidth(), imagekey.getHeight(), similarity_threshold, n));
+   }
+
+   public List<T> lookup_similar_n(ScreenImage imagekey, double similarity_threshold, int n){
+      return lookup_similar_n(imagekey.getImage(), similarity_threshold, n);
+   }
+
+   public List<T> lookup_similar_n(Pattern imagekey, double similarity_threshold, int n) throws IOException{
+      return lookup_similar_n(imagekey.getImage(), similarity_threshold, n);
    }
 
    private native int[] _lookup_similar_n(long instance, String imagekey_filename, double similarity_threshold, int n);
+   private native int[] _lookupSimilarNPixels(long instance, int[] pixels, int w, int h, double similarity_threshold, int n);
+
+   // lookup the first entry similar to each of the keys, all in one call.
+   // The keys can be file names, Patterns, BufferedImages or ScreenImages;
+   // a key without an entry gets null.
+   public List<T> lookupAll(List<?> imagekeys, double similarity_threshold) throws IOException{
+      int n = imagekeys.size();
+      BufferedImage[] images = new BufferedImage[n];
+      int widths[] = new int[n], heights[] = new int[n];
+      int total = 0;
+      for(int i=0;i<n;i++){
+         images[i] = toImage(imagekeys.get(i));
+         widths[i] = images[i].getWidth();
+         heights[i] = images[i].getHeight();
+         total += widths[i] * heights[i];
+      }
+      int pixels[] = new int[total];
+      int offset = 0;
+      for(int i=0;i<n;i++){
+         images[i].getRGB(0, 0, widths[i], heights[i], pixels, offset, widths[i]);
+         offset += widths[i] * heights[i];
+      }
+      return toValues(_lookupAll(_instance, pixels, widths, heights, similarity_threshold));
+   }
+
+   private native int[] _lookupAll(long instance, int[] pixels, int[] widths, int[] heights, double similarity_threshold);
 
    // erase the entry associated with the image
    public void erase(String imagekey_filename) throws FileNotFoundException{
@@ -107,7 +228,74 @@ public class VDictProxy<T> {
       _erase(_instance, imagekey_filename);
    }
 
+   public void erase(BufferedImage imagekey){
+      int pixels[] = getPixels(imagekey);
+      int h = _lookupPixels(_instance, pixels, imagekey.getWidth(), imagekey.getHeight());
+      if(h!=-1)   _i2obj.remove(h);
+      _erasePixels(_instance, pixels, imagekey.getWidth(), imagekey.getHeight());
+   }
+
+   public void erase(ScreenImage imagekey){
+      erase(imagekey.getImage());
+   }
+
+   public void erase(Pattern imagekey) throws IOException{
+      erase(imagekey.getImage());
+   }
+
    private native void _erase(long _instance, String imagekey_filename);
+   private native void _erasePixels(long _instance, int[] pixels, int w, int h);
+
+   // write all the entries, keys and values, to a file, which load() reads
+   // back in one go. The values have to be Serializable.
+   public void save(String filename) throws IOException{
+      byte[] keys = _save(_instance);
+      DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(filename)));
+      try{
+         out.writeInt(keys.length);
+         out.write(keys);
+         ObjectOutputStream values = new ObjectOutputStream(out);
+         values.writeObject(new HashMap<Integer, T>(_i2obj));
+         values.flush();
+      }
+      finally{
+         out.close();
+      }
+   }
+
+   // replace all the entries with those saved to a file by save()
+   @SuppressWarnings("unchecked")
+   public void load(String filename) throws IOException{
+      File file = new File(filename);
+      byte[] data = new byte[(int)file.length()];
+      DataInputStream in = new DataInputStream(new FileInputStream(file));
+      try{
+         in.readFully(data);
+      }
+      finally{
+         in.close();
+      }
+
+      int length = data.length >= 4 ? ByteBuffer.wrap(data).getInt() : -1;
+      if(length < 0 || length > data.length - 4)
+         throw new IOException("Not a VDict file: " + filename);
+      Map<Integer, T> values;
+      try{
+         ObjectInputStream in_values = new ObjectInputStream(
+               new ByteArrayInputStream(data, 4 + length, data.length - 4 - length));
+         values = (Map<Integer, T>)in_values.readObject();
+      }
+      catch(ClassNotFoundException e){
+         throw new IOException("Can't read the values in " + filename + ": " + e.getMessage());
+      }
+      if(!_load(_instance, data, 4, length))
+         throw new IOException("Not a VDict file: " + filename);
+      _i2obj = values;
+   }
+
+   private native byte[] _save(long instance);
+   private native boolean _load(long instance, byte[] data, int offset, int length);
 
    public int size(){   return _size(_instance); }
    private native int _size(long instance);  // return the number of image keys stored
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2010-2011, Sikuli.org
+ * Released under the MIT License.
+ *
+ */
+package org.sikuli.script;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.sikuli.script.natives.MetricSnapshot;
+import org.sikuli.script.natives.MetricSnapshots;
+import org.sikuli.script.natives.Metrics;
+
+/**
+ * Latencies of the timed blocks of the vision engine (matching, OCR,
+ * segmentation, ...). Recording is off by default; once enabled, every
+ * block keeps a count and a histogram until reset.
+ * <p>
+ * Long-running hosts can call {@link #register()} to publish the numbers
+ * over JMX under {@link #OBJECT_NAME}.
+ */
+public class VisionMetrics implements VisionMetricsMXBean {
+   public static final String OBJECT_NAME = "org.sikuli.script:type=VisionMetrics";
+
+   private static boolean _registered = false;
+
+   /**
+    * The latencies of one block, in milliseconds.
+    */
+   public static class Block {
+      private String _name;
+      private long _count;
+      private double _total, _min, _max, _p50, _p90, _p99;
+
+      Block(MetricSnapshot s){
+         _name = s.getName();
+         _count = s.getCount();
+         _total = s.getTotal();
+         _min = s.getMin();
+         _max = s.getMax();
+         _p50 = s.getP50();
+         _p90 = s.getP90();
+         _p99 = s.getP99();
+      }
+
+      public String getName(){ return _name; }
+      public long getCount(){ return _count; }
+      public double getTotalMillis(){ return _total; }
+      public double getMeanMillis(){ return _count > 0 ? _total / _count : 0; }
+      public double getMinMillis(){ return _min; }
+      public double getMaxMillis(){ return _max; }
+      public double getP50Millis(){ return _p50; }
+      public double getP90Millis(){ return _p90; }
+      public double getP99Millis(){ return _p99; }
+
+      public String toString(){
+         return String.format("%s: n=%d mean=%.2fms p50=%.2fms p90=%.2fms p99=%.2fms max=%.2fms",
+                              _name, _count, getMeanMillis(), _p50, _p90, _p99, _max);
+      }
+   }
+
+   public static void setRecording(boolean enabled){
+      Metrics.setEnabled(enabled);
+   }
+
+   public static boolean isRecording(){
+      return Metrics.isEnabled();
+   }
+
+   /**
+    * returns the latencies of every block recorded so far, sorted by name.
+    */
+   public static List<Block> snapshot(){
+      MetricSnapshots snapshots = Metrics.snapshot();
+      List<Block> ret = new ArrayList<Block>((int)snapshots.size());
+      for(int i=0;i<snapshots.size();i++)
+         ret.add(new Block(snapshots.get(i)));
+      return ret;
+   }
+
+   public static void clear(){
+      Metrics.reset();
+   }
+
+   /**
+    * registers the MXBean with the platform MBean server (once) and
+    * starts recording.
+    */
+   public static synchronized boolean register(){
+      if(!_registered){
+         try{
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(new VisionMetrics(), new ObjectName(OBJECT_NAME));
+            _registered = true;
+         }
+         catch(JMException e){
+            Debug.error("Can't register " + OBJECT_NAME + ": " + e.getMessage());
+            return false;
+         }
+      }
+      setRecording(true);
+      return true;
+   }
+
+   public boolean isEnabled(){
+      return isRecording();
+   }
+
+   public void setEnabled(boolean enabled){
+      setRecording(enabled);
+   }
+
+   public List<Block> getBlocks(){
+      return snapshot();
+   }
+
+   public void reset(){
+      clear();
+   }
+}
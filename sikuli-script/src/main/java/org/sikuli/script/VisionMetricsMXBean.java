@@ -0,0 +1,20 @@
+/*
+ * Copyright 2010-2011, Sikuli.org
+ * Released under the MIT License.
+ *
+ */
+package org.sikuli.script;
+
+import java.util.List;
+
+/**
+ * JMX view of the latencies recorded by the vision engine.
+ */
+public interface VisionMetricsMXBean {
+   public boolean isEnabled();
+   public void setEnabled(boolean enabled);
+
+   public List<VisionMetrics.Block> getBlocks();
+
+   public void reset();
+}
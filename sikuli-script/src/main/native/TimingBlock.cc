@@ -1,10 +0,0 @@
-/*
- * Copyright 2010-2011, Sikuli.org
- * Released under the MIT License.
- *
- */
-#include "TimingBlock.h"
-
-#ifdef ENABLE_TIMING
-   int TimingBlock::_depth = 0;
-#endif
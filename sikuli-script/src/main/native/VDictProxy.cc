@@ -6,7 +6,7 @@
 #include <iostream>
 #include <jni.h>
 #include "org_sikuli_script_VDictProxy.h"
-#include "vdict.cpp"
+#include "vdict.h"
 
 using namespace std;
 
@@ -111,3 +111,154 @@ JNIEXPORT jboolean JNICALL Java_org_sikuli_script_VDictProxy__1empty
   VizDict* dict = (VizDict *)inst;
   return dict->empty();
 }
+
+// an image key from the packed RGB pixels of a Java image, row by row
+static IplImage*
+image_from_pixels(JNIEnv *env, jintArray jpixels, jint offset, jint w, jint h){
+  IplImage* img = cvCreateImage(cvSize(w, h), IPL_DEPTH_8U, 3);
+  jint *pixels = (jint*)env->GetPrimitiveArrayCritical(jpixels, NULL);
+  for(int y=0;y<h;y++){
+    unsigned char* row = (unsigned char*)(img->imageData + y*img->widthStep);
+    const jint* src = pixels + offset + y*w;
+    for(int x=0;x<w;x++){
+      row[3*x]   = src[x] & 0xff;          // b
+      row[3*x+1] = (src[x] >> 8) & 0xff;   // g
+      row[3*x+2] = (src[x] >> 16) & 0xff;  // r
+    }
+  }
+  env->ReleasePrimitiveArrayCritical(jpixels, pixels, JNI_ABORT);
+  return img;
+}
+
+static jintArray
+to_jintArray(JNIEnv *env, const vector<int>& values){
+  int size = values.size();
+  jintArray ret = (jintArray)env->NewIntArray(size);
+  if(size > 0)
+    env->SetIntArrayRegion(ret, 0, size, (const jint *)&values[0]);
+  return ret;
+}
+
+/*
+ * Class:     org_sikuli_script_VDictProxy
+ * Method:    _insertPixels
+ * Signature: (J[IIII)V
+ */
+JNIEXPORT void JNICALL Java_org_sikuli_script_VDictProxy__1insertPixels
+  (JNIEnv *env, jobject jobj, jlong inst, jintArray jpixels, jint w, jint h, jint jval){
+  VizDict* dict = (VizDict *)inst;
+  IplImage* key = image_from_pixels(env, jpixels, 0, w, h);
+  dict->insert(key, jval);
+  cvReleaseImage(&key);
+}
+
+/*
+ * Class:     org_sikuli_script_VDictProxy
+ * Method:    _lookupPixels
+ * Signature: (J[III)I
+ */
+JNIEXPORT jint JNICALL Java_org_sikuli_script_VDictProxy__1lookupPixels
+  (JNIEnv *env, jobject jobj, jlong inst, jintArray jpixels, jint w, jint h){
+  VizDict* dict = (VizDict *)inst;
+  IplImage* key = image_from_pixels(env, jpixels, 0, w, h);
+  int value = dict->lookup(key);
+  cvReleaseImage(&key);
+  return value;
+}
+
+/*
+ * Class:     org_sikuli_script_VDictProxy
+ * Method:    _lookupSimilarPixels
+ * Signature: (J[IIID)I
+ */
+JNIEXPORT jint JNICALL Java_org_sikuli_script_VDictProxy__1lookupSimilarPixels
+  (JNIEnv *env, jobject jobj, jlong inst, jintArray jpixels, jint w, jint h, jdouble similarity){
+  VizDict* dict = (VizDict *)inst;
+  IplImage* key = image_from_pixels(env, jpixels, 0, w, h);
+  int value = dict->lookup_similar(key, similarity);
+  cvReleaseImage(&key);
+  return value;
+}
+
+/*
+ * Class:     org_sikuli_script_VDictProxy
+ * Method:    _lookupSimilarNPixels
+ * Signature: (J[IIIDI)[I
+ */
+JNIEXPORT jintArray JNICALL Java_org_sikuli_script_VDictProxy__1lookupSimilarNPixels
+  (JNIEnv *env, jobject jobj, jlong inst, jintArray jpixels, jint w, jint h, jdouble similarity, jint n){
+  VizDict* dict = (VizDict *)inst;
+  IplImage* key = image_from_pixels(env, jpixels, 0, w, h);
+  vector<int> values = dict->lookup_similar_n(key, similarity, n);
+  cvReleaseImage(&key);
+  return to_jintArray(env, values);
+}
+
+/*
+ * Class:     org_sikuli_script_VDictProxy
+ * Method:    _erasePixels
+ * Signature: (J[III)V
+ */
+JNIEXPORT void JNICALL Java_org_sikuli_script_VDictProxy__1erasePixels
+  (JNIEnv *env, jobject jobj, jlong inst, jintArray jpixels, jint w, jint h){
+  VizDict* dict = (VizDict *)inst;
+  IplImage* key = image_from_pixels(env, jpixels, 0, w, h);
+  dict->erase(key);
+  cvReleaseImage(&key);
+}
+
+/*
+ * Class:     org_sikuli_script_VDictProxy
+ * Method:    _lookupAll
+ * Signature: (J[I[I[ID)[I
+ */
+JNIEXPORT jintArray JNICALL Java_org_sikuli_script_VDictProxy__1lookupAll
+  (JNIEnv *env, jobject jobj, jlong inst, jintArray jpixels, jintArray jwidths, jintArray jheights, jdouble similarity){
+  VizDict* dict = (VizDict *)inst;
+  int n = env->GetArrayLength(jwidths);
+  vector<jint> widths(n), heights(n);
+  if(n > 0){
+    env->GetIntArrayRegion(jwidths, 0, n, &widths[0]);
+    env->GetIntArrayRegion(jheights, 0, n, &heights[0]);
+  }
+  vector<IplImage*> keys;
+  int offset = 0;
+  for(int i=0;i<n;i++){
+    keys.push_back(image_from_pixels(env, jpixels, offset, widths[i], heights[i]));
+    offset += widths[i]*heights[i];
+  }
+  vector<int> values = dict->lookup_all(keys, similarity);
+  for(int i=0;i<n;i++)
+    cvReleaseImage(&keys[i]);
+  return to_jintArray(env, values);
+}
+
+/*
+ * Class:     org_sikuli_script_VDictProxy
+ * Method:    _save
+ * Signature: (J)[B
+ */
+JNIEXPORT jbyteArray JNICALL Java_org_sikuli_script_VDictProxy__1save
+  (JNIEnv *env, jobject jobj, jlong inst){
+  VizDict* dict = (VizDict *)inst;
+  vector<char> data;
+  dict->save(data);
+  jbyteArray ret = env->NewByteArray(data.size());
+  env->SetByteArrayRegion(ret, 0, data.size(), (const jbyte *)&data[0]);
+  return ret;
+}
+
+/*
+ * Class:     org_sikuli_script_VDictProxy
+ * Method:    _load
+ * Signature: (J[BII)Z
+ */
+JNIEXPORT jboolean JNICALL Java_org_sikuli_script_VDictProxy__1load
+  (JNIEnv *env, jobject jobj, jlong inst, jbyteArray jdata, jint offset, jint length){
+  VizDict* dict = (VizDict *)inst;
+  // copied out, so that the GC isn't held up while the keys are indexed
+  vector<char> data(length);
+  if (length > 0)
+    env->GetByteArrayRegion(jdata, offset, length, (jbyte*)&data[0]);
+  return dict->load(length > 0 ? &data[0] : NULL, length);
+}
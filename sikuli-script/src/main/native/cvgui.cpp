@@ -5,6 +5,8 @@
  */
 #include "cvgui.h"
 #include "sikuli-debug.h"
+#include "TimingBlock.h"
+#include "thread-pool.h"
 #include <iostream>
 using namespace std;
 using namespace sikuli;
@@ -537,16 +539,54 @@ cvgui::linkBlobsIntoLineBlobs(vector<Blob>& blobs, vector<LineBlob>& lines, int
 }
 
 
+class LineBlobOCRTask : public Task {
+public:
+   LineBlobOCRTask(const Mat& image_, const LineBlob& lineblob_)
+   : image(image_), lineblob(lineblob_){}
+
+   void run(){
+      Mat wordImage(image,lineblob);
+      
+      Mat ocrImage;  // the image passed to tesseract      
+      upsampled = false;
+      if (wordImage.rows < 20){
+         upsampled = true;
+         resize(wordImage, ocrImage, Size(wordImage.cols*2,wordImage.rows*2));
+      }else {
+         ocrImage = wordImage.clone(); 
+      }  
+      
+      ocr_chars = OCR::recognize((unsigned char*)ocrImage.data,
+                                 ocrImage.cols,
+                                 ocrImage.rows,
+                                 8); 
+   }
+
+   Mat image;
+   LineBlob lineblob;
+   bool upsampled;
+   vector<OCRChar> ocr_chars;
+};
+
 void 
 cvgui::run_ocr_on_lineblobs(vector<LineBlob>& ocr_input_lineblobs,
                             Mat& input_image,
                             vector<OCRLine>& ocrlines){
    
-   
+   // the blobs are read in parallel, then put together in order
+   vector<LineBlobOCRTask> ocrTasks;
+   ocrTasks.reserve(ocr_input_lineblobs.size());
    for (vector<LineBlob>::iterator it = ocr_input_lineblobs.begin(); 
-        it != ocr_input_lineblobs.end(); ++it){
+        it != ocr_input_lineblobs.end(); ++it)
+      ocrTasks.push_back(LineBlobOCRTask(input_image, *it));
+   vector<Task*> tasks;
+   for (size_t i=0; i<ocrTasks.size(); ++i)
+      tasks.push_back(&ocrTasks[i]);
+   ThreadPool::getInstance().run(tasks);
+   
+   for (size_t i=0; i<ocrTasks.size(); ++i){
       
-      LineBlob& lineblob = *it;
+      LineBlob& lineblob = ocr_input_lineblobs[i];
       OCRLine ocrline;
       OCRWord ocrword;
       
@@ -555,22 +595,8 @@ cvgui::run_ocr_on_lineblobs(vector<LineBlob>& ocr_input_lineblobs,
       //      
       
       
-      Mat wordImage(input_image,lineblob);
-      
-      Mat ocrImage;  // the image passed to tesseract      
-      bool upsampled = false;
-      if (wordImage.rows < 20){
-         upsampled = true;
-         resize(wordImage, ocrImage, Size(wordImage.cols*2,wordImage.rows*2));
-      }else {
-         ocrImage = wordImage.clone(); 
-      }  
-      
-      vector<OCRChar> ocr_chars;
-      ocr_chars = OCR::recognize((unsigned char*)ocrImage.data,
-                                            ocrImage.cols,
-                                            ocrImage.rows,
-                                            8); 
+      bool upsampled = ocrTasks[i].upsampled;
+      vector<OCRChar>& ocr_chars = ocrTasks[i].ocr_chars;
       
       for (vector<OCRChar>::iterator iter = ocr_chars.begin(); 
            iter != ocr_chars.end(); iter++){
@@ -1560,6 +1586,7 @@ cvgui::getLineBlobsAsIndividualWords(const Mat& screen, vector<LineBlob>& output
 
 void 
 cvgui::segmentScreenshot(const Mat& screen, vector<Blob>& text_blobs, vector<Blob>& image_blobs){
+   TimingBlock tb("cvgui::segmentScreenshot");
    
    VLOG("Input", screen);
    
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2010-2011, Sikuli.org
+ * Released under the MIT License.
+ *
+ */
+
+#include "exact-matcher.h"
+#include "TimingBlock.h"
+
+#include <string.h>
+#include <algorithm>
+
+// odd multipliers for the rows and the columns
+#define ROW_BASE 0x100000001b3ULL
+#define COL_BASE 0x9e3779b97f4a7c15ULL
+
+
+static inline unsigned long long
+power(unsigned long long base, int n){
+   unsigned long long p = 1;
+   for(int i=0;i<n;i++)
+      p *= base;
+   return p;
+}
+
+// the channels of a pixel packed into one number
+static inline unsigned long long
+pixel(const uchar* p, int cn){
+   unsigned long long v = p[0];
+   for(int c=1;c<cn;c++)
+      v |= (unsigned long long)p[c] << (8*c);
+   return v;
+}
+
+
+ExactMatcher::ExactMatcher(const Mat& source_, const Mat& target_)
+: source(source_), target(target_){
+   n_cols = source.cols - target.cols + 1;
+   next_row = 0;
+   next_col = -1;
+   if(source.rows < target.rows || n_cols <= 0)
+      return;
+
+   row_power = power(ROW_BASE, target.cols);
+   col_power = power(COL_BASE, target.rows);
+
+   // the same sums as the windows of the source get, with n_cols = 1
+   vector<Hash> h(1);
+   target_hash = 0;
+   for(int y=0;y<target.rows;y++){
+      hashRow(target, y, &h[0]);
+      target_hash = target_hash * COL_BASE + h[0];
+   }
+
+   row_hashes.assign(target.rows * n_cols, 0);
+   col_hashes.assign(n_cols, 0);
+   new_row.resize(n_cols);
+}
+
+bool
+ExactMatcher::isSupported(const Mat& source, const Mat& target){
+   if(source.type() != target.type() || source.depth() != CV_8U ||
+      source.channels() > 4)
+      return false;
+   if(target.rows == 0 || target.cols == 0)
+      return false;
+   Scalar mean, stddev;
+   meanStdDev(target, mean, stddev);
+   return stddev[0]+stddev[1]+stddev[2]+stddev[3] > 1e-5;
+}
+
+// An occurrence covers target.rows successive rows of the source, so it
+// covers exactly one of the rows h-1, 2h-1, ... (h = target.rows), where
+// one of the rows of the target is found. If no window of those rows has
+// the hash of a target row, there is no occurrence.
+bool
+ExactMatcher::mayOccur(const Mat& source, const Mat& target){
+   TimingBlock tb("ExactMatcher::mayOccur");
+   int h = target.rows, w = target.cols;
+   int n = source.cols - w + 1;
+   if(source.rows < h || n <= 0)
+      return false;
+
+   Hash row_power = power(ROW_BASE, w);
+   vector<Hash> packed;
+   vector<Hash> target_rows(h);
+   for(int y=0;y<h;y++)
+      hashRow(target, y, w, row_power, packed, &target_rows[y]);
+   sort(target_rows.begin(), target_rows.end());
+
+   vector<Hash> windows(n);
+   for(int y=h-1;y<source.rows;y+=h){
+      hashRow(source, y, w, row_power, packed, &windows[0]);
+      for(int x=0;x<n;x++){
+         if(binary_search(target_rows.begin(), target_rows.end(), windows[x]))
+            return true;
+      }
+   }
+   return false;
+}
+
+void
+ExactMatcher::hashRow(const Mat& image, int y, Hash* out){
+   hashRow(image, y, target.cols, row_power, packed, out);
+}
+
+// the hashes of the windows of row y that are w pixels wide, for every
+// window position of the image
+void
+ExactMatcher::hashRow(const Mat& image, int y, int w, Hash row_power,
+                      vector<Hash>& packed, Hash* out){
+   const uchar* row = image.ptr<uchar>(y);
+   int cn = image.channels();
+   int n = image.cols - w + 1;
+   packed.resize(image.cols);
+   for(int x=0;x<image.cols;x++)
+      packed[x] = pixel(row + x*cn, cn);
+   Hash h = 0;
+   for(int x=0;x<w;x++)
+      h = h * ROW_BASE + packed[x];
+   out[0] = h;
+   for(int x=1;x<n;x++){
+      h = h * ROW_BASE - packed[x-1] * row_power + packed[x+w-1];
+      out[x] = h;
+   }
+}
+
+// adds the next source row to the windows, dropping the row that is
+// now target.rows above it
+void
+ExactMatcher::addRow(){
+   hashRow(source, next_row, &new_row[0]);
+   Hash* old_row = &row_hashes[(next_row % target.rows) * n_cols];
+   bool drop = next_row >= target.rows;
+   for(int x=0;x<n_cols;x++){
+      Hash h = col_hashes[x] * COL_BASE + new_row[x];
+      if(drop)
+         h -= old_row[x] * col_power;
+      col_hashes[x] = h;
+      old_row[x] = new_row[x];
+   }
+   next_row++;
+}
+
+bool
+ExactMatcher::verify(int x, int y) const{
+   size_t offset = x * source.elemSize();
+   size_t bytes = target.cols * target.elemSize();
+   for(int j=0;j<target.rows;j++){
+      if(memcmp(source.ptr<uchar>(y+j) + offset, target.ptr<uchar>(j), bytes) != 0)
+         return false;
+   }
+   return true;
+}
+
+bool
+ExactMatcher::isNearFound(int x, int y) const{
+   int xmargin = target.cols/3;
+   int ymargin = target.rows/3;
+   for(vector<Point>::const_reverse_iterator it=found.rbegin();it!=found.rend();++it){
+      // found in reading order, so the rest are too far up
+      if(y - it->y >= ymargin)
+         break;
+      if(abs(x - it->x) < xmargin)
+         return true;
+   }
+   return false;
+}
+
+FindResult
+ExactMatcher::next(){
+   TimingBlock tb("ExactMatcher::next");
+   if(source.rows < target.rows || n_cols <= 0)
+      return FindResult(0,0,0,0,-1);
+
+   while(true){
+      if(next_col < 0){
+         if(next_row >= source.rows)
+            return FindResult(0,0,0,0,-1);
+         addRow();
+         if(next_row < target.rows)
+            continue;
+         next_col = 0;
+      }
+
+      int y = next_row - target.rows;
+      for(int x=next_col;x<n_cols;x++){
+         if(col_hashes[x] != target_hash || !verify(x, y) || isNearFound(x, y))
+            continue;
+         found.push_back(Point(x, y));
+         next_col = x + 1;
+         return FindResult(x, y, target.cols, target.rows, 1.0);
+      }
+      next_col = -1;
+   }
+}
+
+vector<FindResult>
+ExactMatcher::findAll(double min_score, int max_count){
+   vector<FindResult> matches;
+   while((int)matches.size() < max_count){
+      FindResult match = next();
+      if(match.score < 0)
+         break;
+      matches.push_back(match);
+   }
+   return matches;
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2010-2011, Sikuli.org
+ * Released under the MIT License.
+ *
+ */
+#ifndef _EXACT_MATCHER_
+#define _EXACT_MATCHER_
+
+#include "pyramid-template-matcher.h"
+
+// Finds the places where a target occurs pixel for pixel in a source,
+// which is all a similarity of (almost) 1 can accept. Instead of
+// correlating, every window of the source is hashed with a 2D rolling hash
+// (Rabin-Karp along the rows, then down the columns) and only the windows
+// with the hash of the target are compared pixel by pixel. This is linear
+// in the size of the source, whatever the size of the target.
+//
+// The source is scanned lazily from the top, so next() only goes as far as
+// the next occurrence. Occurrences closer than a third of the target to an
+// earlier one are skipped, as PyramidTemplateMatcher does.
+class ExactMatcher : public PyramidTemplateMatcher {
+public:
+
+   ExactMatcher(const Mat& source, const Mat& target);
+
+   // 8-bit images of the same type with at most 4 channels. Plain color
+   // targets are left to the correlation, as they occur everywhere in
+   // plain areas.
+   static bool isSupported(const Mat& source, const Mat& target);
+
+   // false if the target can't occur in the source. Only every
+   // target.rows-th row of the source is hashed, so this costs a fraction
+   // of a full scan, which is what a miss would cost otherwise.
+   static bool mayOccur(const Mat& source, const Mat& target);
+
+   // the next occurrence with a score of 1, or a score of -1 if there
+   // is none left
+   FindResult next();
+
+   // all occurrences in reading order, at most max_count of them
+   vector<FindResult> findAll(double min_score, int max_count);
+
+private:
+
+   typedef unsigned long long Hash;
+
+   static void hashRow(const Mat& image, int y, int w, Hash row_power,
+                       vector<Hash>& packed, Hash* out);
+   void hashRow(const Mat& image, int y, Hash* out);
+   void addRow();
+   bool verify(int x, int y) const;
+   bool isNearFound(int x, int y) const;
+
+   Mat source, target;
+   int n_cols;              // window positions per row
+   Hash row_power, col_power;
+   Hash target_hash;
+
+   vector<Hash> row_hashes; // the last target.rows rows, as a ring
+   vector<Hash> col_hashes; // the windows ending in the last row added
+   vector<Hash> new_row;
+   vector<Hash> packed;     // the pixels of the row being hashed
+   int next_row;            // the next source row to add
+   int next_col;            // the next window to look at, -1 for none
+
+   vector<Point> found;
+};
+
+#endif
@@ -7,6 +7,8 @@
 #define _FIND_RESULT_
 
 #include <string>
+#include <vector>
+#include <algorithm>
 
 struct FindResult {
    int x, y;
@@ -25,4 +27,52 @@ struct FindResult {
    std::string text;
 };
 
+// Results packed for a bulk transfer to Java, which reads them with two
+// calls instead of one per result: the x, y, w, h and score of each
+// result in a row, and their texts joined by newlines (empty if none of
+// them has a text)
+class PackedFindResults {
+public:
+   enum { FIELDS = 5 };
+
+   PackedFindResults(){}
+   PackedFindResults(const std::vector<FindResult>& results){
+      values.reserve(results.size()*FIELDS);
+      bool has_text = false;
+      for (size_t i=0; i<results.size(); ++i){
+         const FindResult& r = results[i];
+         values.push_back(r.x);
+         values.push_back(r.y);
+         values.push_back(r.w);
+         values.push_back(r.h);
+         values.push_back(r.score);
+         has_text = has_text || !r.text.empty();
+      }
+      if (has_text){
+         for (size_t i=0; i<results.size(); ++i){
+            if (i > 0)
+               texts += '\n';
+            texts += results[i].text;
+         }
+      }
+   }
+
+   int size() const {
+      return values.size() / FIELDS;
+   }
+
+   // copies the values into an array of size()*FIELDS doubles
+   void getValues(double* out) const {
+      std::copy(values.begin(), values.end(), out);
+   }
+
+   std::string getTexts() const {
+      return texts;
+   }
+
+private:
+   std::vector<double> values;
+   std::string texts;
+};
+
 #endif //_FIND_RESULT_
@@ -9,6 +9,7 @@
 
 #include "finder.h"
 #include "pyramid-template-matcher.h"
+#include "exact-matcher.h"
 #include "TimingBlock.h"
 #include "vision.h"
 
@@ -61,6 +62,7 @@ bool sort_by_score(FindResult m1, FindResult m2){
 
 void TemplateFinder::init(){
    matcher = NULL;
+   max_matches = 0;
    float min_target_size = sikuli::Vision::getParameter("MinTargetSize");
    PyramidMinTargetDimension = min_target_size>0 ? 
       min_target_size : DEFAULT_PYRAMID_MIM_TARGET_DIMENSION;
@@ -70,6 +72,11 @@ TemplateFinder::TemplateFinder(Mat _source) : BaseFinder(_source){
    init();
 }
 
+TemplateFinder::TemplateFinder(const Ptr<SourceData>& _source)
+: BaseFinder(_source->source), source_data(_source){
+   init();
+}
+
 TemplateFinder::TemplateFinder(IplImage* _source) : BaseFinder(_source){
    init();
 }
@@ -84,9 +91,24 @@ TemplateFinder::~TemplateFinder(){
       delete matcher;
 }
 
+void
+TemplateFinder::prepare_source(){
+   if (source_data.empty())
+      BaseFinder::find();
+   else
+      roiSource = source_data->source;  // shared, no private copy needed
+}
+
+MatchingData
+TemplateFinder::create_data(const Mat& target){
+   if (source_data.empty())
+      return MatchingData(roiSource, TemplateCache::get(target));
+   return MatchingData(source_data, TemplateCache::get(target));
+}
+
 void 
 TemplateFinder::find(const char *target_image_filename, double min_similarity){     
-   Mat target = imread(target_image_filename, 1);
+   Mat target = TemplateCache::load(target_image_filename);
    if (target.data == NULL)
       throw cv::Exception();
    find(target, min_similarity);
@@ -99,7 +121,7 @@ TemplateFinder::find(IplImage* target, double min_similarity){
 
 void 
 TemplateFinder::find_all(const char *target_image_filename, double min_similarity){
-   Mat target = imread(target_image_filename, 1);
+   Mat target = TemplateCache::load(target_image_filename);
    if (target.data == NULL)
       throw cv::Exception();
 
@@ -113,10 +135,15 @@ TemplateFinder::find_all(IplImage* target, double min_similarity){
 }   
 
 void
-TemplateFinder::find_all(Mat target, double min_similarity){   
+TemplateFinder::find_all(Mat target, double min_similarity, int max_matches){   
+   TimingBlock tb("TemplateFinder::find_all");
    this->min_similarity = min_similarity;
+   if (max_matches <= 0)
+      max_matches = (int)sikuli::Vision::getParameter("FindAllMaxReturn");
+   this->max_matches = max_matches;
+   buffered_matches.clear();
    
-   BaseFinder::find();  
+   prepare_source();
    
    if (roiSource.cols < target.cols || roiSource.rows < target.rows){	   
 	   current_match.score = -1;
@@ -133,19 +160,23 @@ TemplateFinder::find_all(Mat target, double min_similarity){
       levels++;
    }
    
-   MatchingData data(roiSource, target);
+   if (min_similarity >= EXACT_MATCH_THRESHOLD && find_exact(target))
+      return;
+
+   MatchingData data = create_data(target);
+   data.min_score = min_similarity;
    
    if (min_similarity < 0.99){
       data.useGray(true);
       create_matcher(data, levels, factor);
-      add_matches_to_buffer(5);     
+      add_all_matches_to_buffer();
       if (top_score_in_buffer() >= max(min_similarity,REMATCH_THRESHOLD))
          return;
    }
    data.useGray(false);
    dout << "[find_all] matching (original resolution: color) ... " << endl;
    create_matcher(data, 0, 1);
-   add_matches_to_buffer(5);
+   add_all_matches_to_buffer();
 }
 
 
@@ -164,6 +195,26 @@ TemplateFinder::create_matcher(const MatchingData& data, int level, float ratio)
    matcher = new PyramidTemplateMatcher(data, level, ratio);
 }
 
+// Only pixel-exact occurrences can reach such a similarity (or nearly so),
+// and a rolling hash finds them in a fraction of the time of a correlation.
+// Returns false if there is none, so that the correlation decides. A miss
+// is paid on top of the correlation, so it is ruled out first by hashing
+// only a few rows of the source.
+bool
+TemplateFinder::find_exact(const Mat& target){
+   if (!ExactMatcher::isSupported(roiSource, target) ||
+       !ExactMatcher::mayOccur(roiSource, target))
+      return false;
+   if (matcher)
+      delete matcher;
+   matcher = new ExactMatcher(roiSource, target);
+   if (max_matches > 0)
+      add_all_matches_to_buffer();
+   else
+      add_matches_to_buffer(5);
+   return top_score_in_buffer() >= min_similarity;
+}
+
 void 
 TemplateFinder::add_matches_to_buffer(int num_matches_to_add){ 
    buffered_matches.clear();
@@ -174,13 +225,20 @@ TemplateFinder::add_matches_to_buffer(int num_matches_to_add){
    sort(buffered_matches,sort_by_score);
 } 
 
+// every match at once, best first
+void
+TemplateFinder::add_all_matches_to_buffer(){
+   buffered_matches = matcher->findAll(min_similarity-0.0000001, max_matches);
+}
+
 void
 TemplateFinder::find(Mat target, double min_similarity){
    TimingBlock tb("TemplateFinder::find");
    //dout << "target: " << target.cols << "x" << target.rows << endl;
    
    this->min_similarity = min_similarity;   
-   BaseFinder::find();  
+   max_matches = 0;
+   prepare_source();
    
    if (roiSource.cols < target.cols || roiSource.rows < target.rows){	   
       current_match.score = -1;
@@ -193,7 +251,11 @@ TemplateFinder::find(Mat target, double min_similarity){
    if(ratio < 1.f)
       ratio = 1.f;
    
-   MatchingData data(roiSource, target);
+   if (min_similarity >= EXACT_MATCH_THRESHOLD && find_exact(target))
+      return;
+
+   MatchingData data = create_data(target);
+   data.min_score = min_similarity;
 
    if (min_similarity < 0.99)
       data.useGray(true);
@@ -240,6 +302,10 @@ TemplateFinder::next(){
    top_match.x += roi.x;
    top_match.y += roi.y;
    
+   if (max_matches > 0){
+      buffered_matches.erase(buffered_matches.begin());
+      return top_match;
+   }
    FindResult next_match = matcher->next();
    buffered_matches[0] = next_match;
    sort(buffered_matches,sort_by_score);
@@ -352,6 +418,7 @@ ChangeFinder::find(IplImage* new_screen_image){
 
 void
 ChangeFinder::find(Mat new_screen_image){
+   TimingBlock tb("ChangeFinder::find");
 
    BaseFinder::find(); // set ROI
    
@@ -461,6 +528,164 @@ ChangeFinder::next(){
 
 
 
+//=====================================================================================
+
+IncrementalFinder::IncrementalFinder(Mat target_, double min_similarity_){
+   init(target_, min_similarity_);
+}
+
+IncrementalFinder::IncrementalFinder(const char* target_image_filename, double min_similarity_){
+   Mat target_ = TemplateCache::load(target_image_filename);
+   if (target_.data != NULL)
+      init(target_, min_similarity_);
+}
+
+void
+IncrementalFinder::init(const Mat& target_, double min_similarity_){
+   target = TemplateCache::get(target_);
+   min_similarity = min_similarity_;
+   use_gray = min_similarity < 0.99;
+}
+
+bool
+IncrementalFinder::isSupported() const{
+   if (target.empty())
+      return false;
+   const Scalar& s = target->stddev;
+   return s[0]+s[1]+s[2]+s[3] > 1e-5;
+}
+
+// searches the whole frame as a plain find would
+FindResult
+IncrementalFinder::scan(const Mat& new_frame){
+   new_frame.copyTo(frame);
+   TemplateFinder f(frame);
+   f.find(target->target, min_similarity);
+   if (f.hasNext())
+      return f.next();
+   return FindResult(0,0,0,0,-1);
+}
+
+// the tiles of the frame where any pixel differs from new_frame in any
+// channel, merged into runs along each row of tiles
+void
+IncrementalFinder::changes(const Mat& new_frame, vector<Rect>& rects) const{
+   Mat diff;
+   absdiff(frame, new_frame, diff);
+   Mat flat = diff.reshape(1);
+   int cn = diff.channels();
+   for (int y = 0; y < frame.rows; y += CHANGE_TILE_SIZE){
+      int h = min(CHANGE_TILE_SIZE, frame.rows - y);
+      int run = -1;
+      for (int x = 0; ; x += CHANGE_TILE_SIZE){
+         bool changed = false;
+         if (x < frame.cols){
+            int w = min(CHANGE_TILE_SIZE, frame.cols - x);
+            changed = countNonZero(flat(Rect(x*cn, y, w*cn, h))) > 0;
+         }
+         if (changed && run < 0)
+            run = x;
+         else if (!changed && run >= 0){
+            rects.push_back(Rect(run, y, min(x, frame.cols) - run, h));
+            run = -1;
+         }
+         if (x >= frame.cols)
+            break;
+      }
+   }
+}
+
+// best match among the windows that overlap rect
+FindResult
+IncrementalFinder::match(const Mat& new_frame, const Rect& rect){
+   const Mat& t = target->target;
+   int x0 = max(rect.x - t.cols + 1, 0);
+   int y0 = max(rect.y - t.rows + 1, 0);
+   int x1 = min(rect.x + rect.width, new_frame.cols - t.cols + 1);
+   int y1 = min(rect.y + rect.height, new_frame.rows - t.rows + 1);
+   if (x0 >= x1 || y0 >= y1)
+      return FindResult(0,0,0,0,-1);
+
+   Rect src(x0, y0, x1 - x0 + t.cols - 1, y1 - y0 + t.rows - 1);
+   Mat result;
+   if (use_gray){
+      Mat gray;
+      cvtColor(new_frame(src), gray, CV_RGB2GRAY);
+      matchTemplate(gray, target->target_gray, result, CV_TM_CCOEFF_NORMED);
+   }
+   else{
+      matchTemplate(new_frame(src), t, result, CV_TM_CCOEFF_NORMED);
+   }
+   double score;
+   Point loc;
+   minMaxLoc(result, NULL, &score, NULL, &loc);
+   loc += Point(x0, y0);
+
+   if (use_gray && score >= min_similarity && score < REMATCH_THRESHOLD){
+      // not convincing enough in gray: check the spot in color, as
+      // TemplateFinder would
+      int cx0 = max(loc.x - 1, 0), cy0 = max(loc.y - 1, 0);
+      int cx1 = min(loc.x + t.cols + 1, new_frame.cols);
+      int cy1 = min(loc.y + t.rows + 1, new_frame.rows);
+      Mat color_result;
+      matchTemplate(new_frame(Rect(cx0, cy0, cx1 - cx0, cy1 - cy0)), t,
+                    color_result, CV_TM_CCOEFF_NORMED);
+      Point color_loc;
+      minMaxLoc(color_result, NULL, &score, NULL, &color_loc);
+      loc = Point(cx0 + color_loc.x, cy0 + color_loc.y);
+   }
+   return FindResult(loc.x, loc.y, t.cols, t.rows, score);
+}
+
+FindResult
+IncrementalFinder::find(Mat new_frame){
+   TimingBlock tb("IncrementalFinder::find");
+   if (!isSupported())
+      return FindResult(0,0,0,0,-1);
+   const Mat& t = target->target;
+   if (new_frame.rows < t.rows || new_frame.cols < t.cols)
+      return FindResult(0,0,0,0,-1);
+
+   if (frame.size() != new_frame.size() || frame.type() != new_frame.type()){
+      last = scan(new_frame);
+      return last;
+   }
+
+   vector<Rect> rects;
+   changes(new_frame, rects);
+   if (rects.empty())
+      return last;
+
+   // nothing outside the changes matches better than the last match, or
+   // reaches min_similarity if there was none, unless the last match is
+   // itself among the changes
+   Rect last_rect(last.x, last.y, last.w, last.h);
+   bool found = last.score >= min_similarity;
+   long area = 0;
+   for (size_t i = 0; i < rects.size(); ++i){
+      area += (long)rects[i].width * rects[i].height;
+      if (found && (rects[i] & last_rect).area() > 0){
+         last = scan(new_frame);
+         return last;
+      }
+   }
+   if (area * 4 > (long)frame.rows * frame.cols){
+      last = scan(new_frame);
+      return last;
+   }
+
+   for (size_t i = 0; i < rects.size(); ++i){
+      FindResult r = match(new_frame, rects[i]);
+      if (r.score > last.score)
+         last = r;
+   }
+   for (size_t i = 0; i < rects.size(); ++i){
+      Mat kept = frame(rects[i]);
+      new_frame(rects[i]).copyTo(kept);
+   }
+   return last;
+}
+
 //=====================================================================================
 #include "tessocr.h"
 
@@ -14,6 +14,8 @@
 #define REMATCH_THRESHOLD 0.9
 #define CENTER_REMATCH_THRESHOLD 0.99
 #define BORDER_MARGIN 0.2
+// targets at least this similar are looked up pixel for pixel first
+#define EXACT_MATCH_THRESHOLD 0.999
 
 
 class BaseFinder{
@@ -80,6 +82,8 @@ class TemplateFinder : public BaseFinder{
 public:
    
    TemplateFinder(Mat source);
+   // searches the whole of a source shared with other finders
+   TemplateFinder(const Ptr<SourceData>& source);
    TemplateFinder(IplImage* source);
    TemplateFinder(const char* source_image_filename);
    ~TemplateFinder();
@@ -90,7 +94,8 @@ public:
    void find(const char *target_image_filename, double min_similarity);
    
    
-   void find_all(Mat target, double min_similarity);
+   // at most max_matches, or the "FindAllMaxReturn" vision parameter if 0
+   void find_all(Mat target, double min_similarity, int max_matches = 0);
    void find_all(IplImage*  target, double min_similarity);
    void find_all(const char *target_image_filename, double min_similarity);  
    
@@ -100,17 +105,25 @@ public:
 private:
    
    void init();
+   void prepare_source();
+   MatchingData create_data(const Mat& target);
    void create_matcher(const MatchingData& data, int level, float ratio);
+   bool find_exact(const Mat& target);
    PyramidTemplateMatcher* matcher;
+   Ptr<SourceData> source_data;
    
    FindResult current_match;
    int current_rank;   
    
    // buffer matches and return top score
    void add_matches_to_buffer(int num_matches_to_add);
+   void add_all_matches_to_buffer();
    float top_score_in_buffer();   
    
    vector<FindResult> buffered_matches;   
+   // 0 when finding the best match, where the buffer is refilled from
+   // the matcher; the limit of find_all, which buffers every match
+   int max_matches;
 };
 
 class Finder {
@@ -192,5 +205,42 @@ private:
 
 
 
+// pixels on each side of the tiles IncrementalFinder compares frames by
+#define CHANGE_TILE_SIZE 32
+
+// Tracks one target across successive frames of the same screen area.
+// The first frame is searched with TemplateFinder and kept with its
+// best match. A later frame is only matched again in the tiles where
+// any of its pixels changed, unless the change covers the last match or
+// a large part of the frame, which are searched with TemplateFinder
+// again.
+class IncrementalFinder {
+   
+public:
+   
+   IncrementalFinder(Mat target, double min_similarity);
+   IncrementalFinder(const char* target_image_filename, double min_similarity);
+   
+   // false for targets that can't be matched by correlation (e.g. plain
+   // colors) or that could not be read
+   bool isSupported() const;
+   
+   // best match in the frame, score -1 if there is none
+   FindResult find(Mat frame);
+   
+private:
+   
+   void init(const Mat& target, double min_similarity);
+   FindResult scan(const Mat& new_frame);
+   void changes(const Mat& new_frame, vector<Rect>& rects) const;
+   FindResult match(const Mat& new_frame, const Rect& rect);
+   
+   Ptr<TemplateData> target;
+   double min_similarity;
+   bool use_gray;
+   
+   Mat frame;
+   FindResult last;
+};
 
 #endif // _FINDER_H_
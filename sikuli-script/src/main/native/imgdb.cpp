@@ -4,12 +4,46 @@
  *
  */
 
+#include <sys/stat.h>
+#include <string.h>
+#include <fstream>
+#include <sstream>
+
 #include "imgdb.h"
 
 #ifdef WIN32
 typedef INT32 int32_t;
 #endif
 
+// records of about the same size fall in neighbouring cells
+#define INDEX_CELL_SIZE 8
+
+using namespace sikuli;
+
+static bool
+is_similar(const ImageRecord& q, const ImageRecord& p){
+   
+   if (abs(q.area - p.area) > 10)
+      return false;
+   
+   if (abs(q.height - p.height) > 5)
+      return false;
+   
+   if (abs(q.width - p.width) > 5)
+      return false;
+   
+   if (abs(q.mr - p.mr) > 10)
+      return false;
+   
+   if (abs(q.mg - p.mg) > 10)
+      return false;
+   
+   if (abs(q.mb - p.mb) > 10)
+      return false;
+   
+   return true;
+}
+
 void
 ImageRecord::write(ostream& output_stream){   
    output_stream.write((char *) this, sizeof(class ImageRecord));
@@ -69,34 +103,9 @@ Database::find(const ImageRecord& q){
    vector<ImageRecord>::iterator it = _image_records.begin();
    for (; it != _image_records.end(); ++it){
       
-      ImageRecord& p = *it;
-      
-      if (abs(q.area - it->area) > 10)
+      if (!is_similar(q, *it))
          continue;
       
-      if (abs(q.height - it->height) > 5)
-         continue;
-      
-      if (abs(q.width - it->width) > 5)
-         continue;
-      
-      
-      float s = 1.0;
-      
-      
-      if (abs(q.mr - it->mr) > 10)
-         continue;
-      
-      if (abs(q.mg - it->mg) > 10)
-         continue;
-      
-      if (abs(q.mb - it->mb) > 10)
-         continue;
-      
-      //      cout << it->id << ": ";
-      //      cout << q.mr*s << " " << q.mg*s << " " << q.mb*s << "<->";
-      //      cout << p.mr << " " << p.mg << " " << p.mb << endl;      
-      
       ret.push_back(*it);	
       
       return ret;
@@ -309,3 +318,135 @@ Database::read(istream& stream){
 }
 
 
+//===================================================================
+// ImageDatabase
+
+Mutex ImageDatabase::_mutex;
+map<string, pair<string, Ptr<ImageDatabase> > > ImageDatabase::_opened;
+
+ImageDatabase::ImageDatabase(const char* index_filename)
+: _records(NULL), _num_records(0){
+   
+   read_file(index_filename);
+   
+   // the layout of Database::write: the number of records, then the
+   // records as they are in memory
+   int32_t num_records = -1;
+   if (_data.size() >= sizeof(int32_t))
+      memcpy(&num_records, &_data[0], sizeof(int32_t));
+   if (num_records < 0 ||
+       (_data.size() - sizeof(int32_t)) / sizeof(ImageRecord) < (size_t)num_records){
+      vector<char>().swap(_data);
+      return;
+   }
+   
+   _records = (const ImageRecord*)(&_data[0] + sizeof(int32_t));
+   _num_records = num_records;
+   for (int i = 0; i < _num_records; ++i)
+      _index[cell(_records[i].width, _records[i].height)].push_back(i);
+}
+
+// the whole file, or as much of it as there was if it was cut short
+// while being read
+void
+ImageDatabase::read_file(const char* filename){
+   ifstream in(filename, ios::in | ios::binary);
+   if (!in)
+      return;
+   in.seekg(0, ios::end);
+   streamoff size = in.tellg();
+   in.seekg(0, ios::beg);
+   if (size <= 0)
+      return;
+   _data.resize((size_t)size);
+   in.read(&_data[0], size);
+   _data.resize((size_t)in.gcount());
+}
+
+ImageDatabase::Cell
+ImageDatabase::cell(int width, int height){
+   return Cell(width / INDEX_CELL_SIZE, height / INDEX_CELL_SIZE);
+}
+
+bool
+ImageDatabase::isOpen() const{
+   return _records != NULL;
+}
+
+int
+ImageDatabase::size() const{
+   return _num_records;
+}
+
+vector<ImageRecord>
+ImageDatabase::find(const ImageRecord& q) const{
+   
+   // the first in file order among the similar records of the
+   // neighbouring cells
+   int first = _num_records;
+   Cell c = cell(q.width, q.height);
+   for (int dx = -1; dx <= 1; ++dx){
+      for (int dy = -1; dy <= 1; ++dy){
+         map<Cell, vector<int> >::const_iterator it = _index.find(Cell(c.first + dx, c.second + dy));
+         if (it == _index.end())
+            continue;
+         const vector<int>& ids = it->second;
+         for (vector<int>::const_iterator i = ids.begin(); i != ids.end() && *i < first; ++i){
+            if (is_similar(q, _records[*i])){
+               first = *i;
+               break;
+            }
+         }
+      }
+   }
+   
+   vector<ImageRecord> ret;
+   if (first < _num_records)
+      ret.push_back(_records[first]);
+   return ret;
+}
+
+vector<ImageRecord>
+ImageDatabase::find(Mat image) const{
+   vector<ImageRecord> top_matches;
+   if (_num_records == 0)
+      return top_matches;
+   
+   vector<ImageRecord> records = Database::create_image_records_from_image(image);
+   for (vector<ImageRecord>::iterator r = records.begin();
+        r != records.end(); ++r){
+      vector<ImageRecord> matches = find(*r);
+      if (!matches.empty())
+         top_matches.push_back(matches[0]);
+   }
+   return top_matches;
+}
+
+string
+ImageDatabase::query(Mat image) const{
+   string ret = "";
+   vector<ImageRecord> results = find(image);
+   for (vector<ImageRecord>::iterator r = results.begin(); 
+        r != results.end(); ++r){
+      char buf[50];
+      sprintf(buf,"ui%d",r->id);
+      ret = ret + string(buf) + " ";
+   }
+   return ret;
+}
+
+Ptr<ImageDatabase>
+ImageDatabase::get(const char* index_filename){
+   stringstream version;
+   struct stat st;
+   if (stat(index_filename, &st) == 0)
+      version << st.st_mtime << ":" << st.st_size;
+   
+   ScopedLock lock(_mutex);
+   pair<string, Ptr<ImageDatabase> >& opened = _opened[index_filename];
+   if (opened.second.empty() || opened.first != version.str()){
+      opened.first = version.str();
+      opened.second = Ptr<ImageDatabase>(new ImageDatabase(index_filename));
+   }
+   return opened.second;
+}
@@ -7,7 +7,11 @@
 #ifndef _IMGDB_H_
 #define _IMGDB_H_
 
+#include <map>
+#include <string>
+
 #include "cvgui.h"
+#include "sikuli-thread.h"
 
 class ImageRecord{
    
@@ -62,14 +66,58 @@ public:
    void write(std::ostream& output_stream);
    void read(std::istream& input_stream);   
    
+   static vector<ImageRecord> create_image_records_from_blobs(const Mat& src, const vector<Blob> image_blobs);
+   static vector<ImageRecord> create_image_records_from_imagefile(const char* imagefile);
+   static vector<ImageRecord> create_image_records_from_image(Mat image);   
+   
 private:
    
    vector<ImageRecord> _image_records;
    
-   vector<ImageRecord> create_image_records_from_blobs(const Mat& src, const vector<Blob> image_blobs);
-   vector<ImageRecord> create_image_records_from_imagefile(const char* imagefile);
-   vector<ImageRecord> create_image_records_from_image(Mat image);   
+};
+
+
+// A database written by Database::write, opened once and queried many
+// times. The file is read into memory in one go and its records are used
+// where they are; only an index of them by width and height is built, so
+// a query looks at the records of about the same size instead of all of
+// them. It is never modified, so threads can share it. The file is not
+// mapped, so rewriting or truncating it while it is open does no harm.
+class ImageDatabase{
+   
+public:
+   ImageDatabase(const char* index_filename);
+   
+   // false if the file can't be read or is not a database
+   bool isOpen() const;
+   int size() const;
+   
+   // the first record similar to q, as Database::find(q)
+   vector<ImageRecord> find(const ImageRecord& q) const;
+   // the top match of each component of the image
+   vector<ImageRecord> find(Mat image) const;
+   // the ids of the top matches, as "ui<id> ui<id> ..."
+   string query(Mat image) const;
+   
+   // the database in a file, opened again only when the file changes
+   static Ptr<ImageDatabase> get(const char* index_filename);
+   
+private:
+   
+   // records in cells of INDEX_CELL_SIZE pixels in width and height
+   typedef std::pair<int,int> Cell;
+   
+   void read_file(const char* filename);
+   static Cell cell(int width, int height);
+   
+   vector<char> _data;
+   
+   const ImageRecord* _records;
+   int _num_records;
+   std::map<Cell, vector<int> > _index;   // record numbers, in file order
    
+   static sikuli::Mutex _mutex;
+   static std::map<string, std::pair<string, Ptr<ImageDatabase> > > _opened;
 };
 
 #endif
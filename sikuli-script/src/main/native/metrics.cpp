@@ -0,0 +1,140 @@
+/*
+ * Copyright 2010-2011, Sikuli.org
+ * Released under the MIT License.
+ *
+ */
+#include "metrics.h"
+
+#include <cmath>
+
+#if defined(_WIN32) || defined(_WIN64)
+#include <windows.h>
+#else
+#include <time.h>
+#include <sys/time.h>
+#endif
+
+using namespace sikuli;
+
+// bucket i holds durations up to 2^((i+1)/4) microseconds, the last
+// one everything longer (about 70 minutes)
+#define BUCKETS_PER_OCTAVE 4
+#define NUM_BUCKETS 128
+
+class Metrics::Histogram {
+public:
+
+   Histogram() : count(0), total(0), min(0), max(0) {
+      for (int i = 0; i < NUM_BUCKETS; ++i)
+         buckets[i] = 0;
+   }
+
+   void add(double ms){
+      double us = ms * 1000;
+      int i = 0;
+      if (us > 1){
+         i = (int) (log(us) / log(2.0) * BUCKETS_PER_OCTAVE);
+         if (i >= NUM_BUCKETS)
+            i = NUM_BUCKETS - 1;
+      }
+      buckets[i]++;
+
+      if (count == 0 || ms < min)
+         min = ms;
+      if (count == 0 || ms > max)
+         max = ms;
+      count++;
+      total += ms;
+   }
+
+   double percentile(double p) const{
+      long long rank = (long long) ceil(p * count);
+      if (rank < 1)
+         rank = 1;
+      long long seen = 0;
+      for (int i = 0; i < NUM_BUCKETS; ++i){
+         seen += buckets[i];
+         if (seen >= rank){
+            double upper = pow(2.0, (double) (i + 1) / BUCKETS_PER_OCTAVE) / 1000;
+            if (upper > max)
+               return max;
+            if (upper < min)
+               return min;
+            return upper;
+         }
+      }
+      return max;
+   }
+
+   long long count;
+   double total;
+   double min;
+   double max;
+   long long buckets[NUM_BUCKETS];
+};
+
+volatile bool Metrics::_enabled = false;
+std::map<std::string, Metrics::Histogram*> Metrics::_histograms;
+sikuli::Mutex Metrics::_mutex;
+
+void
+Metrics::setEnabled(bool enabled){
+   _enabled = enabled;
+}
+
+double
+Metrics::now(){
+#if defined(_WIN32) || defined(_WIN64)
+   LARGE_INTEGER freq, now;
+   QueryPerformanceFrequency(&freq);
+   QueryPerformanceCounter(&now);
+   return (double) now.QuadPart * 1000 / freq.QuadPart;
+#elif defined(CLOCK_MONOTONIC)
+   struct timespec now;
+   clock_gettime(CLOCK_MONOTONIC, &now);
+   return now.tv_sec * 1000.0 + now.tv_nsec / 1e6;
+#else
+   struct timeval now;
+   gettimeofday(&now, NULL);
+   return now.tv_sec * 1000.0 + now.tv_usec / 1000.0;
+#endif
+}
+
+void
+Metrics::record(const char* name, double ms){
+   ScopedLock lock(_mutex);
+   Histogram*& h = _histograms[name];
+   if (h == NULL)
+      h = new Histogram();
+   h->add(ms);
+}
+
+std::vector<MetricSnapshot>
+Metrics::snapshot(){
+   ScopedLock lock(_mutex);
+   std::vector<MetricSnapshot> ret;
+   std::map<std::string, Histogram*>::const_iterator it;
+   for (it = _histograms.begin(); it != _histograms.end(); ++it){
+      const Histogram& h = *it->second;
+      MetricSnapshot s;
+      s.name = it->first;
+      s.count = h.count;
+      s.total = h.total;
+      s.min = h.min;
+      s.max = h.max;
+      s.p50 = h.percentile(0.50);
+      s.p90 = h.percentile(0.90);
+      s.p99 = h.percentile(0.99);
+      ret.push_back(s);
+   }
+   return ret;
+}
+
+void
+Metrics::reset(){
+   ScopedLock lock(_mutex);
+   std::map<std::string, Histogram*>::iterator it;
+   for (it = _histograms.begin(); it != _histograms.end(); ++it)
+      delete it->second;
+   _histograms.clear();
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2010-2011, Sikuli.org
+ * Released under the MIT License.
+ *
+ */
+#ifndef _METRICS_H_
+#define _METRICS_H_
+
+#include <map>
+#include <string>
+#include <vector>
+
+#include "sikuli-thread.h"
+
+namespace sikuli {
+
+// Latencies of a timed block, in milliseconds. The percentiles are read
+// off a histogram with four buckets per power of two, so they are within
+// 19% of the exact value.
+struct MetricSnapshot {
+   std::string name;
+   long long count;
+   double total;
+   double min;
+   double max;
+   double p50;
+   double p90;
+   double p99;
+};
+
+// Process-wide latency histograms of the blocks timed by TimingBlock.
+// Nothing is recorded until the registry is enabled; a disabled
+// TimingBlock costs a single flag test.
+class Metrics {
+public:
+
+   static inline bool isEnabled(){
+      return _enabled;
+   }
+
+   static void setEnabled(bool enabled);
+
+   // milliseconds from an arbitrary origin, for measuring durations
+   static double now();
+
+   static void record(const char* name, double ms);
+
+   // every block recorded since the last reset, sorted by name
+   static std::vector<MetricSnapshot> snapshot();
+
+   static void reset();
+
+private:
+
+   class Histogram;
+
+   static volatile bool _enabled;
+   static std::map<std::string, Histogram*> _histograms;
+   static sikuli::Mutex _mutex;
+};
+
+}
+
+#endif // _METRICS_H_
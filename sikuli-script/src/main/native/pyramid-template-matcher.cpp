@@ -5,6 +5,7 @@
  */
 
 #include "pyramid-template-matcher.h"
+#include "thread-pool.h"
 #include "TimingBlock.h"
 #include "vision.h"
 
@@ -18,6 +19,355 @@
 #define MIN_PIXELS_TO_USE_GPU 90000
 #define WORTH_GPU(mat) ( ((mat).rows * (mat).cols) > MIN_PIXELS_TO_USE_GPU)
 
+// fewer result rows than this per band are not worth a thread
+#define MIN_ROWS_PER_BAND 32
+
+
+// Matches the result rows [r0,r1) using only the source rows they
+// depend on, i.e. the band plus target.rows-1 rows of overlap.
+class MatchBandTask : public sikuli::Task {
+public:
+   MatchBandTask(const Mat& source_, const Mat& target_, const Mat& result_,
+                 int method_, int r0_, int r1_)
+   : source(source_), target(target_), result(result_), method(method_),
+     r0(r0_), r1(r1_), failed(false){
+   }
+
+   void run(){
+      try{
+         Mat band = source(Range(r0, r1 + target.rows - 1), Range::all());
+         Mat band_result;
+         matchTemplate(band, target, band_result, method);
+         Mat dest = result(Range(r0, r1), Range::all());
+         band_result.copyTo(dest);
+      }
+      catch(cv::Exception&){
+         failed = true;
+      }
+   }
+
+   // headers only, the pixels are shared with the caller
+   Mat source, target, result;
+   int method, r0, r1;
+   bool failed;
+};
+
+// Same as matchTemplate, but splits the source into horizontal bands
+// matched in parallel when "MatchThreads" allows it.
+static void
+matchTemplateInBands(const Mat& source, const Mat& target, Mat& result, int method){
+   int threads = (int)sikuli::Vision::getParameter("MatchThreads");
+   if(threads <= 0)
+      threads = sikuli::ThreadPool::getNumberOfCores();
+   int rows = source.rows - target.rows + 1;
+   int bands = min(threads, rows / MIN_ROWS_PER_BAND);
+   if(bands <= 1){
+      matchTemplate(source, target, result, method);
+      return;
+   }
+
+   TimingBlock t("matchTemplateInBands");
+   result.create(rows, source.cols - target.cols + 1, CV_32F);
+   vector<MatchBandTask> bandTasks;
+   bandTasks.reserve(bands);
+   for(int i=0;i<bands;i++){
+      int r0 = rows * i / bands;
+      int r1 = rows * (i+1) / bands;
+      bandTasks.push_back(MatchBandTask(source, target, result, method, r0, r1));
+   }
+   vector<sikuli::Task*> tasks;
+   for(int i=0;i<bands;i++)
+      tasks.push_back(&bandTasks[i]);
+   sikuli::ThreadPool::getInstance().run(tasks);
+
+   for(int i=0;i<bands;i++){
+      if(bandTasks[i].failed){
+         matchTemplate(source, target, result, method);
+         return;
+      }
+   }
+}
+
+
+// findAll() refines this many more candidates of a lower pyramid level
+// than it returns, as their scores change at full resolution
+#define FIND_ALL_LOOKAHEAD 5
+
+// at most this share of the windows may be left after pruning, or the
+// dense matching is cheaper
+#define PRUNE_MAX_CANDIDATES 0.02
+// every PRUNE_SAMPLE_STEP-th row is tried first to see if pruning pays
+#define PRUNE_SAMPLE_STEP 8
+// slack for rounding in the bounds
+#define PRUNE_EPSILON 1e-4
+
+
+// Upper bounds of the CV_TM_CCOEFF_NORMED score of the target at each
+// window of a source, from sums over the source only (the bound of the
+// "zero-mean enhanced bounded correlation"). The target is split into a
+// grid of blocks; in each block the part of the correlation due to the
+// block means is exact and the rest is bounded by Cauchy-Schwarz, using
+// the sum and the sum of squares of the window block. With integral
+// images, this costs a few lookups per grid corner and window.
+class CorrelationBound {
+public:
+   CorrelationBound(const Mat& target, int grid){
+      cn = target.channels();
+      int gx = min(grid, target.cols), gy = min(grid, target.rows);
+      for(int i=0;i<=gx;i++)
+         xs.push_back(target.cols * i / gx);
+      for(int j=0;j<=gy;j++)
+         ys.push_back(target.rows * j / gy);
+      n = target.cols * target.rows;
+
+      Scalar mean_t, stddev_t;
+      meanStdDev(target, mean_t, stddev_t);
+      target_norm = 0;
+      for(int c=0;c<cn;c++)
+         target_norm += stddev_t[c] * stddev_t[c] * n;
+      target_norm = sqrt(target_norm);
+
+      for(int j=0;j<gy;j++){
+         for(int i=0;i<gx;i++){
+            Mat block = target(Range(ys[j], ys[j+1]), Range(xs[i], xs[i+1]));
+            Scalar mean_b, stddev_b;
+            meanStdDev(block, mean_b, stddev_b);
+            double n_b = block.rows * block.cols;
+            block_n.push_back(n_b);
+            for(int c=0;c<cn;c++){
+               block_offset.push_back(mean_b[c] - mean_t[c]);
+               block_norm.push_back(stddev_b[c] * sqrt(n_b));
+            }
+         }
+      }
+      corner_sum.resize(xs.size() * ys.size() * cn);
+      corner_sqsum.resize(corner_sum.size());
+   }
+
+   bool isUseful() const{
+      return target_norm > 1e-5 && (xs.size() > 2 || ys.size() > 2);
+   }
+
+   // sum and sqsum are the CV_64F integral images of the source
+   double operator()(const Mat& sum, const Mat& sqsum, int x, int y){
+      int nx = xs.size(), ny = ys.size();
+      for(int j=0;j<ny;j++){
+         const double* s = sum.ptr<double>(y + ys[j]);
+         const double* q = sqsum.ptr<double>(y + ys[j]);
+         for(int i=0;i<nx;i++){
+            int k = (j*nx + i) * cn;
+            int o = (x + xs[i]) * cn;
+            for(int c=0;c<cn;c++){
+               corner_sum[k+c] = s[o+c];
+               corner_sqsum[k+c] = q[o+c];
+            }
+         }
+      }
+
+      double window_norm2 = 0;
+      double window_mean[4];
+      for(int c=0;c<cn;c++){
+         double total = box(corner_sum, 0, 0, nx-1, ny-1, c);
+         double total_sq = box(corner_sqsum, 0, 0, nx-1, ny-1, c);
+         window_mean[c] = total / n;
+         window_norm2 += total_sq - total * window_mean[c];
+      }
+      if(window_norm2 <= 0)
+         return 0;   // a plain window scores 0
+
+      double bound = 0;
+      int b = 0;
+      for(int j=0;j+1<ny;j++){
+         for(int i=0;i+1<nx;i++,b++){
+            double n_b = block_n[b];
+            for(int c=0;c<cn;c++){
+               double block_sum = box(corner_sum, i, j, i+1, j+1, c);
+               double block_sq = box(corner_sqsum, i, j, i+1, j+1, c);
+               double dev2 = block_sq - block_sum * block_sum / n_b;
+               bound += (block_sum - n_b * window_mean[c]) * block_offset[b*cn+c];
+               if(dev2 > 0)
+                  bound += sqrt(dev2) * block_norm[b*cn+c];
+            }
+         }
+      }
+      return bound / (sqrt(window_norm2) * target_norm);
+   }
+
+private:
+
+   inline double box(const vector<double>& corners, int i0, int j0, int i1, int j1, int c) const{
+      int nx = xs.size();
+      return corners[(j1*nx+i1)*cn+c] - corners[(j1*nx+i0)*cn+c]
+           - corners[(j0*nx+i1)*cn+c] + corners[(j0*nx+i0)*cn+c];
+   }
+
+   int cn;
+   double n, target_norm;
+   vector<int> xs, ys;
+   vector<double> block_n, block_offset, block_norm;
+   vector<double> corner_sum, corner_sqsum;
+};
+
+// Same as matchTemplate with CV_TM_CCOEFF_NORMED for the windows that can
+// score at least min_score: those that pass a coarse and then a finer
+// CorrelationBound are matched, the others are left at 0. Returns false
+// without a result when too many windows pass for this to pay off.
+static bool
+matchTemplatePruned(const Mat& source, const Mat& target, Mat& result, double min_score){
+   TimingBlock t("matchTemplatePruned");
+   if(source.depth() != CV_8U || source.channels() > 4)
+      return false;
+   CorrelationBound coarse(target, 2), fine(target, 4);
+   if(!coarse.isUseful())
+      return false;
+
+   int rows = source.rows - target.rows + 1;
+   int cols = source.cols - target.cols + 1;
+   size_t max_candidates = (size_t)(PRUNE_MAX_CANDIDATES * rows * cols);
+   double threshold = min_score - PRUNE_EPSILON;
+
+   Mat sum, sqsum;
+   integral(source, sum, sqsum, CV_64F);
+
+   // give up early on sources where many windows pass
+   size_t sampled = 0, passed = 0;
+   for(int y=0;y<rows;y+=PRUNE_SAMPLE_STEP){
+      for(int x=0;x<cols;x++){
+         if(coarse(sum, sqsum, x, y) >= threshold && fine(sum, sqsum, x, y) >= threshold)
+            passed++;
+      }
+      sampled += cols;
+   }
+   if(passed > PRUNE_MAX_CANDIDATES * sampled)
+      return false;
+
+   vector<Point> candidates;
+   for(int y=0;y<rows;y++){
+      for(int x=0;x<cols;x++){
+         // the coarse bound is cheaper and rules out most windows
+         if(coarse(sum, sqsum, x, y) >= threshold && fine(sum, sqsum, x, y) >= threshold){
+            candidates.push_back(Point(x, y));
+            if(candidates.size() > max_candidates)
+               return false;
+         }
+      }
+   }
+
+   result.create(rows, cols, CV_32F);
+   result = Scalar(0);
+   // the candidates are in reading order; neighbors in a row are matched
+   // together
+   for(size_t i=0;i<candidates.size();){
+      size_t j = i+1;
+      while(j < candidates.size() && candidates[j].y == candidates[i].y &&
+            candidates[j].x == candidates[j-1].x + 1)
+         j++;
+      int x0 = candidates[i].x, y0 = candidates[i].y;
+      int run = j - i;
+      Mat part = source(Rect(x0, y0, run + target.cols - 1, target.rows));
+      Mat part_result;
+      matchTemplate(part, target, part_result, CV_TM_CCOEFF_NORMED);
+      Mat dest = result(Rect(x0, y0, run, 1));
+      part_result.copyTo(dest);
+      i = j;
+   }
+   dout << "pruned to " << candidates.size() << " of " << rows*cols << " windows" << endl;
+   return true;
+}
+
+
+struct Candidate {
+   float score;
+   int x, y;
+};
+
+static bool
+by_score(const Candidate& a, const Candidate& b){
+   if(a.score != b.score)
+      return a.score > b.score;
+   return a.y < b.y || (a.y == b.y && a.x < b.x);
+}
+
+static bool
+by_match_score(const FindResult& a, const FindResult& b){
+   return a.score > b.score;
+}
+
+// The local maxima of a result map that score at least min_score, best
+// first, leaving out any closer than (xmargin, ymargin) to a better one
+// already taken. These are the matches that taking the best score and
+// erasing around it again and again would return, found in one scan of
+// the map (except that a point below a neighbor is never returned).
+static vector<FindResult>
+suppressNonMaxima(const Mat& result, double min_score, int xmargin, int ymargin,
+                  int max_count, int w, int h){
+   TimingBlock t("suppressNonMaxima");
+   vector<Candidate> candidates;
+   for(int y=0;y<result.rows;y++){
+      const float* row = result.ptr<float>(y);
+      const float* above = y > 0? result.ptr<float>(y-1) : NULL;
+      const float* below = y+1 < result.rows? result.ptr<float>(y+1) : NULL;
+      for(int x=0;x<result.cols;x++){
+         float v = row[x];
+         if(v < min_score)
+            continue;
+         int x0 = max(x-1, 0), x1 = min(x+1, result.cols-1);
+         bool is_max = true;
+         for(int i=x0;i<=x1 && is_max;i++){
+            if((above && above[i] > v) || (below && below[i] > v) || row[i] > v)
+               is_max = false;
+         }
+         if(is_max){
+            Candidate c = {v, x, y};
+            candidates.push_back(c);
+         }
+      }
+   }
+   sort(candidates.begin(), candidates.end(), by_score);
+
+   vector<FindResult> matches;
+   for(size_t i=0;i<candidates.size() && (int)matches.size()<max_count;i++){
+      const Candidate& c = candidates[i];
+      bool suppressed = false;
+      for(size_t j=0;j<matches.size() && !suppressed;j++){
+         suppressed = abs(c.x - matches[j].x) < xmargin &&
+                      abs(c.y - matches[j].y) < ymargin;
+      }
+      if(!suppressed)
+         matches.push_back(FindResult(c.x, c.y, w, h, c.score));
+   }
+   return matches;
+}
+
+
+SourceData::SourceData(const Mat& source_) : source(source_){
+}
+
+const Mat& SourceData::getGray(){
+   sikuli::ScopedLock lock(mutex);
+   if(source_gray.empty())
+      cvtColor(source, source_gray, CV_RGB2GRAY);
+   return source_gray;
+}
+
+Ptr<SourceData> SourceData::getSmaller(float factor){
+   sikuli::ScopedLock lock(mutex);
+   map<float, Ptr<SourceData> >::iterator it = smaller.find(factor);
+   if(it != smaller.end())
+      return it->second;
+
+   Mat small_source;
+#if USE_PYRDOWN
+   pyrDown(source, small_source);
+#endif
+#if USE_RESIZE
+   cv::resize(source, small_source, Size(source.cols/factor, source.rows/factor),INTER_NEAREST);
+#endif
+   Ptr<SourceData> small_data(new SourceData(small_source));
+   smaller[factor] = small_data;
+   return small_data;
+}
+
 
 void PyramidTemplateMatcher::init() {
    _use_gpu = false;
@@ -87,15 +437,20 @@ double PyramidTemplateMatcher::findBest(const MatchingData& data, Rect* roi, Mat
             Mat inv_source, inv_target;
             bitwise_not(source, inv_source);
             bitwise_not(data.getOrigTarget(), inv_target);
-            matchTemplate(inv_source, inv_target, out_result, CV_TM_SQDIFF_NORMED);   
+            matchTemplateInBands(inv_source, inv_target, out_result, CV_TM_SQDIFF_NORMED);   
          } 
          else{
-            matchTemplate(source, data.getOrigTarget(), out_result, CV_TM_SQDIFF_NORMED);   
+            matchTemplateInBands(source, data.getOrigTarget(), out_result, CV_TM_SQDIFF_NORMED);   
          }
          result = Mat::ones(out_result.size(), CV_32F) - result;
       }
       else{
-         matchTemplate(source, target, out_result, CV_TM_CCOEFF_NORMED);
+         // only the full search is pruned; the areas around the matches
+         // of a lower pyramid level are small
+         bool pruned = roi == NULL && data.min_score > 0 &&
+            matchTemplatePruned(source, target, out_result, data.min_score);
+         if(!pruned)
+            matchTemplateInBands(source, target, out_result, CV_TM_CCOEFF_NORMED);
       }
       minMaxLoc(result, NULL, &out_score, NULL, &out_location);
       return out_score;
@@ -160,9 +515,48 @@ FindResult PyramidTemplateMatcher::next(){
    return FindResult(detectionLoc.x,detectionLoc.y,target.cols,target.rows,detectionScore);
 }
 
+vector<FindResult> PyramidTemplateMatcher::findAll(double min_score, int max_count){
+   TimingBlock tb("PyramidTemplateMatcher::findAll");
+   vector<FindResult> matches;
+   if (data.isSourceSmallerThanTarget() || max_count <= 0)
+      return matches;
+
+   if (lowerPyramid != NULL){
+      // scores change at full resolution, so the best candidates of the
+      // lower level are all refined before keeping the good ones
+      vector<FindResult> candidates = lowerPyramid->findAll(-1, max_count + FIND_ALL_LOOKAHEAD);
+      for(size_t i=0;i<candidates.size();i++){
+         FindResult match = refine(candidates[i]);
+         if (match.score >= min_score)
+            matches.push_back(match);
+      }
+      sort(matches.begin(), matches.end(), by_match_score);
+      if ((int)matches.size() > max_count)
+         matches.resize(max_count);
+      return matches;
+   }
+
+   if(!_hasMatchedResult){
+      Point loc;
+      findBest(data, NULL, result, loc);
+      _hasMatchedResult = true;
+   }
+#ifdef ENABLE_GPU
+   if(_use_gpu)
+      gResult.download(result);
+#endif
+
+   const Mat& target = data.getTarget();
+   return suppressNonMaxima(result, min_score, target.cols/3, target.rows/3,
+                            max_count, target.cols, target.rows);
+}
+
 FindResult PyramidTemplateMatcher::nextFromLowerPyramid(){
-   FindResult match = lowerPyramid->next();
+   return refine(lowerPyramid->next());
+}
 
+// the best match at full resolution around a match of the lower level
+FindResult PyramidTemplateMatcher::refine(const FindResult& match){
    int x = match.x*factor;
    int y = match.y*factor;
 
@@ -12,6 +12,7 @@
 
 #include "opencv.hpp"
 #include "find-result.h"
+#include "template-cache.h"
 #include "vision.h"
 #ifdef ENABLE_GPU
 #include <opencv2/gpu/gpu.hpp>
@@ -21,25 +22,88 @@
 #define USE_RESIZE 1
 #define USE_PYRDOWN 0
 
+// threads used to match large sources (0: one per core)
+#define DEFAULT_MATCH_THREADS 1
+
 using namespace cv;
 using namespace std;
 
+// The source-side counterpart of TemplateData: the gray version and the
+// downsampled copies of one source image, built on demand and shared by
+// every target searched in that image.
+struct SourceData {
+   Mat source;
+
+   SourceData(const Mat& source);
+
+   const Mat& getGray();
+   Ptr<SourceData> getSmaller(float factor);
+
+private:
+   SourceData(const SourceData&);
+   SourceData& operator=(const SourceData&);
+
+   Mat source_gray;
+   map<float, Ptr<SourceData> > smaller;
+   sikuli::Mutex mutex;
+};
+
 
 struct MatchingData {
    Mat source, target;
    Mat source_gray, target_gray;
    Scalar mean, stddev;
    bool use_gray;
+   // scores below this are of no interest to the caller, so the matcher
+   // may skip the windows that cannot reach it (0 to score every window)
+   double min_score;
+   // preprocessed target shared through the TemplateCache (may be empty)
+   Ptr<TemplateData> cached_target;
+   // preprocessed source shared by several targets (may be empty)
+   Ptr<SourceData> cached_source;
 
    inline MatchingData(){
+      use_gray = false;
+      min_score = 0;
    }
 
    inline MatchingData(const Mat& source_, const Mat& target_) : source(source_), target(target_){
       use_gray = false;
+      min_score = 0;
       meanStdDev( target, mean, stddev );
    }
 
+   inline MatchingData(const Mat& source_, const Ptr<TemplateData>& target_) 
+   : source(source_), target(target_->target), target_gray(target_->target_gray),
+     mean(target_->mean), stddev(target_->stddev), cached_target(target_){
+      use_gray = false;
+      min_score = 0;
+   }
+
+   inline MatchingData(const Ptr<SourceData>& source_, const Ptr<TemplateData>& target_) 
+   : source(source_->source), target(target_->target), target_gray(target_->target_gray),
+     mean(target_->mean), stddev(target_->stddev), cached_target(target_),
+     cached_source(source_){
+      use_gray = false;
+      min_score = 0;
+   }
+
    inline MatchingData createSmallData(float factor){
+      if(!cached_source.empty() && !cached_target.empty()){
+         MatchingData newData(cached_source->getSmaller(factor),
+                              TemplateCache::getSmaller(cached_target, factor));
+         if(use_gray)
+            newData.useGray(true);
+         return newData;
+      }
+      if(!cached_target.empty()){
+         Mat new_source;
+         resize(source, new_source, factor);
+         MatchingData newData(new_source, TemplateCache::getSmaller(cached_target, factor));
+         if(use_gray)
+            newData.useGray(true);
+         return newData;
+      }
       Mat new_source, new_target;
       resize(source, target, new_source, new_target, factor);
       MatchingData newData(new_source, new_target);
@@ -49,14 +113,22 @@ struct MatchingData {
    }
 
    inline void resize(const Mat& source, const Mat& target, Mat& out_source, Mat& out_target, float factor){
+      resize(source, out_source, factor);
+#if USE_PYRDOWN
+      pyrDown(target, out_target);
+#endif
+#if USE_RESIZE
+      cv::resize(target, out_target, Size(target.cols/factor, target.rows/factor),INTER_NEAREST);      
+#endif
+   }
+
+   inline void resize(const Mat& source, Mat& out_source, float factor){
 #if USE_PYRDOWN
       // Faster
       pyrDown(source, out_source);
-      pyrDown(target, out_target);
 #endif
 #if USE_RESIZE
       cv::resize(source, out_source, Size(source.cols/factor, source.rows/factor),INTER_NEAREST);
-      cv::resize(target, out_target, Size(target.cols/factor, target.rows/factor),INTER_NEAREST);      
 #endif
    }
 
@@ -95,8 +167,12 @@ struct MatchingData {
    inline bool useGray(bool flag){
       use_gray = flag;
       if(use_gray){
-         cvtColor(source, source_gray, CV_RGB2GRAY);
-         cvtColor(target, target_gray, CV_RGB2GRAY);
+         if(!cached_source.empty())
+            source_gray = cached_source->getGray();
+         else
+            cvtColor(source, source_gray, CV_RGB2GRAY);
+         if(cached_target.empty())
+            cvtColor(target, target_gray, CV_RGB2GRAY);
       }
       return flag;
    }
@@ -115,17 +191,23 @@ private:
    void init();
 public:
 
-   PyramidTemplateMatcher(){
+   PyramidTemplateMatcher() : lowerPyramid(NULL){
       init();
    }
    PyramidTemplateMatcher(const MatchingData& data, int levels, float factor);
-   ~PyramidTemplateMatcher();
+   virtual ~PyramidTemplateMatcher();
 
    virtual FindResult next();
 
+   // all the matches scoring at least min_score, best first, at most
+   // max_count of them. Unlike calling next() again and again, this scans
+   // the result map only once.
+   virtual vector<FindResult> findAll(double min_score, int max_count);
+
 protected:
 
    PyramidTemplateMatcher* createSmallMatcher(int level);
+   FindResult refine(const FindResult& lower_match);
    double findBest(const MatchingData& data, Rect* roi, Mat& out_result, Point& out_location);
    void eraseResult(int x, int y, int xmargin, int ymargin);
    FindResult nextFromLowerPyramid();
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2010-2011, Sikuli.org
+ * Released under the MIT License.
+ *
+ */
+#ifndef _SIKULI_THREAD_H_
+#define _SIKULI_THREAD_H_
+
+#if defined(_WIN32) || defined(_WIN64)
+#include <windows.h>
+#else
+#include <pthread.h>
+#endif
+
+namespace sikuli {
+
+class Mutex {
+public:
+   inline Mutex(){
+#if defined(_WIN32) || defined(_WIN64)
+      InitializeCriticalSection(&_cs);
+#else
+      pthread_mutex_init(&_mutex, NULL);
+#endif
+   }
+
+   inline ~Mutex(){
+#if defined(_WIN32) || defined(_WIN64)
+      DeleteCriticalSection(&_cs);
+#else
+      pthread_mutex_destroy(&_mutex);
+#endif
+   }
+
+   inline void lock(){
+#if defined(_WIN32) || defined(_WIN64)
+      EnterCriticalSection(&_cs);
+#else
+      pthread_mutex_lock(&_mutex);
+#endif
+   }
+
+   inline void unlock(){
+#if defined(_WIN32) || defined(_WIN64)
+      LeaveCriticalSection(&_cs);
+#else
+      pthread_mutex_unlock(&_mutex);
+#endif
+   }
+
+private:
+   friend class Condition;
+
+   Mutex(const Mutex&);
+   Mutex& operator=(const Mutex&);
+
+#if defined(_WIN32) || defined(_WIN64)
+   CRITICAL_SECTION _cs;
+#else
+   pthread_mutex_t _mutex;
+#endif
+};
+
+class Condition {
+public:
+   inline Condition(){
+#if defined(_WIN32) || defined(_WIN64)
+      InitializeConditionVariable(&_cv);
+#else
+      pthread_cond_init(&_cv, NULL);
+#endif
+   }
+
+   inline ~Condition(){
+#if !defined(_WIN32) && !defined(_WIN64)
+      pthread_cond_destroy(&_cv);
+#endif
+   }
+
+   // the mutex must be locked by the caller
+   inline void wait(Mutex& m){
+#if defined(_WIN32) || defined(_WIN64)
+      SleepConditionVariableCS(&_cv, &m._cs, INFINITE);
+#else
+      pthread_cond_wait(&_cv, &m._mutex);
+#endif
+   }
+
+   inline void broadcast(){
+#if defined(_WIN32) || defined(_WIN64)
+      WakeAllConditionVariable(&_cv);
+#else
+      pthread_cond_broadcast(&_cv);
+#endif
+   }
+
+private:
+   Condition(const Condition&);
+   Condition& operator=(const Condition&);
+
+#if defined(_WIN32) || defined(_WIN64)
+   CONDITION_VARIABLE _cv;
+#else
+   pthread_cond_t _cv;
+#endif
+};
+
+// locks the mutex for the lifetime of the block
+class ScopedLock {
+public:
+   inline ScopedLock(Mutex& m) : _m(m){ _m.lock(); }
+   inline ~ScopedLock(){ _m.unlock(); }
+private:
+   Mutex& _m;
+};
+
+}
+
+#endif // _SIKULI_THREAD_H_
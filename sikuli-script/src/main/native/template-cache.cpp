@@ -0,0 +1,225 @@
+/*
+ * Copyright 2010-2011, Sikuli.org
+ * Released under the MIT License.
+ *
+ */
+#include <sys/stat.h>
+#include <sstream>
+
+#include "template-cache.h"
+#include "TimingBlock.h"
+#include "vision.h"
+
+using namespace sikuli;
+using namespace std;
+
+Mutex TemplateCache::_mutex;
+map<string, TemplateCache::Entry> TemplateCache::_entries;
+map<string, TemplateCache::FileEntry> TemplateCache::_files;
+list<string> TemplateCache::_lru;
+size_t TemplateCache::_bytes = 0;
+long long TemplateCache::_hits = 0;
+long long TemplateCache::_misses = 0;
+
+
+TemplateData::TemplateData(const Mat& target_)
+: target(target_){
+   meanStdDev(target, mean, stddev);
+   cvtColor(target, target_gray, CV_RGB2GRAY);
+}
+
+size_t
+TemplateData::byteSize() const{
+   size_t n = target.total() * target.elemSize() +
+              target_gray.total() * target_gray.elemSize();
+   for(map<float, Ptr<TemplateData> >::const_iterator it = smaller.begin();
+       it != smaller.end(); ++it){
+      n += it->second->byteSize();
+   }
+   return n;
+}
+
+//=======================================================================================
+
+string
+TemplateCache::contentKey(const Mat& image){
+   // 64-bit FNV-1a over the pixel rows
+   unsigned long long h = 14695981039346656037ULL;
+   size_t row_bytes = image.cols * image.elemSize();
+   for(int i=0;i<image.rows;i++){
+      const uchar* p = image.ptr<uchar>(i);
+      for(size_t j=0;j<row_bytes;j++){
+         h ^= p[j];
+         h *= 1099511628211ULL;
+      }
+   }
+   stringstream ss;
+   ss << image.cols << "x" << image.rows << ":" << image.type() << ":"
+      << hex << h;
+   return ss.str();
+}
+
+size_t
+TemplateCache::capacity(){
+   float size_mb = Vision::getParameter("TemplateCacheSize");
+   if(size_mb <= 0)
+      return 0;
+   return (size_t)(size_mb * 1024 * 1024);
+}
+
+void
+TemplateCache::evict(size_t capacity){
+   while(_bytes > capacity && !_lru.empty()){
+      string key = _lru.back();
+      map<string, Entry>::iterator it = _entries.find(key);
+      _bytes -= it->second.bytes;
+      _entries.erase(it);
+      _lru.pop_back();
+
+      // the files read into the evicted entry
+      for(map<string, FileEntry>::iterator f = _files.begin(); f != _files.end();){
+         if(f->second.key == key)
+            _files.erase(f++);
+         else
+            ++f;
+      }
+   }
+}
+
+Ptr<TemplateData>
+TemplateCache::get(const Mat& target){
+   TimingBlock tb("TemplateCache::get");
+   size_t capacity = TemplateCache::capacity();
+   if(capacity == 0){
+      ScopedLock lock(_mutex);
+      _misses++;
+      return Ptr<TemplateData>(new TemplateData(target.clone()));
+   }
+
+   string key = contentKey(target);
+   {
+      ScopedLock lock(_mutex);
+      map<string, Entry>::iterator it = _entries.find(key);
+      if(it != _entries.end()){
+         _hits++;
+         _lru.splice(_lru.begin(), _lru, it->second.lru);
+         return it->second.data;
+      }
+      _misses++;
+   }
+
+   // the caller may release or reuse its buffer, so keep our own copy
+   Ptr<TemplateData> data(new TemplateData(target.clone()));
+
+   ScopedLock lock(_mutex);
+   map<string, Entry>::iterator it = _entries.find(key);
+   if(it != _entries.end()) // added by another thread in the meantime
+      return it->second.data;
+
+   _lru.push_front(key);
+   Entry& entry = _entries[key];
+   entry.data = data;
+   entry.lru = _lru.begin();
+   entry.bytes = data->byteSize();
+   data->key = key;
+   _bytes += entry.bytes;
+   evict(capacity);
+   return data;
+}
+
+Ptr<TemplateData>
+TemplateCache::getSmaller(const Ptr<TemplateData>& data, float factor){
+   {
+      ScopedLock lock(_mutex);
+      map<float, Ptr<TemplateData> >::iterator it = data->smaller.find(factor);
+      if(it != data->smaller.end())
+         return it->second;
+   }
+
+   // built without the lock, so other finders aren't held up
+   Mat small_target;
+   cv::resize(data->target, small_target,
+              Size(data->target.cols/factor, data->target.rows/factor),INTER_NEAREST);
+   Ptr<TemplateData> small_data(new TemplateData(small_target));
+   small_data->key = data->key;
+
+   size_t capacity = TemplateCache::capacity();
+   ScopedLock lock(_mutex);
+   map<float, Ptr<TemplateData> >::iterator it = data->smaller.find(factor);
+   if(it != data->smaller.end()) // built by another thread in the meantime
+      return it->second;
+   data->smaller[factor] = small_data;
+
+   // charge the new level to the cache entry it belongs to (if still cached)
+   map<string, Entry>::iterator e = _entries.find(data->key);
+   if(e != _entries.end()){
+      size_t n = small_data->byteSize();
+      e->second.bytes += n;
+      _bytes += n;
+      evict(capacity);
+   }
+   return small_data;
+}
+
+Mat
+TemplateCache::load(const char* filename){
+   struct stat st;
+   if(stat(filename, &st))
+      return Mat();
+
+   stringstream ss;
+   ss << st.st_mtime << ":" << st.st_size;
+   string version = ss.str();
+   {
+      ScopedLock lock(_mutex);
+      map<string, FileEntry>::iterator f = _files.find(filename);
+      if(f != _files.end()){
+         if(f->second.version == version){
+            map<string, Entry>::iterator it = _entries.find(f->second.key);
+            if(it != _entries.end())
+               return it->second.data->target;
+         }
+         _files.erase(f);
+      }
+   }
+
+   Mat image = imread(filename, 1);
+   if(image.data == NULL)
+      return image;
+
+   // one entry per file, replaced when the file changes
+   FileEntry file;
+   file.version = version;
+   file.key = contentKey(image);
+   ScopedLock lock(_mutex);
+   _files[filename] = file;
+   return image;
+}
+
+void
+TemplateCache::clear(){
+   ScopedLock lock(_mutex);
+   _entries.clear();
+   _files.clear();
+   _lru.clear();
+   _bytes = 0;
+   _hits = _misses = 0;
+}
+
+long long
+TemplateCache::getHits(){
+   ScopedLock lock(_mutex);
+   return _hits;
+}
+
+long long
+TemplateCache::getMisses(){
+   ScopedLock lock(_mutex);
+   return _misses;
+}
+
+long long
+TemplateCache::getBytes(){
+   ScopedLock lock(_mutex);
+   return _bytes;
+}
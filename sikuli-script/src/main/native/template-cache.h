@@ -0,0 +1,86 @@
+/*
+ * Copyright 2010-2011, Sikuli.org
+ * Released under the MIT License.
+ *
+ */
+#ifndef _TEMPLATE_CACHE_H_
+#define _TEMPLATE_CACHE_H_
+
+#include <map>
+#include <list>
+#include <string>
+
+#include "opencv.hpp"
+#include "sikuli-thread.h"
+
+// in megabytes
+#define DEFAULT_TEMPLATE_CACHE_SIZE 64
+
+using namespace cv;
+
+// Everything the matcher derives from a target image: the color and gray
+// versions, their statistics, and the downsampled copies used by the
+// pyramid levels (built on demand and kept with the full-size target).
+struct TemplateData {
+   Mat target, target_gray;
+   Scalar mean, stddev;
+
+   TemplateData(const Mat& target);
+
+   size_t byteSize() const;
+
+private:
+   friend class TemplateCache;
+
+   std::map<float, Ptr<TemplateData> > smaller;
+   std::string key;
+};
+
+// Process-wide LRU cache of preprocessed targets. Entries are keyed by
+// image content, so the same pattern is only preprocessed once no matter
+// how it reaches the finder. The byte budget is read from the
+// "TemplateCacheSize" vision parameter (in MB, 0 disables caching).
+class TemplateCache {
+
+public:
+
+   static Ptr<TemplateData> get(const Mat& target);
+   static Ptr<TemplateData> getSmaller(const Ptr<TemplateData>& data, float factor);
+
+   // reads an image file, reusing the decoded image as long as the
+   // file has not been modified since it was last read
+   static Mat load(const char* filename);
+
+   static void clear();
+
+   static long long getHits();
+   static long long getMisses();
+   static long long getBytes();
+
+private:
+
+   struct Entry {
+      Ptr<TemplateData> data;
+      std::list<std::string>::iterator lru;
+      size_t bytes;
+   };
+
+   // the content key of a file, as of its modification time and size
+   struct FileEntry {
+      std::string version;
+      std::string key;
+   };
+
+   static std::string contentKey(const Mat& image);
+   static size_t capacity();
+   static void evict(size_t capacity);
+
+   static sikuli::Mutex _mutex;
+   static std::map<std::string, Entry> _entries;
+   static std::map<std::string, FileEntry> _files;
+   static std::list<std::string> _lru;
+   static size_t _bytes;
+   static long long _hits, _misses;
+};
+
+#endif // _TEMPLATE_CACHE_H_
@@ -7,9 +7,14 @@
 #include <fstream>
 #include <sstream>
 #include <string>
+#include <map>
+#include <list>
 #include <stdlib.h>
 #include "tessocr.h"
 #include "sikuli-debug.h"
+#include "sikuli-thread.h"
+#include "thread-pool.h"
+#include "TimingBlock.h"
 
 using namespace std;
 using namespace sikuli;
@@ -20,12 +25,19 @@ using namespace sikuli;
    #include "tesseract/baseapi.h"
 #endif
 
+// The Tesseract 2 API keeps its state in statics, so there is a single
+// engine per process. Calls into it are serialized, and what is done
+// around them (preparing the blob images, reading the results) runs in
+// parallel on the thread pool.
+static sikuli::Mutex tesseract_mutex;
+
 #define COMPUTE_IMAGE_XDIM(xsize,bpp) ((bpp)>8 ? ((xsize)*(bpp)+7)/8 :((xsize)+8/(bpp)-1)/(8/(bpp)))
 static char* mytesseract(const unsigned char* imagedata,
                          int width, int height, int bpp){
    
    int bytes_per_pixel = bpp / 8;        
    int bytes_per_line = COMPUTE_IMAGE_XDIM(width,bpp);
+   sikuli::ScopedLock lock(tesseract_mutex);
    char* text = TessBaseAPI::TesseractRectBoxes(imagedata,
                                                 bytes_per_pixel,
                                                 bytes_per_line, 0, 0,
@@ -40,6 +52,7 @@ static char* mytesseract_str(const unsigned char* imagedata,
 
    int bytes_per_pixel = bpp / 8;
    int bytes_per_line = COMPUTE_IMAGE_XDIM(width,bpp);
+   sikuli::ScopedLock lock(tesseract_mutex);
    char* text = TessBaseAPI::TesseractRect(imagedata,
                                                 bytes_per_pixel,
                                                 bytes_per_line, 0, 0,
@@ -369,6 +382,7 @@ OCR::init(){
 
 void
 OCR::init(const char* datapath){
+   sikuli::ScopedLock lock(tesseract_mutex);
    if (isInitialized)
       return;
    
@@ -534,8 +548,219 @@ vector<OCRChar> run_ocr(const Mat& screen, const Blob& blob){
 }
 
 
+class RunOCRTask : public sikuli::Task {
+public:
+   RunOCRTask(const Mat& screen_, const Blob& blob_) : screen(screen_), blob(blob_){}
+
+   void run(){
+      ocr_chars = run_ocr(screen, blob);
+   }
+
+   Mat screen;
+   Blob blob;
+   vector<OCRChar> ocr_chars;
+};
+
+// run_ocr on each of the blobs, spread over the thread pool
+static vector<vector<OCRChar> >
+run_ocr(const Mat& screen, const vector<Blob>& blobs){
+   vector<RunOCRTask> ocrTasks;
+   ocrTasks.reserve(blobs.size());
+   for (size_t i=0; i<blobs.size(); ++i)
+      ocrTasks.push_back(RunOCRTask(screen, blobs[i]));
+   vector<sikuli::Task*> tasks;
+   for (size_t i=0; i<ocrTasks.size(); ++i)
+      tasks.push_back(&ocrTasks[i]);
+   sikuli::ThreadPool::getInstance().run(tasks);
+
+   vector<vector<OCRChar> > ret;
+   ret.reserve(blobs.size());
+   for (size_t i=0; i<ocrTasks.size(); ++i)
+      ret.push_back(ocrTasks[i].ocr_chars);
+   return ret;
+}
+
+
+// What OCR found in a screen: its line blobs, what was read in each blob
+// (by blob rectangle) and its recognized text, each built the first time
+// it is needed. Text finds look at the same blobs in several rounds and
+// for each word of a phrase, but each blob is only read once.
+//
+// The indexes of the last few screens are kept, by pixel digest, so that
+// finding several texts in the same dialog, or reading its text, reuses
+// what was found for the earlier calls until the screen changes.
+class ScreenTextIndex {
+public:
+
+   // the index of the screen, out of the kept ones if it has not changed.
+   // Call release() when done, which keeps it for the next calls.
+   static Ptr<ScreenTextIndex> get(const Mat& screen);
+   static void release(const Ptr<ScreenTextIndex>& index);
+
+   // an index that release() does not keep, for a screen that will not
+   // be seen again
+   ScreenTextIndex(const Mat& screen);
+
+   const vector<LineBlob>& getLineBlobs();
+   const vector<OCRChar>& recognize(const Blob& blob);
+   bool isRecognized(const Blob& blob) const;
+   // reads the blobs not read yet, in parallel
+   void recognize(const vector<Blob>& blobs);
+   const OCRText& getText();
+
+private:
+
+   ScreenTextIndex(const Mat& screen, unsigned long long digest);
+
+   static unsigned long long digest(const Mat& image);
+
+   typedef pair<pair<int,int>, pair<int,int> > Key;
+
+   Mat screen, screen_gray;
+   unsigned long long screen_digest;
+   bool kept;
+
+   bool has_lineblobs;
+   vector<LineBlob> lineblobs;
+   map<Key, vector<OCRChar> > ocr_chars;
+   bool has_text;
+   OCRText text;
+
+   static sikuli::Mutex _mutex;
+   static list<Ptr<ScreenTextIndex> > _kept;
+};
+
+#define TEXT_INDEX_SCREENS 4
+
+sikuli::Mutex ScreenTextIndex::_mutex;
+list<Ptr<ScreenTextIndex> > ScreenTextIndex::_kept;
+
+ScreenTextIndex::ScreenTextIndex(const Mat& screen_, unsigned long long digest)
+: screen(screen_), screen_digest(digest), kept(true){
+   if (screen.channels() > 1)
+      cvtColor(screen, screen_gray, CV_RGB2GRAY);
+   else
+      screen_gray = screen;
+   has_lineblobs = false;
+   has_text = false;
+}
+
+ScreenTextIndex::ScreenTextIndex(const Mat& screen_)
+: screen(screen_), screen_digest(0), kept(false){
+   if (screen.channels() > 1)
+      cvtColor(screen, screen_gray, CV_RGB2GRAY);
+   else
+      screen_gray = screen;
+   has_lineblobs = false;
+   has_text = false;
+}
+
+unsigned long long
+ScreenTextIndex::digest(const Mat& image){
+   // 64-bit FNV-1a over the pixel rows
+   unsigned long long h = 14695981039346656037ULL;
+   size_t row_bytes = image.cols * image.elemSize();
+   for (int i=0;i<image.rows;i++){
+      const uchar* p = image.ptr<uchar>(i);
+      for (size_t j=0;j<row_bytes;j++){
+         h ^= p[j];
+         h *= 1099511628211ULL;
+      }
+   }
+   return h;
+}
+
+Ptr<ScreenTextIndex>
+ScreenTextIndex::get(const Mat& screen){
+   unsigned long long d = digest(screen);
+   {
+      // taken out while in use, so that concurrent calls do not share it
+      sikuli::ScopedLock lock(_mutex);
+      for (list<Ptr<ScreenTextIndex> >::iterator it = _kept.begin();
+           it != _kept.end(); ++it){
+         Ptr<ScreenTextIndex> index = *it;
+         if (index->screen_digest == d && index->screen.size() == screen.size() &&
+             index->screen.type() == screen.type()){
+            _kept.erase(it);
+            return index;
+         }
+      }
+   }
+   // our own copy, as the caller may reuse its buffer
+   return Ptr<ScreenTextIndex>(new ScreenTextIndex(screen.clone(), d));
+}
+
 void
-find_phrase_helper(const Mat& screen_gray, vector<string> words, vector<LineBlob> lineblobs,
+ScreenTextIndex::release(const Ptr<ScreenTextIndex>& index){
+   if (!index->kept)
+      return;
+   sikuli::ScopedLock lock(_mutex);
+   _kept.push_front(index);
+   while (_kept.size() > TEXT_INDEX_SCREENS)
+      _kept.pop_back();
+}
+
+const vector<LineBlob>&
+ScreenTextIndex::getLineBlobs(){
+   if (!has_lineblobs){
+      cvgui::getLineBlobsAsIndividualWords(screen, lineblobs);
+      has_lineblobs = true;
+   }
+   return lineblobs;
+}
+
+const vector<OCRChar>&
+ScreenTextIndex::recognize(const Blob& blob){
+   Key key(make_pair(blob.x, blob.y), make_pair(blob.width, blob.height));
+   map<Key, vector<OCRChar> >::iterator it = ocr_chars.find(key);
+   if (it == ocr_chars.end())
+      it = ocr_chars.insert(make_pair(key, run_ocr(screen_gray, blob))).first;
+   return it->second;
+}
+
+bool
+ScreenTextIndex::isRecognized(const Blob& blob) const{
+   Key key(make_pair(blob.x, blob.y), make_pair(blob.width, blob.height));
+   return ocr_chars.find(key) != ocr_chars.end();
+}
+
+void
+ScreenTextIndex::recognize(const vector<Blob>& blobs){
+   vector<Blob> todo;
+   for (vector<Blob>::const_iterator it = blobs.begin(); it != blobs.end(); ++it){
+      if (!isRecognized(*it))
+         todo.push_back(*it);
+   }
+   if (todo.size() < 2){
+      if (!todo.empty())
+         recognize(todo[0]);
+      return;
+   }
+   vector<vector<OCRChar> > read = run_ocr(screen_gray, todo);
+   for (size_t i=0; i<todo.size(); ++i){
+      const Blob& blob = todo[i];
+      Key key(make_pair(blob.x, blob.y), make_pair(blob.width, blob.height));
+      ocr_chars[key] = read[i];
+   }
+}
+
+// reads all the next blobs of the same length as the word (within the
+// tolerance) in one batch, starting at it. Only worth it when every match
+// is wanted: Tesseract reads one blob at a time anyway, so blobs read
+// ahead by a search that stops at the first match are wasted.
+static void
+read_ahead(ScreenTextIndex& index, vector<LineBlob>::iterator it, vector<LineBlob>::iterator end,
+           int length, int tolerance){
+   vector<Blob> blobs;
+   for (; it != end; ++it){
+      if (abs((int)it->blobs.size() - length) <= tolerance)
+         blobs.push_back(*it);
+   }
+   index.recognize(blobs);
+}
+
+void
+find_phrase_helper(ScreenTextIndex& index, vector<string> words, vector<LineBlob> lineblobs,
                    LineBlob resultblob, vector<FindResult>& results, bool is_find_one = true){
    
    string word = words[0];
@@ -568,7 +793,9 @@ find_phrase_helper(const Mat& screen_gray, vector<string> words, vector<LineBlob
             
             dhead("find_phrase") << lineblob.x << "," << lineblob.y << "," << lineblob.width << "," << lineblob.height << endl;
             
-            vector<OCRChar> ocr_chars = run_ocr(screen_gray, lineblob);         
+            if (!is_find_one && !index.isRecognized(lineblob))
+               read_ahead(index, it, lineblobs_thisround.end(), word.size(), tolerance);
+            vector<OCRChar> ocr_chars = index.recognize(lineblob);         
             dhead("find_phrase") << word << "<->";
             
             string ocrword = "";
@@ -644,7 +871,7 @@ find_phrase_helper(const Mat& screen_gray, vector<string> words, vector<LineBlob
                LineBlob next_resultblob = resultblob;
                next_resultblob.merge(lineblob);
                
-               find_phrase_helper(screen_gray, rest, nextblobs, next_resultblob, results, is_find_one);
+               find_phrase_helper(index, rest, nextblobs, next_resultblob, results, is_find_one);
             }
             
             
@@ -678,17 +905,16 @@ OCR::findEditDistance(const char *s1, const char *s2,
 
 vector<FindResult>
 OCR::find_phrase(const Mat& screen, vector<string> words, bool is_find_one){
+   TimingBlock tb("OCR::find_phrase");
    
-   vector<LineBlob> lineblobs;
-   cvgui::getLineBlobsAsIndividualWords(screen, lineblobs);
-   
-   Mat screen_gray;
-   cvtColor(screen,screen_gray,CV_RGB2GRAY);
+   Ptr<ScreenTextIndex> index = ScreenTextIndex::get(screen);
    
    vector<FindResult> results;
    
    LineBlob empty;
-   find_phrase_helper(screen_gray, words, lineblobs, empty, results, is_find_one);
+   find_phrase_helper(*index, words, index->getLineBlobs(), empty, results, is_find_one);
+   
+   ScreenTextIndex::release(index);
       
    return results;   
 }
@@ -767,19 +993,19 @@ linkOCRCharsToOCRLine(const vector<OCRChar>& ocrchars){
 }
 
 OCRLine
-recognize_line(const cv::Mat& screen_gray, const LineBlob& lineblob){
+recognize_line(ScreenTextIndex& index, const LineBlob& lineblob){
    
    Blob b(lineblob);
    //Util::growRect(b, 2, 2, screen_gray);
    
-   vector<OCRChar> ocrchars = run_ocr(screen_gray, b);
+   vector<OCRChar> ocrchars = index.recognize(b);
    OCRLine ocrline = linkOCRCharsToOCRLine(ocrchars);
    return ocrline;
 }
 
 
 OCRParagraph
-recognize_paragraph(const cv::Mat& screen_gray, const ParagraphBlob& parablob){
+recognize_paragraph(ScreenTextIndex& index, const ParagraphBlob& parablob){
    
    OCRParagraph ocrparagraph;
    
@@ -787,7 +1013,7 @@ recognize_paragraph(const cv::Mat& screen_gray, const ParagraphBlob& parablob){
         it != parablob.end(); ++it){
       
       const LineBlob& lineblob = *it;
-      OCRLine ocrline = recognize_line(screen_gray, lineblob);
+      OCRLine ocrline = recognize_line(index, lineblob);
       
       
       if (!ocrline.getWords().empty())
@@ -797,21 +1023,20 @@ recognize_paragraph(const cv::Mat& screen_gray, const ParagraphBlob& parablob){
    return ocrparagraph;
 }
 
-OCRText 
-OCR::recognize(cv::Mat screen){
-   
-   OCRText ocrtext;
-   
+const OCRText&
+ScreenTextIndex::getText(){
+   if (has_text)
+      return text;
    
    vector<ParagraphBlob> parablobs;
    cvgui::getParagraphBlobs(screen, parablobs);
-
-   Mat screen_gray;
-   if(screen.channels()>1)
-      cvtColor(screen,screen_gray,CV_RGB2GRAY);
-   else
-      screen_gray = screen;
    
+   // every line is read, so all of them are read in parallel first
+   vector<Blob> lines;
+   for (vector<ParagraphBlob>::iterator it = parablobs.begin(); 
+        it != parablobs.end(); ++it)
+      lines.insert(lines.end(), it->begin(), it->end());
+   recognize(lines);
    
    for (vector<ParagraphBlob>::iterator it = parablobs.begin(); 
         it != parablobs.end(); ++it){
@@ -819,20 +1044,62 @@ OCR::recognize(cv::Mat screen){
       ParagraphBlob& parablob = *it;
       
       OCRParagraph ocrpara;
-      ocrpara = recognize_paragraph(screen_gray, parablob);      
-      ocrtext.addParagraph(ocrpara);
+      ocrpara = recognize_paragraph(*this, parablob);      
+      text.addParagraph(ocrpara);
       
    }
    
    Mat dark = screen * 0.2;
-   Painter::drawOCRText(dark, ocrtext);
+   Painter::drawOCRText(dark, text);
    VLOG("OCR-result", dark);
    
+   has_text = true;
+   return text;
+}
+
+OCRText 
+OCR::recognize(cv::Mat screen){
+   TimingBlock tb("OCR::recognize");
+   
+   Ptr<ScreenTextIndex> index = ScreenTextIndex::get(screen);
+   OCRText ocrtext = index->getText();
+   ScreenTextIndex::release(index);
    
    return ocrtext; 
 }
 
+class RecognizeTask : public sikuli::Task {
+public:
+   RecognizeTask(const Mat& image_) : image(image_){}
 
+   void run(){
+      ScreenTextIndex index(image);
+      text = index.getText();
+   }
+
+   Mat image;
+   OCRText text;
+};
+
+vector<OCRText>
+OCR::recognize(const vector<Mat>& images){
+   TimingBlock tb("OCR::recognize (images)");
+   
+   vector<RecognizeTask> recognizeTasks;
+   recognizeTasks.reserve(images.size());
+   for (size_t i=0; i<images.size(); ++i)
+      recognizeTasks.push_back(RecognizeTask(images[i]));
+   vector<sikuli::Task*> tasks;
+   for (size_t i=0; i<recognizeTasks.size(); ++i)
+      tasks.push_back(&recognizeTasks[i]);
+   sikuli::ThreadPool::getInstance().run(tasks);
+   
+   vector<OCRText> ret;
+   ret.reserve(images.size());
+   for (size_t i=0; i<recognizeTasks.size(); ++i)
+      ret.push_back(recognizeTasks[i].text);
+   return ret;
+}
 
 vector<OCRChar>
 OCR::recognize(const unsigned char* imagedata,
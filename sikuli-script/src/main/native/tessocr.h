@@ -128,6 +128,9 @@ public:
                                     int width, int height, int bpp);
    
    static OCRText recognize(cv::Mat mat);
+   // the text of each image, recognized in parallel, for images that
+   // will not be seen again
+   static vector<OCRText> recognize(const vector<cv::Mat>& images);
    static string recognize_as_string(const cv::Mat& mat);
    
    static vector<FindResult> find_word(const cv::Mat& mat, string word, bool is_find_one = true);
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2010-2011, Sikuli.org
+ * Released under the MIT License.
+ *
+ */
+#if !defined(_WIN32) && !defined(_WIN64)
+#include <unistd.h>
+#endif
+
+#include "thread-pool.h"
+
+using namespace sikuli;
+using namespace std;
+
+ThreadPool::ThreadPool(int workers) : _stopping(false){
+   for(int i=0;i<workers;i++){
+#if defined(_WIN32) || defined(_WIN64)
+      HANDLE t = CreateThread(NULL, 0, threadMain, this, 0, NULL);
+      if(t == NULL)
+         break;
+#else
+      pthread_t t;
+      if(pthread_create(&t, NULL, threadMain, this))
+         break;
+#endif
+      _threads.push_back(t);
+   }
+}
+
+ThreadPool::~ThreadPool(){
+   {
+      ScopedLock lock(_mutex);
+      _stopping = true;
+      _changed.broadcast();
+   }
+   for(size_t i=0;i<_threads.size();i++){
+#if defined(_WIN32) || defined(_WIN64)
+      WaitForSingleObject(_threads[i], INFINITE);
+      CloseHandle(_threads[i]);
+#else
+      pthread_join(_threads[i], NULL);
+#endif
+   }
+}
+
+ThreadPool&
+ThreadPool::getInstance(){
+   static Mutex mutex;
+   static ThreadPool* pool = NULL;
+   ScopedLock lock(mutex);
+   // never deleted: the workers live as long as the process
+   if(pool == NULL)
+      pool = new ThreadPool(getNumberOfCores()-1);
+   return *pool;
+}
+
+int
+ThreadPool::getNumberOfCores(){
+#if defined(_WIN32) || defined(_WIN64)
+   SYSTEM_INFO info;
+   GetSystemInfo(&info);
+   int n = info.dwNumberOfProcessors;
+#else
+   int n = (int)sysconf(_SC_NPROCESSORS_ONLN);
+#endif
+   return n > 0 ? n : 1;
+}
+
+int
+ThreadPool::size() const{
+   return _threads.size() + 1;
+}
+
+#if defined(_WIN32) || defined(_WIN64)
+DWORD WINAPI
+ThreadPool::threadMain(LPVOID arg){
+   ((ThreadPool*)arg)->work();
+   return 0;
+}
+#else
+void*
+ThreadPool::threadMain(void* arg){
+   ((ThreadPool*)arg)->work();
+   return NULL;
+}
+#endif
+
+void
+ThreadPool::execute(const Item& item){
+   try{
+      item.task->run();
+   }
+   catch(...){
+      // tasks report their own errors, the batch must still complete
+   }
+   ScopedLock lock(_mutex);
+   if(--item.batch->remaining == 0)
+      _changed.broadcast();
+}
+
+void
+ThreadPool::work(){
+   while(true){
+      Item item;
+      {
+         ScopedLock lock(_mutex);
+         while(_queue.empty() && !_stopping)
+            _changed.wait(_mutex);
+         if(_stopping)
+            return;
+         item = _queue.front();
+         _queue.pop_front();
+      }
+      execute(item);
+   }
+}
+
+void
+ThreadPool::run(const vector<Task*>& tasks){
+   if(tasks.empty())
+      return;
+   Batch batch;
+   batch.remaining = tasks.size();
+   {
+      ScopedLock lock(_mutex);
+      for(size_t i=0;i<tasks.size();i++){
+         Item item = { tasks[i], &batch };
+         _queue.push_back(item);
+      }
+      _changed.broadcast();
+   }
+
+   // help out until the queue is drained, then wait for the stragglers
+   while(true){
+      Item item;
+      {
+         ScopedLock lock(_mutex);
+         if(batch.remaining == 0)
+            return;
+         if(_queue.empty()){
+            _changed.wait(_mutex);
+            continue;
+         }
+         item = _queue.front();
+         _queue.pop_front();
+      }
+      execute(item);
+   }
+}
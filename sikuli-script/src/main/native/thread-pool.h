@@ -0,0 +1,75 @@
+/*
+ * Copyright 2010-2011, Sikuli.org
+ * Released under the MIT License.
+ *
+ */
+#ifndef _THREAD_POOL_H_
+#define _THREAD_POOL_H_
+
+#include <vector>
+#include <deque>
+
+#include "sikuli-thread.h"
+
+namespace sikuli {
+
+class Task {
+public:
+   virtual ~Task(){}
+   virtual void run() = 0;
+};
+
+// A fixed set of worker threads. run() hands a batch of tasks to the
+// workers, works on the batch in the calling thread as well and returns
+// once every task of the batch has finished, so batches may be nested.
+class ThreadPool {
+
+public:
+
+   ThreadPool(int workers);
+   ~ThreadPool();
+
+   // the process-wide pool, one thread per core (counting the caller)
+   static ThreadPool& getInstance();
+
+   static int getNumberOfCores();
+
+   // number of threads a batch can run on, including the caller
+   int size() const;
+
+   void run(const std::vector<Task*>& tasks);
+
+private:
+
+   struct Batch {
+      int remaining;
+   };
+
+   struct Item {
+      Task* task;
+      Batch* batch;
+   };
+
+   ThreadPool(const ThreadPool&);
+   ThreadPool& operator=(const ThreadPool&);
+
+   void work();
+   void execute(const Item& item);
+
+#if defined(_WIN32) || defined(_WIN64)
+   static DWORD WINAPI threadMain(LPVOID arg);
+   std::vector<HANDLE> _threads;
+#else
+   static void* threadMain(void* arg);
+   std::vector<pthread_t> _threads;
+#endif
+
+   Mutex _mutex;
+   Condition _changed;
+   std::deque<Item> _queue;
+   bool _stopping;
+};
+
+}
+
+#endif // _THREAD_POOL_H_
@@ -5,13 +5,17 @@
  */
 #include "cv.h"
 #include "highgui.h"
+#include "vdict.h"
 
 #include "assert.h"
 
 #include <fstream>
 #include <iostream>
 #include <vector>
+#include <list>
+#include <map>
 #include <algorithm>
+#include <string.h>
 using namespace std;
 
 #define DEBUG 1
@@ -76,49 +80,154 @@ namespace VDict{
    };
 
    //===================================================================
-   // VizDict class definition and implementation
+   // VizDict implementation
 
-   struct VizRecord{
-      int value;
-      IplImage* image;
-      int original_height;
-      int original_width;
-   };
-
-   class VizDict{
-
-   public:
-
-      // insert an (key,value) entry using an image key
-      void insert(string imagekey_filename, int value);
-
-      // lookup the entry using an image key (exact match)
-      int  lookup(string imagekey_filename);
-
-      // lookup the first entry with a similar image key
-      int lookup_similar(string imagekey_filename, float similarity_threshold);
-
-      // lookup at most n entries with keys similar to the given image (n = 0 : all)
-      vector<int>  lookup_similar_n(string imagekey_filename, float similarity_threshold, int n=0);
+static SizeCell
+size_cell(const VizRecord& rec){
+  return SizeCell(rec.original_width / SIZE_TOLERANCE, rec.original_height / SIZE_TOLERANCE);
+}
 
-      // erase the entry associated with the image
-      void erase(string imagekey_filename);
+static unsigned long long
+pixel_hash(IplImage* img){
+  // 64-bit FNV-1a over the pixel rows
+  unsigned long long h = 14695981039346656037ULL;
+  int row_bytes = img->width * img->nChannels * (img->depth & 255) / 8;
+  for (int i=0;i<img->height;i++){
+    const unsigned char* p = (const unsigned char*)(img->imageData + i*img->widthStep);
+    for (int j=0;j<row_bytes;j++){
+      h ^= p[j];
+      h *= 1099511628211ULL;
+    }
+  }
+  return h;
+}
 
+static void
+compute_signature(IplImage* img, BlockSignature& sig){
+  memset(&sig, 0, sizeof(sig));
+  if (img->nChannels != 3 || img->depth != IPL_DEPTH_8U)
+    return;
+  for (int y=0;y<img->height;y++){
+    int by = y * SIGNATURE_BLOCKS / img->height;
+    const unsigned char* row = (const unsigned char*)(img->imageData + y*img->widthStep);
+    for (int x=0;x<img->width;x++){
+      int b = by * SIGNATURE_BLOCKS + x * SIGNATURE_BLOCKS / img->width;
+      for (int c=0;c<3;c++){
+        double v = row[3*x+c];
+        sig.sum[b][c] += v;
+        sig.sumsq[b] += v*v;
+      }
+      sig.count[b]++;
+    }
+  }
+}
 
-      int  size();  // return the number of image keys stored
-      bool empty(); // test whether it is empty
+static void
+compute_grid(IplImage* img, GridSignature& grid){
+  memset(&grid, 0, sizeof(grid));
+  if (img->nChannels != 3 || img->depth != IPL_DEPTH_8U ||
+      img->width < GRID_CELLS || img->height < GRID_CELLS)
+    return;
+  double sum[GRID_CELLS*GRID_CELLS*3];
+  int count[GRID_CELLS*GRID_CELLS];
+  memset(sum, 0, sizeof(sum));
+  memset(count, 0, sizeof(count));
+  for (int y=0;y<img->height;y++){
+    int gy = y * GRID_CELLS / img->height;
+    const unsigned char* row = (const unsigned char*)(img->imageData + y*img->widthStep);
+    for (int x=0;x<img->width;x++){
+      int g = gy * GRID_CELLS + x * GRID_CELLS / img->width;
+      for (int c=0;c<3;c++)
+        sum[3*g+c] += row[3*x+c];
+      count[g]++;
+    }
+  }
+  const int n = GRID_CELLS*GRID_CELLS*3;
+  double mean = 0;
+  for (int i=0;i<n;i++){
+    sum[i] /= count[i/3];
+    mean += sum[i] / n;
+  }
+  double norm = 0;
+  for (int i=0;i<n;i++){
+    sum[i] -= mean;
+    norm += sum[i] * sum[i];
+  }
+  // less than one level of difference per cell is taken as plain
+  if (norm < n)
+    return;
+  norm = sqrt(norm);
+  for (int i=0;i<n;i++)
+    grid.v[i] = sum[i] / norm;
+  grid.usable = true;
+}
 
-   private:
+static double
+grid_correlation(const GridSignature& a, const GridSignature& b){
+  double dot = 0;
+  for (int i=0;i<GRID_CELLS*GRID_CELLS*3;i++)
+    dot += a.v[i] * b.v[i];
+  return dot;
+}
 
-      vector<VizRecord> records;
+// An upper bound of the correlation coefficient (CV_TM_CCOEFF_NORMED) of
+// two images of the same size, from their signatures. The covariance
+// splits into the covariance of the block means, known exactly, and what
+// varies within the blocks, which is at most the product of the standard
+// deviations within the blocks (Cauchy-Schwarz). Returns 1 when it can't
+// tell, as for plain images.
+static double
+correlation_bound(const BlockSignature& a, const BlockSignature& b){
+  double cross = 0, between_a = 0, between_b = 0, sumsq_a = 0, sumsq_b = 0;
+  double total_a[3] = {0,0,0}, total_b[3] = {0,0,0};
+  int n = 0;
+  for (int i=0;i<SIGNATURE_BLOCKS*SIGNATURE_BLOCKS;i++){
+    if (a.count[i] == 0 || a.count[i] != b.count[i])
+      continue;
+    n += a.count[i];
+    sumsq_a += a.sumsq[i];
+    sumsq_b += b.sumsq[i];
+    for (int c=0;c<3;c++){
+      cross += a.sum[i][c] * b.sum[i][c] / a.count[i];
+      between_a += a.sum[i][c] * a.sum[i][c] / a.count[i];
+      between_b += b.sum[i][c] * b.sum[i][c] / a.count[i];
+      total_a[c] += a.sum[i][c];
+      total_b[c] += b.sum[i][c];
+    }
+  }
+  if (n == 0)
+    return 1;
+  double mean_cross = 0, mean_a = 0, mean_b = 0;
+  for (int c=0;c<3;c++){
+    mean_cross += total_a[c] * total_b[c] / n;
+    mean_a += total_a[c] * total_a[c] / n;
+    mean_b += total_b[c] * total_b[c] / n;
+  }
+  double var_a = sumsq_a - mean_a;
+  double var_b = sumsq_b - mean_b;
+  if (var_a < n || var_b < n)
+    return 1;
+  double within_a = max(0.0, sumsq_a - between_a);
+  double within_b = max(0.0, sumsq_b - between_b);
+  return (cross - mean_cross + sqrt(within_a * within_b)) / sqrt(var_a * var_b);
+}
 
-      vector<VizRecord>::iterator lookup_record(VizRecord& rec, float similarity_threshold);
+VizDict::VizDict(){
+  next_seq = 0;
+}
 
-      // helper functions
-      void     preprocess(IplImage** img);
-      VizRecord load_image(string filename);
-   };
+VizDict::~VizDict(){
+  clear();
+}
 
+void
+VizDict::clear(){
+  for (RecordIt it = records.begin(); it != records.end(); ++it)
+    cvReleaseImage(&it->image);
+  records.clear();
+  by_content.clear();
+  by_size.clear();
+}
 
 void 
 VizDict::preprocess(IplImage** img){
@@ -131,8 +240,11 @@ VizRecord
 VizDict::load_image(string filename){
   //cerr << "VizDict::load_image: " + filename << endl;
 
-  IplImage* img = cvLoadImage(filename.c_str());  
+  return load_image(cvLoadImage(filename.c_str()));
+}
 
+VizRecord 
+VizDict::load_image(IplImage* img){
 
   VizRecord rec;  
   rec.original_height = img->height;
@@ -142,6 +254,10 @@ VizDict::load_image(string filename){
   preprocess(&img);
 
   rec.image = img;
+  rec.hash = pixel_hash(img);
+  rec.seq = 0;
+  compute_signature(img, rec.signature);
+  compute_grid(img, rec.grid);
 
   return rec;
 }
@@ -157,24 +273,60 @@ VizDict::empty(){
 }
 
 void
-VizDict::insert(string filename, int value){
+VizDict::add_to_index(RecordIt it){
+  SizeCell cell = size_cell(*it);
+  by_content[make_pair(cell, it->hash)].push_back(it);
+  by_size[cell].push_back(it);
+}
 
+static void
+remove_from(vector<list<VizRecord>::iterator>& v, list<VizRecord>::iterator it){
+  v.erase(find(v.begin(), v.end(), it));
+}
+
+void
+VizDict::remove_from_index(RecordIt it){
+  SizeCell cell = size_cell(*it);
+  pair<SizeCell, unsigned long long> key(cell, it->hash);
+  remove_from(by_content[key], it);
+  if (by_content[key].empty())
+    by_content.erase(key);
+  remove_from(by_size[cell], it);
+  if (by_size[cell].empty())
+    by_size.erase(cell);
+}
+
+void
+VizDict::insert(string filename, int value){
   VizRecord new_rec = load_image(filename);
+  insert(new_rec, value);
+}
+
+void
+VizDict::insert(IplImage* imagekey, int value){
+  VizRecord new_rec = load_image(cvCloneImage(imagekey));
+  insert(new_rec, value);
+}
 
+void
+VizDict::insert(VizRecord& new_rec, int value){
 
-  vector<VizRecord>::iterator existing_rec = lookup_record(new_rec,1.0);
+  RecordIt existing_rec = lookup_record(new_rec,1.0);
 
   // if a record associated with the exact image already exists
   if (existing_rec != records.end() ){
 
     // update the value
     existing_rec->value = value;
+    cvReleaseImage(&new_rec.image);
 
   }else{
 
     // otherwise, add a new record for this image with the value    
     new_rec.value = value;
+    new_rec.seq = next_seq++;
     records.push_back(new_rec);
+    add_to_index(--records.end());
   }
 }
 
@@ -188,40 +340,51 @@ bool same(VizRecord& rec1, VizRecord& rec2){
   bool same_height = rec1.original_height == rec2.original_height;
   bool same_width  = rec1.original_width  == rec2.original_width;
 
-  if (!(same_height && same_width)){
+  if (!(same_height && same_width) || rec1.hash != rec2.hash){
     return false;
   }
 
-  IplImage* diff3 = cvCreateImage(cvSize(im1->width, im1->height), IPL_DEPTH_8U, 3);
-  cvAbsDiff(im1,im2,diff3);
-
-  VDict::RgbImage  Idiff3(diff3);
-
-  for (int i=0;i<diff3->height;i++){
-    for (int j=0;j<diff3->width;j++){
-      if (Idiff3[i][j].r || Idiff3[i][j].g || Idiff3[i][j].b)
-        return false;
-    }
+  int row_bytes = im1->width * im1->nChannels * (im1->depth & 255) / 8;
+  for (int i=0;i<im1->height;i++){
+    if (memcmp(im1->imageData + i*im1->widthStep, im2->imageData + i*im2->widthStep, row_bytes))
+      return false;
   }
 
   return true;
 }
 
-static 
-double similar(VizRecord& rec1, VizRecord& rec2){
+// the score of the best match of the smaller key in the bigger one, or 0
+// if they differ too much in size. A pair of the same size whose
+// signatures show it can't reach the threshold scores the bound instead
+// of being matched. A pair of other sizes scores the correlation of the
+// grids instead if that is well below the threshold; only when the sizes
+// differ by less than a cell of the grid, so that the windows the match
+// could pick are about the keys as a whole.
+double
+VizDict::similar(VizRecord& rec1, VizRecord& rec2, float similarity_threshold){
 
   IplImage* im1 = rec1.image;
   IplImage* im2 = rec2.image;
 
-  bool similar_height = abs(rec1.original_height - rec2.original_height) < 50;
-  bool similar_width  = abs(rec1.original_width  - rec2.original_width) < 50;
+  bool similar_height = abs(rec1.original_height - rec2.original_height) < SIZE_TOLERANCE;
+  bool similar_width  = abs(rec1.original_width  - rec2.original_width) < SIZE_TOLERANCE;
 
   if (!(similar_height  && similar_width)){
     return false;
   }
 
-  IplImage* img;
-  IplImage* tpl;
+  if (im1->width == im2->width && im1->height == im2->height){
+    double bound = correlation_bound(rec1.signature, rec2.signature);
+    if (bound < similarity_threshold - 1e-4)
+      return bound;
+  }
+  else if (rec1.grid.usable && rec2.grid.usable &&
+           abs(im1->width - im2->width) * GRID_CELLS < min(im1->width, im2->width) &&
+           abs(im1->height - im2->height) * GRID_CELLS < min(im1->height, im2->height)){
+    double grid_score = grid_correlation(rec1.grid, rec2.grid);
+    if (grid_score < similarity_threshold - GRID_MARGIN)
+      return grid_score;
+  }
 
   IplImage* smaller;
   IplImage* bigger;
@@ -233,27 +396,15 @@ double similar(VizRecord& rec1, VizRecord& rec2){
     bigger  = im2;
   }
 
+  // headers on the pixels of the keys, nothing is copied
+  cv::Mat img(bigger);
+  cv::Mat tpl = cv::Mat(smaller)(cv::Rect(0, 0, min(im1->width,im2->width), 
+                                          min(im1->height,im2->height)));
 
-  cvSetImageROI(smaller, cvRect(0, 0, min(im1->width,im2->width), min(im1->height,im2->height)));
-
-  tpl = cvCreateImage(cvGetSize(smaller),smaller->depth,smaller->nChannels);  
-  cvCopy(smaller,tpl,NULL);
-
-  cvResetImageROI(smaller);
+  cv::matchTemplate(img, tpl, match_result, CV_TM_CCOEFF_NORMED);
 
-  img = bigger;
-
-  int res_width  = img->width  - tpl->width + 1;
-  int res_height = img->height - tpl->height + 1;
-  IplImage* res = cvCreateImage( cvSize( res_width, res_height ), IPL_DEPTH_32F, 1 );
-  cvMatchTemplate(img, tpl, res, CV_TM_CCOEFF_NORMED );
-
-  CvPoint max_loc;
   double max_score=1.0;
-
-  cvMinMaxLoc( res, 0, &max_score, 0, &max_loc, 0 );
-
-  cvReleaseImage(&tpl);
+  cv::minMaxLoc(match_result, 0, &max_score);
 
   return max_score;
 
@@ -261,31 +412,84 @@ double similar(VizRecord& rec1, VizRecord& rec2){
 
 void 
 VizDict::erase(string filename){
-
   VizRecord key = load_image(filename);
+  erase(key);
+}
+
+void 
+VizDict::erase(IplImage* imagekey){
+  VizRecord key = load_image(cvCloneImage(imagekey));
+  erase(key);
+}
+
+void 
+VizDict::erase(VizRecord& key){
 
-  vector<VizRecord>::iterator it = lookup_record(key, 1.0);
+  RecordIt it = lookup_record(key, 1.0);
+  cvReleaseImage(&key.image);
 
   if (it != records.end()){
+    remove_from_index(it);
+    cvReleaseImage(&it->image);
     records.erase(it);    
   }
 }
 
-vector<VizRecord>::iterator
+VizDict::RecordIt
+VizDict::lookup_exact(VizRecord& rec1){
+  map<pair<SizeCell, unsigned long long>, vector<RecordIt> >::iterator found;
+  found = by_content.find(make_pair(size_cell(rec1), rec1.hash));
+  if (found == by_content.end())
+    return records.end();
+  vector<RecordIt>& same_hash = found->second;
+  for (vector<RecordIt>::iterator it = same_hash.begin(); it != same_hash.end(); ++it){
+    if (same(rec1, **it))
+      return *it;
+  }
+  return records.end();
+}
+
+static bool
+by_seq(list<VizRecord>::iterator a, list<VizRecord>::iterator b){
+  return a->seq < b->seq;
+}
+
+vector<VizDict::RecordIt>
+VizDict::candidates(VizRecord& rec1, float similarity_threshold){
+  vector<RecordIt> ret;
+  // keys too different in size score 0, which only a threshold of 0 or
+  // less accepts
+  if (similarity_threshold <= 0){
+    for (RecordIt it = records.begin(); it != records.end(); ++it)
+      ret.push_back(it);
+    return ret;
+  }
+  SizeCell cell = size_cell(rec1);
+  for (int dx=-1;dx<=1;dx++){
+    for (int dy=-1;dy<=1;dy++){
+      map<SizeCell, vector<RecordIt> >::iterator found;
+      found = by_size.find(SizeCell(cell.first+dx, cell.second+dy));
+      if (found != by_size.end())
+        ret.insert(ret.end(), found->second.begin(), found->second.end());
+    }
+  }
+  sort(ret.begin(), ret.end(), by_seq);
+  return ret;
+}
+
+VizDict::RecordIt
 VizDict::lookup_record(VizRecord& rec1, float similarity_threshold){
 
-  for (vector<VizRecord>::iterator it = records.begin(); it != records.end(); it++){
+  if (similarity_threshold == 1.0)
+    return lookup_exact(rec1);
 
-    VizRecord& rec2 = *it;
+  vector<RecordIt> recs = candidates(rec1, similarity_threshold);
+  for (vector<RecordIt>::iterator it = recs.begin(); it != recs.end(); it++){
 
-    if (similarity_threshold == 1.0){
-      if (same(rec1, rec2))
-        return it;
-    }
-    else {
-      if (similar(rec1, rec2) >= similarity_threshold)
-        return it;
-    }
+    VizRecord& rec2 = **it;
+
+    if (similar(rec1, rec2, similarity_threshold) >= similarity_threshold)
+      return *it;
   }
 
   return records.end();
@@ -296,13 +500,37 @@ VizDict::lookup(string filename){
   return lookup_similar(filename, 1.0);
 }
 
+int
+VizDict::lookup(IplImage* imagekey){
+  return lookup_similar(imagekey, 1.0);
+}
+
 
 int
 VizDict::lookup_similar(string filename, float similarity_threshold){
-
   VizRecord query = load_image(filename);
+  return lookup_similar(query, similarity_threshold);
+}
 
-  vector<VizRecord>::iterator match = lookup_record(query, similarity_threshold);
+int
+VizDict::lookup_similar(IplImage* imagekey, float similarity_threshold){
+  VizRecord query = load_image(cvCloneImage(imagekey));
+  return lookup_similar(query, similarity_threshold);
+}
+
+vector<int>
+VizDict::lookup_all(const vector<IplImage*>& imagekeys, float similarity_threshold){
+  vector<int> values;
+  for (size_t i=0;i<imagekeys.size();i++)
+    values.push_back(lookup_similar(imagekeys[i], similarity_threshold));
+  return values;
+}
+
+int
+VizDict::lookup_similar(VizRecord& query, float similarity_threshold){
+
+  RecordIt match = lookup_record(query, similarity_threshold);
+  cvReleaseImage(&query.image);
 
   if (match != records.end())
     return match->value;
@@ -326,21 +554,32 @@ void sort_matches(vector<VDict::Match>& matches){
 
 vector<int>
 VizDict::lookup_similar_n(string filename, float similarity_threshold, int n){
+  VizRecord rec1 = load_image(filename);
+  return lookup_similar_n(rec1, similarity_threshold, n);
+}
+
+vector<int>
+VizDict::lookup_similar_n(IplImage* imagekey, float similarity_threshold, int n){
+  VizRecord rec1 = load_image(cvCloneImage(imagekey));
+  return lookup_similar_n(rec1, similarity_threshold, n);
+}
+
+vector<int>
+VizDict::lookup_similar_n(VizRecord& rec1, float similarity_threshold, int n){
 
   vector<int> values;
   vector<VDict::Match> matches;
 
-  VizRecord rec1 = load_image(filename);
-
-  for (vector<VizRecord>::iterator it = records.begin(); it != records.end(); it++){
+  vector<RecordIt> recs = candidates(rec1, similarity_threshold);
+  for (vector<RecordIt>::iterator it = recs.begin(); it != recs.end(); it++){
 
-    VizRecord& rec2 = *it;      
+    VizRecord& rec2 = **it;      
     
-    float score = similar(rec1, rec2);
+    float score = similar(rec1, rec2, similarity_threshold);
 
     VDict::Match match;
     match.score = score;
-    match.value = it->value;
+    match.value = rec2.value;
 
     if (score >= similarity_threshold)
       matches.push_back(match);
@@ -348,6 +587,7 @@ VizDict::lookup_similar_n(string filename, float similarity_threshold, int n){
     if (n != 0 && matches.size() == n)
       break;
   }
+  cvReleaseImage(&rec1.image);
 
   sort_matches(matches);
   for (int i=0;i<matches.size();++i){
@@ -357,6 +597,92 @@ VizDict::lookup_similar_n(string filename, float similarity_threshold, int n){
   return values;
 }
 
+// The format of save(): the magic number, the number of entries, then
+// for each entry its value, the original width and height of its key, the
+// width and height of the key as stored, and the key's BGR pixels row
+// by row. Numbers are 32-bit ints in the byte order of the machine.
+#define VDICT_MAGIC 0x56444331  // "VDC1"
+
+static void
+put_int(vector<char>& out, int v){
+  const char* p = (const char*)&v;
+  out.insert(out.end(), p, p + sizeof(v));
+}
+
+static bool
+get_int(const char*& p, const char* end, int& v){
+  if (end - p < (int)sizeof(v))
+    return false;
+  memcpy(&v, p, sizeof(v));
+  p += sizeof(v);
+  return true;
+}
+
+void
+VizDict::save(vector<char>& out){
+  put_int(out, VDICT_MAGIC);
+  put_int(out, records.size());
+  for (RecordIt it = records.begin(); it != records.end(); ++it){
+    IplImage* img = it->image;
+    put_int(out, it->value);
+    put_int(out, it->original_width);
+    put_int(out, it->original_height);
+    put_int(out, img->width);
+    put_int(out, img->height);
+    for (int i=0;i<img->height;i++){
+      const char* row = img->imageData + i*img->widthStep;
+      out.insert(out.end(), row, row + img->width*3);
+    }
+  }
+}
+
+bool
+VizDict::load(const char* data, size_t size){
+  const char* p = data;
+  const char* end = data + size;
+  int magic, count;
+  if (!get_int(p, end, magic) || magic != VDICT_MAGIC || !get_int(p, end, count))
+    return false;
+
+  // read aside, so that the entries are kept if the data is cut short
+  list<VizRecord> loaded;
+  for (int k=0;k<count;k++){
+    int value, original_width, original_height, width, height;
+    if (!get_int(p, end, value) || !get_int(p, end, original_width) ||
+        !get_int(p, end, original_height) || !get_int(p, end, width) ||
+        !get_int(p, end, height) || width <= 0 || height <= 0 ||
+        (end - p) / 3 / width < height){
+      for (RecordIt it = loaded.begin(); it != loaded.end(); ++it)
+        cvReleaseImage(&it->image);
+      return false;
+    }
+    IplImage* img = cvCreateImage(cvSize(width, height), IPL_DEPTH_8U, 3);
+    for (int i=0;i<height;i++){
+      memcpy(img->imageData + i*img->widthStep, p, width*3);
+      p += width*3;
+    }
+
+    // already preprocessed
+    VizRecord rec;
+    rec.original_width = original_width;
+    rec.original_height = original_height;
+    rec.image = img;
+    rec.hash = pixel_hash(img);
+    rec.value = value;
+    compute_signature(img, rec.signature);
+    compute_grid(img, rec.grid);
+    loaded.push_back(rec);
+  }
+
+  clear();
+  records.splice(records.end(), loaded);
+  for (RecordIt it = records.begin(); it != records.end(); ++it){
+    it->seq = next_seq++;
+    add_to_index(it);
+  }
+  return true;
+}
+
 //===================================================================
 // VizDict test codes
 void test_vizdict( int argc, char** argv ) {
@@ -457,4 +783,27 @@ void test_vizdict( int argc, char** argv ) {
 
   }
 
+  // test save and load
+  {
+    VizDict vd;
+    vd.insert("1.png",100);
+    vd.insert("2.png",200);
+
+    vector<char> data;
+    vd.save(data);
+
+    VizDict loaded;
+    loaded.insert("big.png",1);
+    assert(loaded.load(&data[0], data.size()));
+    assert(loaded.size() == 2); // should replace the entries
+    assert(loaded.lookup("1.png") == 100);
+    assert(loaded.lookup_similar("2.png",0.8) == 200);
+    assert(loaded.lookup("big.png") == -1);
+
+    // truncated data, the entries are kept
+    assert(!loaded.load(&data[0], data.size() - 1));
+    assert(loaded.size() == 2);
+    assert(loaded.lookup("1.png") == 100);
+  }
+
 };
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2010-2011, Sikuli.org
+ * Released under the MIT License.
+ *
+ */
+#ifndef _VDICT_H_
+#define _VDICT_H_
+
+#include "cv.h"
+
+#include <list>
+#include <map>
+#include <string>
+#include <vector>
+using namespace std;
+
+// Sums of 3-channel pixel values over a grid of blocks. For two images
+// of the same size, they bound the correlation coefficient of the images
+// from above without looking at their pixels (see correlation_bound).
+#define SIGNATURE_BLOCKS 4
+
+struct BlockSignature{
+   double sum[SIGNATURE_BLOCKS*SIGNATURE_BLOCKS][3];
+   double sumsq[SIGNATURE_BLOCKS*SIGNATURE_BLOCKS];   // over all channels
+   int count[SIGNATURE_BLOCKS*SIGNATURE_BLOCKS];
+};
+
+// The 3-channel means over a fixed grid of cells, whatever the size
+// of the image, less their mean and scaled to unit length. Their dot
+// product is the correlation of two keys shrunk to the grid, which
+// tells keys of different sizes apart before they are matched.
+#define GRID_CELLS 8
+// keys whose grids correlate this much less than the threshold are
+// taken not to match
+#define GRID_MARGIN 0.25
+
+struct GridSignature{
+   float v[GRID_CELLS*GRID_CELLS*3];
+   bool usable;   // false for plain images
+};
+
+struct VizRecord{
+   int value;
+   IplImage* image;
+   int original_height;
+   int original_width;
+   unsigned long long hash;  // of the pixels of image
+   long seq;                 // the order of insertion
+   BlockSignature signature;
+   GridSignature grid;
+};
+
+// similar keys differ by less than this in width and height
+#define SIZE_TOLERANCE 50
+
+// a range of SIZE_TOLERANCE widths and heights
+typedef pair<int,int> SizeCell;
+
+class VizDict{
+
+public:
+
+   VizDict();
+   ~VizDict();
+
+   // insert an (key,value) entry using an image key
+   void insert(string imagekey_filename, int value);
+
+   // lookup the entry using an image key (exact match)
+   int  lookup(string imagekey_filename);
+
+   // lookup the first entry with a similar image key
+   int lookup_similar(string imagekey_filename, float similarity_threshold);
+
+   // lookup at most n entries with keys similar to the given image (n = 0 : all)
+   vector<int>  lookup_similar_n(string imagekey_filename, float similarity_threshold, int n=0);
+
+   // erase the entry associated with the image
+   void erase(string imagekey_filename);
+
+   // the same with image keys in memory, which are copied
+   void insert(IplImage* imagekey, int value);
+   int  lookup(IplImage* imagekey);
+   int lookup_similar(IplImage* imagekey, float similarity_threshold);
+   vector<int>  lookup_similar_n(IplImage* imagekey, float similarity_threshold, int n=0);
+   void erase(IplImage* imagekey);
+
+   // lookup_similar for each of the keys
+   vector<int> lookup_all(const vector<IplImage*>& imagekeys, float similarity_threshold);
+
+   // writes all the entries in a compact binary form
+   void save(vector<char>& out);
+   // replaces all the entries with those written by save(), or keeps
+   // them and returns false if the data can't be read
+   bool load(const char* data, size_t size);
+
+
+   int  size();  // return the number of image keys stored
+   bool empty(); // test whether it is empty
+
+private:
+
+   void insert(VizRecord& new_rec, int value);
+   int lookup_similar(VizRecord& query, float similarity_threshold);
+   vector<int> lookup_similar_n(VizRecord& rec1, float similarity_threshold, int n);
+   void erase(VizRecord& key);
+   void clear();
+
+   typedef list<VizRecord>::iterator RecordIt;
+
+   // in the order of insertion
+   list<VizRecord> records;
+   long next_seq;
+
+   // the records by original size and pixel hash, for exact lookups
+   map<pair<SizeCell, unsigned long long>, vector<RecordIt> > by_content;
+   // the records by original size, in cells of SIZE_TOLERANCE pixels
+   map<SizeCell, vector<RecordIt> > by_size;
+
+   // the result of the last template match, reused
+   cv::Mat match_result;
+
+   RecordIt lookup_record(VizRecord& rec, float similarity_threshold);
+   RecordIt lookup_exact(VizRecord& rec);
+   // the records whose keys may be similar to rec, in order of insertion
+   vector<RecordIt> candidates(VizRecord& rec, float similarity_threshold);
+   double similar(VizRecord& rec1, VizRecord& rec2, float similarity_threshold);
+
+   void add_to_index(RecordIt it);
+   void remove_from_index(RecordIt it);
+
+   // helper functions
+   void     preprocess(IplImage** img);
+   VizRecord load_image(string filename);
+   VizRecord load_image(IplImage* img);  // takes the image
+};
+
+#endif // _VDICT_H_
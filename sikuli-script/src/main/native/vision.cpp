@@ -8,6 +8,8 @@
 #include "finder.h"
 #include "tessocr.h"
 #include "imgdb.h"
+#include "TimingBlock.h"
+#include "thread-pool.h"
 #include <sys/stat.h> 
 
 
@@ -19,6 +21,8 @@
 using namespace sikuli;
 
 std::map<std::string, float> Vision::_params;
+// the parameters are set from Java while finder threads read them
+static Mutex params_mutex;
 
 bool fileExists(const char* strFilename){
    struct stat stFileInfo;
@@ -92,7 +96,7 @@ void FindInput::setTarget(int target_type_, const char* target_string){
    }else if (target_type == TARGET_TYPE_IMAGE){
       
       if(fileExists(target_string))
-         target = cv::imread(target_string,1);
+         target = TemplateCache::load(target_string);
    }
 }
 
@@ -101,6 +105,7 @@ void FindInput::setSource(Mat source_){
 }
 
 void FindInput::setTarget(Mat target_){
+   target_type = TARGET_TYPE_IMAGE;
    target = target_;
 }
 
@@ -219,8 +224,8 @@ find_image(FindInput& input){
    TemplateFinder f(source);
    
    if (input.isFindingAll()){
-      int maxReturn = Vision::getParameter("FindAllMaxReturn");
-      f.find_all(image, input.getSimilarity());
+      int maxReturn = input.getLimit();
+      f.find_all(image, input.getSimilarity(), maxReturn);
       while (f.hasNext() && results.size() < maxReturn){
          results.push_back(f.next());
       }
@@ -248,20 +253,35 @@ find_button(FindInput& input){
    
    VisualLogger::setEnabled(false);
    
+   vector<Blob> buttons;
    for (vector<Blob>::iterator it = blobs.begin();
         it != blobs.end(); ++it){
-      Blob& blob = *it;
-      
-      
+      Blob blob = *it;
       if (blob.width < 10)
          continue;
-      
       Util::growRect(blob, -3, 0, screen);
+      buttons.push_back(blob);
+   }
+   
+   // read all the buttons in one batch when every match is wanted,
+   // otherwise one at a time, as Tesseract is serialized and the search
+   // stops at the first match
+   size_t batch = input.isFindingAll() ? buttons.size() : 1;
+   vector<OCRText> texts;
+   
+   for (size_t i=0; i<buttons.size(); ++i){
+      Blob& blob = buttons[i];
       
-      Mat blob_image(screen, blob);
+      if (i == texts.size()){
+         vector<Mat> images;
+         for (size_t j=i; j<buttons.size() && images.size()<batch; ++j)
+            images.push_back(Mat(screen, buttons[j]));
+         vector<OCRText> read = OCR::recognize(images);
+         texts.insert(texts.end(), read.begin(), read.end());
+      }
       
       FindResult result(blob.x,blob.y,blob.width,blob.height,1);      
-      result.text = Vision::recognize(blob_image);
+      result.text = texts[i].getString();
       
       if (result.text.empty())
          continue;
@@ -348,6 +368,7 @@ Vision::compare(Mat im1, Mat im2){
 
 vector<FindResult> 
 Vision::find(FindInput input){
+   TimingBlock tb("Vision::find");
    VisualLogger::next();
 
    vector<FindResult> results;
@@ -376,6 +397,80 @@ Vision::find(FindInput input){
    return final_results;
 }
 
+PackedFindResults
+Vision::findPacked(FindInput input){
+   return PackedFindResults(find(input));
+}
+
+// Finds the best match of one pattern of a findEach batch.
+class FindEachTask : public sikuli::Task {
+public:
+   FindEachTask(Ptr<SourceData> source_, const Mat& target_, double similarity_,
+                FindResult* result_)
+   : source(source_), target(target_), similarity(similarity_), result(result_){
+   }
+
+   void run(){
+      try{
+         TemplateFinder f(source);
+         f.find(target, similarity);
+         if (f.hasNext())
+            *result = f.next();
+      }
+      catch(cv::Exception&){
+         // left as not found, like a pattern larger than the source
+      }
+   }
+
+   Ptr<SourceData> source;
+   Mat target;
+   double similarity;
+   FindResult* result;
+};
+
+vector<FindResult>
+Vision::findEach(vector<FindInput> inputs){
+   TimingBlock tb("Vision::findEach");
+   vector<FindResult> results(inputs.size(), FindResult(0,0,0,0,-1));
+
+   // the gray conversion and the pyramid of each distinct source are
+   // only computed once
+   map<const uchar*, Ptr<SourceData> > sources;
+   vector<FindEachTask> eachTasks;
+   eachTasks.reserve(inputs.size());
+   for (size_t i=0; i<inputs.size(); ++i){
+      FindInput& input = inputs[i];
+      if (input.getTargetType() != TARGET_TYPE_IMAGE){
+         input.setFindAll(false);
+         vector<FindResult> r = find(input);
+         if (!r.empty())
+            results[i] = r[0];
+         continue;
+      }
+
+      Mat source = input.getSourceMat();
+      Mat target = input.getTargetMat();
+      if(!source.rows || !source.cols || !target.rows || !target.cols)
+         continue;
+
+      Ptr<SourceData>& shared = sources[source.data];
+      if (shared.empty() || shared->source.size() != source.size() ||
+          shared->source.type() != source.type())
+         shared = Ptr<SourceData>(new SourceData(source));
+
+      eachTasks.push_back(FindEachTask(shared, target, input.getSimilarity(),
+                                       &results[i]));
+   }
+
+   // the patterns are matched in parallel, the sources they share lock
+   // themselves while their gray image and pyramid are built
+   vector<sikuli::Task*> tasks;
+   for (size_t i=0; i<eachTasks.size(); ++i)
+      tasks.push_back(&eachTasks[i]);
+   sikuli::ThreadPool::getInstance().run(tasks);
+   return results;
+}
+
 vector<FindResult> 
 Vision::findChanges(FindInput input){
 
@@ -414,28 +509,8 @@ Vision::recognize(Mat image){
 
 string
 Vision::query(const char* index_filename, cv::Mat image){
-   
-   Database db;   
-   ifstream in(index_filename, ios::binary);
-   db.read(in);
-   in.close();
-   
-   
-   string ret = "";
-   
-   vector<ImageRecord> results = db.find(image);   
-   for (vector<ImageRecord>::iterator r = results.begin(); 
-        r != results.end(); ++r){
-      
-      ImageRecord& record = *r;
-      
-      //cout << "ui" << record.id << " ";
-      char buf[50];
-      sprintf(buf,"ui%d",record.id);
-      ret = ret + string(buf) + " ";
-   }
-   
-   return ret;
+   TimingBlock tb("Vision::query");
+   return ImageDatabase::get(index_filename)->query(image);
 }
 
 
@@ -444,6 +519,20 @@ Vision::recognize_as_ocrtext(Mat image){
    return OCR::recognize(image);
 }
 
+PackedFindResults
+Vision::recognizeWords(Mat image){
+   TimingBlock tb("Vision::recognizeWords");
+   vector<OCRWord> words = OCR::recognize(image).getWords();
+   vector<FindResult> results;
+   results.reserve(words.size());
+   for (vector<OCRWord>::iterator it = words.begin(); it != words.end(); ++it){
+      FindResult r(it->x, it->y, it->width, it->height, 1);
+      r.text = it->getString();
+      results.push_back(r);
+   }
+   return PackedFindResults(results);
+}
+
 
 vector<FindResult>
 Vision::findTextBlobs(const cv::Mat& image){
@@ -482,15 +571,51 @@ Vision::findBlobs(const cv::Mat& image, bool textOnly){
 }
 
 cv::Mat Vision::createMat(int _rows, int _cols, unsigned char* _data){
-   Mat mat_ref = Mat(_rows, _cols, CV_8UC4, _data);
    Mat mat;
-   cvtColor(mat_ref, mat, CV_RGBA2BGR, 3);
+   fillMat(_rows, _cols, _data, mat);
    //cout << "createMat: " << mat.rows << " " << mat.cols << endl;
    //imwrite("createMat.png", mat);
    return mat;
 }
 
+void Vision::fillMat(int _rows, int _cols, unsigned char* _data, cv::Mat& mat){
+   Mat mat_ref = Mat(_rows, _cols, CV_8UC4, _data);
+   cvtColor(mat_ref, mat, CV_RGBA2BGR, 3);
+}
+
+static bool isLittleEndian(){
+   const int one = 1;
+   return *(const char*)&one == 1;
+}
+
+void Vision::fillMatFromInts(int _rows, int _cols, int* pixels, int offset, int stride,
+                             cv::Mat& mat){
+   Mat mat_ref = Mat(_rows, _cols, CV_8UC4, pixels + offset, stride * sizeof(int));
+   if(isLittleEndian()){
+      // 0xAARRGGBB is stored as B,G,R,A
+      cvtColor(mat_ref, mat, CV_BGRA2BGR);
+   }
+   else{
+      // stored as A,R,G,B
+      mat.create(_rows, _cols, CV_8UC3);
+      int from_to[] = { 3,0, 2,1, 1,2 };
+      mixChannels(&mat_ref, 1, &mat, 1, from_to, 3);
+   }
+}
+
+void Vision::fillMatFromBGR(int _rows, int _cols, unsigned char* pixels, int offset, int stride,
+                            cv::Mat& mat){
+   // the array is only borrowed for this call, so copy it
+   Mat(_rows, _cols, CV_8UC3, pixels + offset, stride).copyTo(mat);
+}
+
+void Vision::fillMatFromBuffer(int _rows, int _cols, unsigned char* buffer, cv::Mat& mat){
+   Mat mat_ref = Mat(_rows, _cols, CV_8UC4, buffer);
+   cvtColor(mat_ref, mat, CV_BGRA2BGR);
+}
+
 void Vision::setParameter(string param, float val){
+   ScopedLock lock(params_mutex);
    if(_params.empty())
       Vision::initParameters();
    _params[param] = val;
@@ -499,11 +624,15 @@ void Vision::setParameter(string param, float val){
 void Vision::initParameters(){
    _params["MinTargetSize"] = DEFAULT_PYRAMID_MIM_TARGET_DIMENSION;
    _params["FindAllMaxReturn"] = DEFAULT_FIND_ALL_MAX_RETURN;
+   _params["TemplateCacheSize"] = DEFAULT_TEMPLATE_CACHE_SIZE;
+   _params["MatchThreads"] = DEFAULT_MATCH_THREADS;
 
 }
 
 float Vision::getParameter(string param){
+   ScopedLock lock(params_mutex);
    if(_params.empty())
       Vision::initParameters();
-   return _params[param];
+   map<string, float>::const_iterator it = _params.find(param);
+   return it != _params.end() ? it->second : 0;
 }
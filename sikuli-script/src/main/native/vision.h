@@ -86,7 +86,14 @@ public:
       
    static std::vector<FindResult> find(FindInput q);
 
+   // Best match for each input (score -1 if there is none). Image
+   // targets searched in the same source share its preprocessing.
+   static std::vector<FindResult> findEach(std::vector<FindInput> q);
+
    static std::vector<FindResult> findChanges(FindInput q);
+
+   // the same results as find(), packed for a bulk transfer
+   static PackedFindResults findPacked(FindInput q);
    
    static double compare(cv::Mat m1, cv::Mat m2);
    
@@ -96,6 +103,9 @@ public:
    static string query(const char* index_filename, cv::Mat image);
    
    static OCRText recognize_as_ocrtext(cv::Mat image);
+
+   // the words of recognize_as_ocrtext(), with a score of 1
+   static PackedFindResults recognizeWords(cv::Mat image);
    
    static std::vector<FindResult> findBlobs(const cv::Mat& image, bool textOnly=false);
    static std::vector<FindResult> findTextBlobs(const cv::Mat& image);
@@ -105,6 +115,22 @@ public:
    //helper functions
    static cv::Mat createMat(int _rows, int _cols, unsigned char* _data);
 
+   // The fill functions convert into an existing Mat, reusing its buffer
+   // when it already has the right size.
+   // 4-byte RGBA pixels
+   static void fillMat(int _rows, int _cols, unsigned char* _data, cv::Mat& mat);
+   // pixels packed in Java ints (0xAARRGGBB), as in a DataBufferInt. The
+   // first pixel is at offset and the rows are stride ints apart, so that
+   // a view into a larger raster can be converted as well.
+   static void fillMatFromInts(int _rows, int _cols, int* pixels, int offset, int stride,
+                               cv::Mat& mat);
+   // 3-byte BGR pixels, as in a TYPE_3BYTE_BGR raster, with offset and
+   // stride in bytes
+   static void fillMatFromBGR(int _rows, int _cols, unsigned char* pixels, int offset, int stride,
+                              cv::Mat& mat);
+   // 4-byte BGRA pixels held in a direct ByteBuffer
+   static void fillMatFromBuffer(int _rows, int _cols, unsigned char* buffer, cv::Mat& mat);
+
    static void setParameter(std::string param, float val);
    static float getParameter(std::string param);
 
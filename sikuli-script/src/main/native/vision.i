@@ -1,10 +1,14 @@
 %module VisionProxy
 %{
 #include "vision.h"
+#include "template-cache.h"
+#include "finder.h"
+#include "metrics.h"
 #include "sikuli-debug.h"
 #include <iostream>
 #include "opencv.hpp"
 #include "cvgui.h"
+#include "imgdb.h"
 %}
 
 %include "std_vector.i"
@@ -60,6 +64,76 @@
 
 %typemap(javain) unsigned char* "$javainput" 
 
+// Pixel arrays from a BufferedImage's raster are read in place: the JVM
+// pins the array for the duration of the call instead of copying it.
+%typemap(jni) int* pixels           "jintArray"
+%typemap(jtype) int* pixels         "int[]"
+%typemap(jstype) int* pixels        "int[]"
+%typemap(javain) int* pixels        "$javainput"
+
+%typemap(in) int* pixels {
+   $1 = (int *)JCALL2(GetPrimitiveArrayCritical, jenv, $input, 0);
+   if ($1 == 0) {
+      std::cerr << "can't access the pixel array\n";
+      return $null;
+   }
+}
+
+%typemap(freearg) int* pixels %{
+   JCALL3(ReleasePrimitiveArrayCritical, jenv, $input, $1, JNI_ABORT);
+%}
+
+%typemap(jni) unsigned char* pixels    "jbyteArray"
+%typemap(jtype) unsigned char* pixels  "byte[]"
+%typemap(jstype) unsigned char* pixels "byte[]"
+%typemap(javain) unsigned char* pixels "$javainput"
+
+%typemap(in) unsigned char* pixels {
+   $1 = (unsigned char *)JCALL2(GetPrimitiveArrayCritical, jenv, $input, 0);
+   if ($1 == 0) {
+      std::cerr << "can't access the pixel array\n";
+      return $null;
+   }
+}
+
+%typemap(freearg) unsigned char* pixels %{
+   JCALL3(ReleasePrimitiveArrayCritical, jenv, $input, $1, JNI_ABORT);
+%}
+
+// java.nio.ByteBuffer (direct) -> C++ unsigned char *, no copy
+%typemap(jni) unsigned char* buffer    "jobject"
+%typemap(jtype) unsigned char* buffer  "java.nio.ByteBuffer"
+%typemap(jstype) unsigned char* buffer "java.nio.ByteBuffer"
+%typemap(javain) unsigned char* buffer "$javainput"
+
+%typemap(in) unsigned char* buffer {
+   $1 = (unsigned char *)JCALL1(GetDirectBufferAddress, jenv, $input);
+   if ($1 == 0) {
+      SWIG_JavaThrowException(jenv, SWIG_JavaIllegalArgumentException, 
+                              "a direct ByteBuffer is required");
+      return $null;
+   }
+}
+
+
+// double[] sized by the caller, filled in place
+%typemap(jni) double* out           "jdoubleArray"
+%typemap(jtype) double* out         "double[]"
+%typemap(jstype) double* out        "double[]"
+%typemap(javain) double* out        "$javainput"
+
+%typemap(in) double* out {
+   $1 = (double *)JCALL2(GetPrimitiveArrayCritical, jenv, $input, 0);
+   if ($1 == 0) {
+      std::cerr << "can't access the value array\n";
+      return $null;
+   }
+}
+
+%typemap(freearg) double* out %{
+   JCALL3(ReleasePrimitiveArrayCritical, jenv, $input, $1, 0);
+%}
+
 
 struct FindResult {
    int x, y;
@@ -78,6 +152,14 @@ struct FindResult {
    std::string text;
 };
 
+class PackedFindResults {
+public:
+   enum { FIELDS = 5 };
+   int size() const;
+   void getValues(double* out) const;
+   std::string getTexts() const;
+};
+
 class OCRRect {
    
 public:
@@ -200,12 +282,20 @@ namespace sikuli {
       
       std::string getTargetText();
    };
+
+}
+
+%template(FindInputs) std::vector<sikuli::FindInput>;
+
+namespace sikuli {
    
    class Vision{
    public:
       
       static std::vector<FindResult> find(FindInput q);
+      static std::vector<FindResult> findEach(std::vector<FindInput> q);
       static std::vector<FindResult> findChanges(FindInput q);
+      static PackedFindResults findPacked(FindInput q);
 
       static double compare(cv::Mat m1, cv::Mat m2);
       
@@ -214,6 +304,7 @@ namespace sikuli {
       static std::string query(const char* index_filename, cv::Mat image);
             
       static OCRText recognize_as_ocrtext(cv::Mat image);
+      static PackedFindResults recognizeWords(cv::Mat image);
       
       static std::vector<FindResult> findBlobs(const cv::Mat& image, bool textOnly=false);
 
@@ -223,6 +314,12 @@ namespace sikuli {
       
       //helper functions
       static cv::Mat createMat(int _rows, int _cols, unsigned char* _data);
+      static void fillMat(int _rows, int _cols, unsigned char* _data, cv::Mat& mat);
+      static void fillMatFromInts(int _rows, int _cols, int* pixels, int offset, int stride,
+                                  cv::Mat& mat);
+      static void fillMatFromBGR(int _rows, int _cols, unsigned char* pixels, int offset, int stride,
+                                 cv::Mat& mat);
+      static void fillMatFromBuffer(int _rows, int _cols, unsigned char* buffer, cv::Mat& mat);
 
       static void setParameter(std::string param, float val);
       static float getParameter(std::string param);
@@ -239,6 +336,59 @@ namespace sikuli {
 
 }
 
+class IncrementalFinder {
+public:
+   IncrementalFinder(cv::Mat target, double min_similarity);
+   IncrementalFinder(const char* target_image_filename, double min_similarity);
+
+   bool isSupported() const;
+   FindResult find(cv::Mat frame);
+};
+
+class ImageDatabase {
+public:
+   ImageDatabase(const char* index_filename);
+
+   bool isOpen() const;
+   int size() const;
+   std::string query(cv::Mat image) const;
+};
+
+class TemplateCache {
+public:
+   static void clear();
+
+   static long long getHits();
+   static long long getMisses();
+   static long long getBytes();
+};
+
+namespace sikuli {
+
+   struct MetricSnapshot {
+      std::string name;
+      long long count;
+      double total;
+      double min;
+      double max;
+      double p50;
+      double p90;
+      double p99;
+   };
+
+   class Metrics {
+   public:
+      static bool isEnabled();
+      static void setEnabled(bool enabled);
+
+      static std::vector<MetricSnapshot> snapshot();
+      static void reset();
+   };
+
+}
+
+%template(MetricSnapshots) std::vector<sikuli::MetricSnapshot>;
+
 
 namespace cv{
    class Mat {
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2010-2011, Sikuli.org
+ * Released under the MIT License.
+ *
+ */
+package org.sikuli.script;
+
+import org.junit.* ;
+import static org.junit.Assert.* ;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+import org.sikuli.script.natives.Mat;
+import org.sikuli.script.natives.Vision;
+
+public class CaptureBufferPoolTest
+{
+   @Test
+   public void test_reuse_same_size() throws Exception {
+      CaptureBufferPool pool = new CaptureBufferPool(2);
+      Mat m = pool.acquire(32, 16);
+      pool.release(32, 16, m);
+      assertEquals(1, pool.size());
+      assertSame(m, pool.acquire(32, 16));
+      assertEquals(0, pool.size());
+      assertNotSame(m, pool.acquire(32, 16));
+   }
+
+   @Test
+   public void test_capacity() throws Exception {
+      CaptureBufferPool pool = new CaptureBufferPool(2);
+      pool.release(10, 10, pool.acquire(10, 10));
+      pool.release(20, 20, pool.acquire(20, 20));
+      Mat m = pool.acquire(30, 30);
+      pool.release(30, 30, m);
+      assertEquals(2, pool.size());
+      assertSame(m, pool.acquire(30, 30));
+   }
+
+   @Test
+   public void test_screen_image_release() throws Exception {
+      CaptureBufferPool pool = new CaptureBufferPool();
+      BufferedImage img = new BufferedImage(40, 30, BufferedImage.TYPE_INT_RGB);
+      Rectangle roi = new Rectangle(0, 0, 40, 30);
+
+      ScreenImage s1 = new ScreenImage(roi, img);
+      s1.setBufferPool(pool);
+      Mat m1 = s1.getMat();
+      s1.release();
+      assertEquals(1, pool.size());
+
+      ScreenImage s2 = new ScreenImage(roi, img);
+      s2.setBufferPool(pool);
+      assertSame(m1, s2.getMat());
+      assertEquals(0.0, Vision.compare(s2.getMat(),
+                              OpenCV.convertBufferedImageToMat(img)), 1e-9);
+   }
+}
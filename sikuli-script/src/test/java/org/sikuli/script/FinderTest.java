@@ -21,6 +21,9 @@ import java.util.Iterator;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.sikuli.script.natives.FindResult;
+import org.sikuli.script.natives.IncrementalFinder;
+import org.sikuli.script.natives.TemplateCache;
 import org.sikuli.script.natives.Vision;
 
 public class FinderTest 
@@ -100,6 +103,137 @@ public class FinderTest
    }
 
 
+   @Test
+   public void testTemplateCache() throws Exception {
+      TemplateCache.clear();
+      FinderTestImage testImgs = FinderTestImage.createFromDirectory("macdesktop");
+      String targetFname = testImgs.getTestTarget(0).getFilename();
+      Finder f = new Finder(testImgs.getScreenImageFilename());
+      f.find(targetFname);
+      assertEquals(0, TemplateCache.getHits());
+      assertEquals(1, TemplateCache.getMisses());
+      assertTrue(TemplateCache.getBytes() > 0);
+      f.find(targetFname);
+      f.find(targetFname);
+      assertEquals(2, TemplateCache.getHits());
+      assertEquals(1, TemplateCache.getMisses());
+   }
+
+   @Test
+   public void testFindEach() throws Exception {
+      FinderTestImage testImgs = FinderTestImage.createFromDirectory("macdesktop");
+      List<String> targets = new ArrayList<String>();
+      for(FinderTestTarget target : testImgs.getTestTargets())
+         targets.add(target.getFilename());
+      Finder f = new Finder(testImgs.getScreenImageFilename());
+      Match[] matches = f.findEach(targets);
+      assertEquals(targets.size(), matches.length);
+      for(int i=0;i<matches.length;i++){
+         f.find(targets.get(i));
+         if(f.hasNext()){
+            Match m = f.next();
+            assertNotNull(matches[i]);
+            assertEquals(m.x, matches[i].x);
+            assertEquals(m.y, matches[i].y);
+            assertEquals(m.getScore(), matches[i].getScore(), 1e-6);
+         }
+         else
+            assertNull(matches[i]);
+      }
+   }
+
+   @Test
+   public void testParallelMatching() throws Exception {
+      FinderTestImage testImgs = FinderTestImage.createFromDirectory("macdesktop");
+      Finder f = new Finder(testImgs.getScreenImageFilename());
+      try{
+         for(FinderTestTarget target : testImgs.getTestTargets()){
+            // 0.99 skips the pyramid and matches the whole screen
+            Pattern ptn = new Pattern(target.getFilename()).similar(0.99f);
+            Settings.MatchThreads = 1;
+            f.find(ptn);
+            Match serial = f.hasNext()? f.next() : null;
+            Settings.MatchThreads = 4;
+            f.find(ptn);
+            Match parallel = f.hasNext()? f.next() : null;
+            if(serial == null){
+               assertNull(parallel);
+               continue;
+            }
+            assertNotNull(parallel);
+            assertEquals(serial.x, parallel.x);
+            assertEquals(serial.y, parallel.y);
+            assertEquals(serial.getScore(), parallel.getScore(), 1e-6);
+         }
+      }
+      finally{
+         Settings.MatchThreads = 1;
+      }
+   }
+
+   @Test
+   public void testVisionMetrics() throws Exception {
+      FinderTestImage testImgs = FinderTestImage.createFromDirectory("macdesktop");
+      String target = testImgs.getTestTargets().get(0).getFilename();
+      Finder f = new Finder(testImgs.getScreenImageFilename());
+      VisionMetrics.clear();
+      VisionMetrics.setRecording(false);
+      f.find(target);
+      assertTrue(VisionMetrics.snapshot().isEmpty());
+
+      VisionMetrics.setRecording(true);
+      try{
+         f.find(target);
+         f.find(target);
+         VisionMetrics.Block find = null;
+         for(VisionMetrics.Block b : VisionMetrics.snapshot())
+            if(b.getName().equals("TemplateFinder::find"))
+               find = b;
+         assertNotNull(find);
+         assertEquals(2, find.getCount());
+         assertTrue(find.getMinMillis() <= find.getP50Millis());
+         assertTrue(find.getP50Millis() <= find.getP99Millis());
+         assertTrue(find.getP99Millis() <= find.getMaxMillis());
+      }
+      finally{
+         VisionMetrics.setRecording(false);
+         VisionMetrics.clear();
+      }
+   }
+
+   @Test
+   public void testIncrementalFinder() throws Exception {
+      FinderTestImage testImgs = FinderTestImage.createFromDirectory("macdesktop");
+      String targetFname = testImgs.getTestTarget(0).getFilename();
+      Finder f = new Finder(testImgs.getScreenImageFilename());
+      f.find(targetFname);
+      assertTrue(f.hasNext());
+      Match expected = f.next();
+
+      BufferedImage screen = ImageIO.read(new File(testImgs.getScreenImageFilename()));
+      IncrementalFinder tracker = new IncrementalFinder(targetFname, 0.9);
+      assertTrue(tracker.isSupported());
+      FindResult r = tracker.find(OpenCV.convertBufferedImageToMat(screen));
+      assertEquals(expected.x, r.getX());
+      assertEquals(expected.y, r.getY());
+
+      // cover the target: only that area changes
+      BufferedImage covered = new BufferedImage(screen.getWidth(), screen.getHeight(),
+                                                BufferedImage.TYPE_INT_RGB);
+      java.awt.Graphics2D g = covered.createGraphics();
+      g.drawImage(screen, 0, 0, null);
+      g.setColor(java.awt.Color.black);
+      g.fillRect(expected.x, expected.y, expected.w, expected.h);
+      g.dispose();
+      r = tracker.find(OpenCV.convertBufferedImageToMat(covered));
+      assertTrue(r.getScore() < 0.9 || r.getX() != expected.x || r.getY() != expected.y);
+
+      r = tracker.find(OpenCV.convertBufferedImageToMat(screen));
+      assertEquals(expected.x, r.getX());
+      assertEquals(expected.y, r.getY());
+      assertTrue(r.getScore() >= 0.9);
+   }
+
    @Test
    public void testFinderFolders() throws Exception {
       Vision.setParameter("MinTargetSize", 12);
@@ -174,6 +308,21 @@ public class FinderTest
       testTargetScreenSetWithFindAll("sikuliinbox", 0.7f);
    }
 
+   @Test
+   public void testExactPattern() throws Exception {
+      Finder f = new Finder("test-res/mac-desktop.png");
+      f.find(new Pattern("test-res/network.png").exact());
+      assertTrue(f.hasNext());
+      Match m = f.next();
+      assertEquals(792, m.x);
+      assertEquals(391, m.y);
+      assertEquals(1.0, m.getScore(), 1e-9);
+      assertFalse(f.hasNext());
+
+      f.find(new Pattern("test-res/google.png").exact());
+      assertFalse(f.hasNext());
+   }
+
    @Test
    public void testExactColor() throws Exception {
       testTargetScreenSet("exactcolor", 1.f);
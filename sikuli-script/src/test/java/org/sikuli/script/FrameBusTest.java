@@ -0,0 +1,93 @@
+/*
+ * Copyright 2010-2011, Sikuli.org
+ * Released under the MIT License.
+ *
+ */
+package org.sikuli.script;
+
+import org.junit.* ;
+import static org.junit.Assert.* ;
+import static org.mockito.Mockito.*;
+import org.mockito.stubbing.Answer;
+import org.mockito.invocation.InvocationOnMock;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+public class FrameBusTest
+{
+   static final Rectangle BOUNDS = new Rectangle(100, 50, 64, 48);
+
+   IRobot _robot;
+   FrameBus _bus;
+
+   @Before public void setupBus(){
+      _robot = mock(IRobot.class);
+      when(_robot.captureScreen(any(Rectangle.class))).thenAnswer(new Answer<ScreenImage>(){
+         public ScreenImage answer(InvocationOnMock invocation){
+            Rectangle r = (Rectangle)invocation.getArguments()[0];
+            BufferedImage img = new BufferedImage(r.width, r.height, BufferedImage.TYPE_INT_RGB);
+            for(int y=0;y<r.height;y++)
+               for(int x=0;x<r.width;x++)
+                  img.setRGB(x, y, (x << 8) | y);
+            return new ScreenImage(r, img);
+         }
+      });
+      _bus = new FrameBus(_robot, BOUNDS, new CaptureBufferPool());
+   }
+
+   @Test
+   public void test_fresh_frame_is_shared() throws Exception {
+      ScreenFrame f1 = _bus.acquire(10);
+      ScreenFrame f2 = _bus.acquire(10);
+      assertSame(f1, f2);
+      assertEquals(1, _bus.getCaptureCount());
+      f1.release();
+      f2.release();
+   }
+
+   @Test
+   public void test_old_frame_is_not_used() throws Exception {
+      ScreenFrame f1 = _bus.acquire(0);
+      Thread.sleep(5);
+      ScreenFrame f2 = _bus.acquire(0.001);
+      assertNotSame(f1, f2);
+      assertEquals(2, _bus.getCaptureCount());
+      f1.release();
+      f2.release();
+   }
+
+   @Test
+   public void test_view() throws Exception {
+      ScreenFrame f = _bus.acquire(10);
+      ScreenImage simg = f.view(new Rectangle(110, 60, 20, 10));
+      f.release();
+      assertEquals(110, simg.x);
+      assertEquals(60, simg.y);
+      assertEquals(20, simg.getImage().getWidth());
+      assertEquals(10, simg.getImage().getHeight());
+      // (10,10) in the frame
+      assertEquals((10 << 8) | 10, simg.getImage().getRGB(0, 0) & 0xffffff);
+   }
+
+   @Test
+   public void test_view_is_clipped() throws Exception {
+      ScreenFrame f = _bus.acquire(10);
+      ScreenImage simg = f.view(new Rectangle(150, 80, 100, 100));
+      f.release();
+      assertEquals(14, simg.getImage().getWidth());
+      assertEquals(18, simg.getImage().getHeight());
+   }
+
+   @Test(expected=IllegalStateException.class)
+   public void test_released_frame() throws Exception {
+      ScreenFrame f = _bus.acquire(10);
+      f.release();
+      // the bus still holds it
+      f.retain().release();
+      // a newer frame replaces it
+      Thread.sleep(5);
+      _bus.acquire(0.001).release();
+      f.retain();
+   }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2010-2011, Sikuli.org
+ * Released under the MIT License.
+ *
+ */
+package org.sikuli.script;
+
+import org.junit.* ;
+import static org.junit.Assert.* ;
+
+import java.awt.image.BufferedImage;
+import java.io.*;
+import javax.imageio.ImageIO;
+
+public class ImageCacheTest
+{
+   @Before public void clearCache(){
+      ImageCache.clear();
+   }
+
+   @Test
+   public void test_read_once() throws Exception {
+      long misses = ImageCache.getMisses();
+      BufferedImage img = new Pattern("test-res/network.png").getSharedImage();
+      assertSame(img, new Pattern("test-res/network.png").getSharedImage());
+      assertEquals(misses + 1, ImageCache.getMisses());
+      assertTrue(ImageCache.getBytes() > 0);
+   }
+
+   @Test
+   public void test_pattern_image_is_a_copy() throws Exception {
+      Pattern p = new Pattern("test-res/network.png");
+      BufferedImage shared = p.getSharedImage();
+      int rgb = shared.getRGB(0, 0);
+      BufferedImage img = p.getImage();
+      assertNotSame(shared, img);
+      img.setRGB(0, 0, ~rgb);
+      assertEquals(rgb, shared.getRGB(0, 0));
+      assertEquals(rgb, new Pattern("test-res/network.png").getImage().getRGB(0, 0));
+   }
+
+   @Test
+   public void test_read_changed_file() throws Exception {
+      File f = File.createTempFile("imagecache", ".png");
+      f.deleteOnExit();
+      ImageIO.write(new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB), "png", f);
+      BufferedImage img = ImageCache.read(f.getPath());
+      assertEquals(10, img.getWidth());
+
+      ImageIO.write(new BufferedImage(20, 10, BufferedImage.TYPE_INT_RGB), "png", f);
+      f.setLastModified(f.lastModified() + 2000);
+      assertEquals(20, ImageCache.read(f.getPath()).getWidth());
+   }
+
+   @Test
+   public void test_not_cached_over_capacity() throws Exception {
+      int size = Settings.ImageCacheSize;
+      Settings.ImageCacheSize = 0;
+      try{
+         BufferedImage img = ImageCache.read("test-res/network.png");
+         assertNotSame(img, ImageCache.read("test-res/network.png"));
+         assertEquals(0, ImageCache.getBytes());
+      }
+      finally{
+         Settings.ImageCacheSize = size;
+      }
+   }
+
+   @Test
+   public void test_location_follows_image_path() throws Exception {
+      ImageLocator locator = new ImageLocator();
+      try{
+         locator.locate("network.png");
+         fail("network.png should not be found yet");
+      }
+      catch(FileNotFoundException e){
+      }
+      ImageLocator.addImagePath("test-res");
+      try{
+         String fname = locator.locate("network.png");
+         assertTrue(new File(fname).exists());
+         assertEquals(fname, locator.locate("network.png"));
+      }
+      finally{
+         ImageLocator.removeImagePath("test-res");
+      }
+   }
+
+   @Test
+   public void test_location_of_deleted_file() throws Exception {
+      File dir = new File(System.getProperty("java.io.tmpdir"));
+      File f = new File(dir, "imagecache-" + System.nanoTime() + ".png");
+      f.deleteOnExit();
+      ImageIO.write(new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB), "png", f);
+      ImageLocator locator = new ImageLocator(dir.getPath());
+      assertEquals(f.getAbsolutePath(), locator.locate(f.getName()));
+      f.delete();
+      try{
+         locator.locate(f.getName());
+         fail(f.getName() + " has been deleted");
+      }
+      catch(FileNotFoundException e){
+      }
+   }
+
+   @Test
+   public void test_not_found_expires() throws Exception {
+      File dir = new File(System.getProperty("java.io.tmpdir"));
+      File f = new File(dir, "imagecache-" + System.nanoTime() + ".png");
+      ImageLocator locator = new ImageLocator(dir.getPath());
+      try{
+         locator.locate(f.getName());
+         fail(f.getName() + " should not be found yet");
+      }
+      catch(FileNotFoundException e){
+      }
+      f.deleteOnExit();
+      ImageIO.write(new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB), "png", f);
+      try{
+         locator.locate(f.getName());
+         fail("not found should be remembered");
+      }
+      catch(FileNotFoundException e){
+      }
+      Thread.sleep(ImageCache.NOT_FOUND_MILLIS + 100);
+      assertEquals(f.getAbsolutePath(), locator.locate(f.getName()));
+   }
+}
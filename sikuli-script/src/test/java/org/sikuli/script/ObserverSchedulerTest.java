@@ -0,0 +1,166 @@
+/*
+ * Copyright 2010-2011, Sikuli.org
+ * Released under the MIT License.
+ *
+ */
+package org.sikuli.script;
+
+import org.junit.* ;
+import static org.junit.Assert.* ;
+import static org.mockito.Mockito.*;
+import org.mockito.stubbing.Answer;
+import org.mockito.invocation.InvocationOnMock;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ObserverSchedulerTest
+{
+   IScreen _scr;
+   int _captures = 0;
+   int _oldThreads;
+
+   @Before public void setupScreen(){
+      _oldThreads = Settings.ObserveThreads;
+      _scr = mock(IScreen.class);
+      when(_scr.capture(any(Rectangle.class))).thenAnswer(new Answer<ScreenImage>(){
+         public ScreenImage answer(InvocationOnMock invocation){
+            Rectangle r = (Rectangle)invocation.getArguments()[0];
+            synchronized(ObserverSchedulerTest.this){
+               _captures++;
+            }
+            return new ScreenImage(new Rectangle(r),
+                  new BufferedImage(r.width, r.height, BufferedImage.TYPE_INT_RGB));
+         }
+      });
+   }
+
+   @After public void restoreSettings(){
+      Settings.ObserveThreads = _oldThreads;
+   }
+
+   // a region whose observer records the images it is given
+   Region observedRegion(Rectangle rect, final List<ScreenImage> images){
+      Region r = new Region(rect, _scr);
+      r._evtMgr = mock(EventManager.class);
+      doAnswer(new Answer<Object>(){
+         public Object answer(InvocationOnMock invocation){
+            synchronized(images){
+               images.add((ScreenImage)invocation.getArguments()[0]);
+            }
+            return null;
+         }
+      }).when(r._evtMgr).update(any(ScreenImage.class));
+      return r;
+   }
+
+   @Test
+   public void test_pool_is_bounded() throws Exception {
+      Settings.ObserveThreads = 2;
+      ObserverScheduler scheduler = new ObserverScheduler();
+      List<Region> regions = new ArrayList<Region>();
+      List<ScreenImage> images = new ArrayList<ScreenImage>();
+      for(int i=0;i<10;i++){
+         Region r = observedRegion(new Rectangle(i*20, 0, 10, 10), images);
+         regions.add(r);
+         scheduler.add(r, 10);
+      }
+      assertEquals(2, scheduler.getWorkers());
+      assertEquals(10, scheduler.getObservedRegions());
+      Thread.sleep(200);
+      for(Region r : regions)
+         scheduler.remove(r);
+      assertEquals(0, scheduler.getObservedRegions());
+      // every region was scanned
+      for(Region r : regions)
+         verify(r._evtMgr, atLeastOnce()).update(any(ScreenImage.class));
+   }
+
+   @Test
+   public void test_overlapping_regions_share_captures() throws Exception {
+      ObserverScheduler scheduler = new ObserverScheduler();
+      List<ScreenImage> images1 = new ArrayList<ScreenImage>();
+      List<ScreenImage> images2 = new ArrayList<ScreenImage>();
+      Region r1 = observedRegion(new Rectangle(0, 0, 30, 20), images1);
+      Region r2 = observedRegion(new Rectangle(20, 10, 30, 20), images2);
+      r1.setObserveScanRate(20);
+      r2.setObserveScanRate(20);
+      scheduler.add(r1, 10);
+      scheduler.add(r2, 10);
+      Thread.sleep(300);
+      scheduler.remove(r1);
+      scheduler.remove(r2);
+
+      assertTrue(scheduler.getScans() >= 4);
+      assertTrue(scheduler.getCaptures() < scheduler.getScans());
+      synchronized(this){
+         assertEquals(scheduler.getCaptures(), _captures);
+      }
+      ScreenImage simg = images2.get(0);
+      assertEquals(20, simg.x);
+      assertEquals(10, simg.y);
+      assertEquals(30, simg.getImage().getWidth());
+      assertEquals(20, simg.getImage().getHeight());
+   }
+
+   @Test
+   public void test_observe_ends() throws Exception {
+      ObserverScheduler scheduler = new ObserverScheduler();
+      Region r = observedRegion(new Rectangle(0, 0, 10, 10), new ArrayList<ScreenImage>());
+      r.setObserveScanRate(50);
+      long begin = System.currentTimeMillis();
+      scheduler.observe(r, 0.2);
+      long elapsed = System.currentTimeMillis() - begin;
+      assertTrue(elapsed >= 150);
+      assertFalse(scheduler.isObserving(r));
+      verify(r._evtMgr, atLeast(2)).update(any(ScreenImage.class));
+   }
+
+   @Test(timeout=5000)
+   public void test_handler_observes_another_region() throws Exception {
+      Settings.ObserveThreads = 1;
+      final ObserverScheduler scheduler = new ObserverScheduler();
+      final Region inner = observedRegion(new Rectangle(100, 0, 10, 10),
+                                          new ArrayList<ScreenImage>());
+      inner.setObserveScanRate(50);
+      final List<ScreenImage> images = new ArrayList<ScreenImage>();
+      Region outer = new Region(new Rectangle(0, 0, 10, 10), _scr);
+      outer._evtMgr = mock(EventManager.class);
+      outer.setObserveScanRate(50);
+      doAnswer(new Answer<Object>(){
+         public Object answer(InvocationOnMock invocation){
+            synchronized(images){
+               images.add((ScreenImage)invocation.getArguments()[0]);
+               if(images.size() > 1)
+                  return null;
+            }
+            // on the only worker
+            scheduler.observe(inner, 0.1);
+            return null;
+         }
+      }).when(outer._evtMgr).update(any(ScreenImage.class));
+
+      scheduler.add(outer, 10);
+      while(true){
+         synchronized(images){
+            if(images.size() >= 3)
+               break;
+         }
+         Thread.sleep(10);
+      }
+      scheduler.remove(outer);
+      verify(inner._evtMgr, atLeast(2)).update(any(ScreenImage.class));
+      assertFalse(scheduler.isObserving(inner));
+   }
+
+   @Test(expected=IllegalStateException.class)
+   public void test_observer_error_is_rethrown() throws Exception {
+      ObserverScheduler scheduler = new ObserverScheduler();
+      Region r = new Region(new Rectangle(0, 0, 10, 10), _scr);
+      r._evtMgr = mock(EventManager.class);
+      doThrow(new IllegalStateException()).when(r._evtMgr).update(any(ScreenImage.class));
+      scheduler.observe(r, 10);
+   }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2010-2011, Sikuli.org
+ * Released under the MIT License.
+ *
+ */
+package org.sikuli.script;
+
+import org.junit.* ;
+import static org.junit.Assert.* ;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.sikuli.script.natives.Mat;
+import org.sikuli.script.natives.Vision;
+
+public class OpenCVTest
+{
+   private BufferedImage createNoiseImage(int w, int h, int type){
+      BufferedImage img = new BufferedImage(w, h, type);
+      Random rand = new Random(0);
+      for(int y=0;y<h;y++)
+         for(int x=0;x<w;x++)
+            img.setRGB(x, y, rand.nextInt() | 0xff000000);
+      return img;
+   }
+
+   private Mat convertByDrawing(BufferedImage img){
+      byte[] data = OpenCV.convertBufferedImageToByteArray(img);
+      return Vision.createMat(img.getHeight(), img.getWidth(), data);
+   }
+
+   @Test
+   public void test_int_rgb_matches_drawn_copy() throws Exception {
+      BufferedImage img = createNoiseImage(64, 48, BufferedImage.TYPE_INT_RGB);
+      Mat m1 = OpenCV.convertBufferedImageToMat(img);
+      Mat m2 = convertByDrawing(img);
+      assertEquals(0.0, Vision.compare(m1, m2), 1e-9);
+   }
+
+   @Test
+   public void test_3byte_bgr_matches_drawn_copy() throws Exception {
+      BufferedImage img = createNoiseImage(64, 48, BufferedImage.TYPE_3BYTE_BGR);
+      Mat m1 = OpenCV.convertBufferedImageToMat(img);
+      Mat m2 = convertByDrawing(img);
+      assertEquals(0.0, Vision.compare(m1, m2), 1e-9);
+   }
+
+   @Test
+   public void test_sub_image_matches_drawn_copy() throws Exception {
+      BufferedImage img = createNoiseImage(64, 48, BufferedImage.TYPE_INT_RGB);
+      BufferedImage sub = img.getSubimage(5, 7, 30, 20);
+      Mat m1 = OpenCV.convertBufferedImageToMat(sub);
+      Mat m2 = convertByDrawing(sub);
+      assertEquals(0.0, Vision.compare(m1, m2), 1e-9);
+   }
+
+   @Test
+   public void test_direct_buffer() throws Exception {
+      BufferedImage img = createNoiseImage(16, 8, BufferedImage.TYPE_INT_RGB);
+      ByteBuffer buf = ByteBuffer.allocateDirect(16*8*4);
+      for(int y=0;y<8;y++)
+         for(int x=0;x<16;x++){
+            int rgb = img.getRGB(x, y);
+            buf.put((byte)rgb).put((byte)(rgb>>8)).put((byte)(rgb>>16)).put((byte)0);
+         }
+      Mat m1 = OpenCV.convertByteBufferToMat(buf, 16, 8);
+      Mat m2 = convertByDrawing(img);
+      assertEquals(0.0, Vision.compare(m1, m2), 1e-9);
+   }
+
+   @Test(expected=IllegalArgumentException.class)
+   public void test_heap_buffer_rejected() throws Exception {
+      OpenCV.convertByteBufferToMat(ByteBuffer.allocate(16*8*4), 16, 8);
+   }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2010-2011, Sikuli.org
+ * Released under the MIT License.
+ *
+ */
+package org.sikuli.script;
+
+import org.junit.* ;
+import static org.junit.Assert.* ;
+import static org.mockito.Mockito.*;
+
+import java.awt.Rectangle;
+
+public class PackedMatchesTest
+{
+   static double[] VALUES = { 10, 20, 30, 40, 0.95,
+                              50, 60, 70, 80, 0.8 };
+
+   @Test
+   public void test_matches_in_region_coordinates() throws Exception {
+      IScreen scr = mock(IScreen.class);
+      Region r = new Region(new Rectangle(100, 200, 300, 300), scr);
+      Pattern p = new Pattern("test-res/network.png").targetOffset(5, -5);
+      PackedMatches matches = new PackedMatches(VALUES, "", r, p);
+
+      assertEquals(2, matches.size());
+      Match m = matches.get(1);
+      assertEquals(150, m.x);
+      assertEquals(260, m.y);
+      assertEquals(70, m.w);
+      assertEquals(80, m.h);
+      assertEquals(0.8, m.getScore(), 1e-9);
+      assertSame(scr, m.getScreen());
+      assertEquals(new Location(190, 295), m.getTarget());
+      assertNull(m._text);
+      // created once
+      assertSame(m, matches.get(1));
+   }
+
+   @Test
+   public void test_texts() throws Exception {
+      Region r = new Region(new Rectangle(0, 0, 300, 300), mock(IScreen.class));
+      PackedMatches matches = new PackedMatches(VALUES, "hello\nworld", r, null);
+      assertEquals("hello", matches.get(0).text());
+      assertEquals("world", matches.get(1).text());
+      assertEquals(10, matches.get(0).x);
+   }
+
+   @Test(expected=IndexOutOfBoundsException.class)
+   public void test_out_of_bounds() throws Exception {
+      new PackedMatches(VALUES, "", null, null).get(2);
+   }
+}
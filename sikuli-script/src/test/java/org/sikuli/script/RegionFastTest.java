@@ -16,7 +16,9 @@ import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.awt.Rectangle;
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 
 public class RegionFastTest 
 {
@@ -125,6 +127,110 @@ public class RegionFastTest
       verify(_mockScr, never()).wait(anyObject(), anyDouble());
    }
 
+   @Test
+   public void test_operationListener() throws Exception {
+      final List<RegionOperation> ops = new ArrayList<RegionOperation>();
+      RegionOperationListener l = new RegionOperationListener(){
+         public void operationFinished(RegionOperation op){
+            ops.add(op);
+         }
+      };
+      _mockScr.setAutoWaitTimeout(0.1);
+      RegionMetrics.getInstance().addListener(l);
+      try{
+         _mockScr.find("test-res/network.png");
+         assertNull(_mockScr.exists("test-res/google.png", 0.1));
+      }
+      finally{
+         RegionMetrics.getInstance().removeListener(l);
+      }
+      _mockScr.find("test-res/network.png");
+
+      // find waits, so the wait is reported first
+      assertEquals(3, ops.size());
+      RegionOperation wait = ops.get(0), find = ops.get(1), exists = ops.get(2);
+      assertEquals(RegionOperation.Type.WAIT, wait.getType());
+      assertSame(find, wait.getParent());
+      assertEquals(RegionOperation.Type.FIND, find.getType());
+      assertEquals(RegionOperation.Outcome.SUCCEEDED, find.getOutcome());
+      assertEquals(1, find.getScans());
+      assertEquals(wait.getMatchMillis(), find.getMatchMillis(), 1e-9);
+      assertTrue(find.getMatchMillis() > 0);
+
+      assertEquals(RegionOperation.Type.EXISTS, exists.getType());
+      assertEquals(RegionOperation.Outcome.FAILED, exists.getOutcome());
+      assertTrue(exists.getScans() >= 1);
+      assertTrue(exists.getTotalMillis() >= 100);
+   }
+
+   @Test
+   public void test_adaptiveWait() throws Exception {
+      final List<RegionOperation> ops = new ArrayList<RegionOperation>();
+      RegionOperationListener l = new RegionOperationListener(){
+         public void operationFinished(RegionOperation op){
+            ops.add(op);
+         }
+      };
+      Settings.AdaptiveWait = true;
+      RegionMetrics.getInstance().addListener(l);
+      try{
+         assertNotNull(_mockScr.exists("test-res/network.png", 0.5));
+         assertNull(_mockScr.exists("test-res/google.png", 0.5));
+      }
+      finally{
+         Settings.AdaptiveWait = false;
+         RegionMetrics.getInstance().removeListener(l);
+      }
+
+      assertEquals(2, ops.size());
+      assertEquals(1, ops.get(0).getScans());
+      // the screen never changes, so it is matched only once
+      RegionOperation exists = ops.get(1);
+      assertEquals(RegionOperation.Outcome.FAILED, exists.getOutcome());
+      assertEquals(1, exists.getScans());
+      verify(_mockScr, atLeast(4)).capture(anyInt(), anyInt(), anyInt(), anyInt());
+   }
+
+   @Test
+   public void test_adaptiveWait_on_changing_screen() throws Exception {
+      // every capture differs from the one before
+      Rectangle rect = DESKTOP_RECT;
+      final ScreenImage[] frames = new ScreenImage[]{
+         new ScreenImage(rect, _desktop_img),
+         new ScreenImage(rect, new BufferedImage(rect.width, rect.height, BufferedImage.TYPE_INT_RGB))
+      };
+      doAnswer(new Answer<ScreenImage>(){
+         int n = 0;
+         public ScreenImage answer(InvocationOnMock invocation){
+            return frames[n++ % 2];
+         }
+      }).when(_mockScr).capture(anyInt(), anyInt(), anyInt(), anyInt());
+
+      final List<RegionOperation> ops = new ArrayList<RegionOperation>();
+      RegionOperationListener l = new RegionOperationListener(){
+         public void operationFinished(RegionOperation op){
+            ops.add(op);
+         }
+      };
+      float rate = Settings.WaitScanRate;
+      Settings.AdaptiveWait = true;
+      Settings.WaitScanRate = 3;
+      RegionMetrics.getInstance().addListener(l);
+      try{
+         assertNull(_mockScr.exists("test-res/google.png", 1.0));
+      }
+      finally{
+         Settings.AdaptiveWait = false;
+         Settings.WaitScanRate = rate;
+         RegionMetrics.getInstance().removeListener(l);
+      }
+
+      // matched no more often than without adaptive waits
+      assertEquals(1, ops.size());
+      assertTrue(ops.get(0).getScans() >= 2);
+      assertTrue(ops.get(0).getScans() <= 4);
+   }
+
    @Test
    public void test_getLastMatch() throws Exception {
       String ptn = "test-res/network.png";
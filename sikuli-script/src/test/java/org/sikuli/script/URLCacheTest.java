@@ -0,0 +1,221 @@
+/*
+ * Copyright 2010-2011, Sikuli.org
+ * Released under the MIT License.
+ *
+ */
+package org.sikuli.script;
+
+import org.junit.* ;
+import static org.junit.Assert.* ;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class URLCacheTest
+{
+   HttpServer _server;
+   String _base;
+   Map<String, byte[]> _files = new HashMap<String, byte[]>();
+   int _downloads = 0, _notModified = 0;
+   long _stall = 0;  // milliseconds before each answer
+   File _dir;
+
+   @Before public void startServer() throws Exception {
+      _server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+      _server.createContext("/", new HttpHandler(){
+         public void handle(HttpExchange ex) throws IOException{
+            byte[] body;
+            long stall;
+            synchronized(URLCacheTest.this){
+               body = _files.get(ex.getRequestURI().getPath());
+               stall = _stall;
+            }
+            try{
+               Thread.sleep(stall);
+            }
+            catch(InterruptedException e){
+            }
+            if(body == null){
+               ex.sendResponseHeaders(404, -1);
+               ex.close();
+               return;
+            }
+            String etag = "\"" + Arrays.hashCode(body) + "\"";
+            if(etag.equals(ex.getRequestHeaders().getFirst("If-None-Match"))){
+               synchronized(URLCacheTest.this){ _notModified++; }
+               ex.sendResponseHeaders(304, -1);
+               ex.close();
+               return;
+            }
+            synchronized(URLCacheTest.this){ _downloads++; }
+            ex.getResponseHeaders().set("ETag", etag);
+            ex.sendResponseHeaders(200, body.length);
+            ex.getResponseBody().write(body);
+            ex.close();
+         }
+      });
+      _server.start();
+      _base = "http://127.0.0.1:" + _server.getAddress().getPort();
+
+      _dir = File.createTempFile("urlcache", "");
+      _dir.delete();
+      _dir.mkdirs();
+   }
+
+   @After public void stopServer(){
+      _server.stop(0);
+      for(File f : _dir.listFiles())
+         f.delete();
+      _dir.delete();
+   }
+
+   synchronized void serve(String path, String content){
+      _files.put(path, content.getBytes());
+   }
+
+   static String read(String filename) throws IOException{
+      BufferedReader in = new BufferedReader(new FileReader(filename));
+      try{
+         return in.readLine();
+      }
+      finally{
+         in.close();
+      }
+   }
+
+   @Test
+   public void test_cached_across_runs() throws Exception {
+      serve("/a/x.png", "one");
+      URL url = new URL(_base + "/a/x.png");
+      String f = new URLCache(_dir).get(url);
+      assertEquals("one", read(f));
+      assertEquals(1, _downloads);
+
+      // a new run revalidates the copy once
+      URLCache cache = new URLCache(_dir);
+      assertEquals(f, cache.get(url));
+      assertEquals(f, cache.get(url));
+      assertEquals(1, _downloads);
+      assertEquals(1, _notModified);
+
+      serve("/a/x.png", "two");
+      assertEquals("two", read(new URLCache(_dir).get(url)));
+      assertEquals(2, _downloads);
+   }
+
+   @Test
+   public void test_offline() throws Exception {
+      serve("/x.png", "one");
+      URL url = new URL(_base + "/x.png");
+      String f = new URLCache(_dir).get(url);
+      _server.stop(0);
+      assertEquals(f, new URLCache(_dir).get(url));
+   }
+
+   @Test
+   public void test_stalled_server() throws Exception {
+      serve("/x.png", "one");
+      URL url = new URL(_base + "/x.png");
+      String f = new URLCache(_dir).get(url);
+      synchronized(this){
+         _stall = 3000;
+      }
+      double timeout = Settings.URLTimeout;
+      Settings.URLTimeout = 0.2;
+      try{
+         long begin = System.currentTimeMillis();
+         assertEquals(f, new URLCache(_dir).get(url));
+         assertTrue(System.currentTimeMillis() - begin < 2000);
+      }
+      finally{
+         Settings.URLTimeout = timeout;
+      }
+   }
+
+   @Test(expected=FileNotFoundException.class)
+   public void test_not_found() throws Exception {
+      new URLCache(_dir).get(new URL(_base + "/none.png"));
+   }
+
+   @Test
+   public void test_same_name_in_different_paths() throws Exception {
+      serve("/a/x.png", "a");
+      serve("/b/x.png", "b");
+      URLCache cache = new URLCache(_dir);
+      assertEquals("a", read(cache.get(new URL(_base + "/a/x.png"))));
+      assertEquals("b", read(cache.get(new URL(_base + "/b/x.png"))));
+   }
+
+   @Test
+   public void test_evict_least_recently_used() throws Exception {
+      serve("/1.png", "0123456789");
+      serve("/2.png", "0123456789");
+      serve("/3.png", "0123456789");
+      URLCache cache = new URLCache(_dir, 25);
+      String f1 = cache.get(new URL(_base + "/1.png"));
+      Thread.sleep(10);
+      String f2 = cache.get(new URL(_base + "/2.png"));
+      Thread.sleep(10);
+      String f3 = cache.get(new URL(_base + "/3.png"));
+      assertEquals(20, cache.getBytes());
+      assertFalse(new File(f1).exists());
+      assertTrue(new File(f2).exists());
+      assertTrue(new File(f3).exists());
+   }
+
+   @Test
+   public void test_merge_with_other_processes() throws Exception {
+      serve("/x.png", "x");
+      serve("/y.png", "y");
+      URLCache a = new URLCache(_dir);
+      URLCache b = new URLCache(_dir);
+      b.getBytes();  // reads the index before a saves
+      a.get(new URL(_base + "/x.png"));
+      b.get(new URL(_base + "/y.png"));
+      assertEquals(2, _downloads);
+
+      URLCache c = new URLCache(_dir);
+      assertEquals(2, c.getBytes());
+      c.get(new URL(_base + "/x.png"));
+      assertEquals(2, _downloads);
+      assertEquals(1, _notModified);
+   }
+
+   @Test
+   public void test_sweep_orphans() throws Exception {
+      File old = new File(_dir, "old.png");
+      new FileOutputStream(old).close();
+      old.setLastModified(System.currentTimeMillis() - URLCache.ORPHAN_MILLIS - 1000);
+      File recent = new File(_dir, "recent.png");
+      new FileOutputStream(recent).close();
+
+      serve("/x.png", "x");
+      String f = new URLCache(_dir).get(new URL(_base + "/x.png"));
+      assertFalse(old.exists());
+      assertTrue(recent.exists());
+      assertTrue(new File(f).exists());
+   }
+
+   @Test
+   public void test_prefetch_bundle() throws Exception {
+      serve("/demo.sikuli/demo.py", "click(\"a.png\")\nwait('b.png')\nclick(\"a.png\")\n");
+      serve("/demo.sikuli/a.png", "a");
+      serve("/demo.sikuli/b.png", "b");
+      URLCache cache = new URLCache(_dir);
+      List<URL> images = cache.prefetchBundle(new URL(_base + "/demo.sikuli"));
+      assertEquals(2, images.size());
+      // the script and the two images
+      assertEquals(3, _downloads);
+      assertEquals("b", read(cache.get(new URL(_base + "/demo.sikuli/b.png"))));
+      assertEquals(3, _downloads);
+   }
+}
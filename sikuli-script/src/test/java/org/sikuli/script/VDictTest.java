@@ -8,8 +8,11 @@ package org.sikuli.script;
 import org.junit.* ;
 import static org.junit.Assert.* ;
 
+import java.util.Arrays;
 import java.util.List;
 import java.io.*;
+import java.awt.image.BufferedImage;
+import javax.imageio.ImageIO;
 
 public class VDictTest 
 {
@@ -95,4 +98,47 @@ public class VDictTest
        assertTrue(vals.get(1) == 3);
     }
 
+    @Test
+    public void test_vdict_image_keys() throws IOException
+    {
+       VDictProxy<Integer> dict = new VDictProxy();
+       BufferedImage img = ImageIO.read(new File("test-res/1.png"));
+       dict.insert(img, 100);
+       assertTrue(dict.lookup("test-res/1.png") == 100);
+       assertTrue(dict.lookup(new Pattern("test-res/1.png")) == 100);
+       assertTrue(dict.lookup_similar(img, 0.8) == 100);
+       dict.erase(img);
+       assertTrue(dict.size() == 0);
+    }
+
+    @Test
+    public void test_vdict_lookupAll() throws IOException
+    {
+       VDictProxy<Integer> dict = new VDictProxy();
+       dict.insert("test-res/1.png", 1);
+       dict.insert("test-res/2.png", 2);
+       List<Integer> vals = dict.lookupAll(Arrays.asList("test-res/2.png",
+             new Pattern("test-res/big.png"), ImageIO.read(new File("test-res/1.png"))), 0.8);
+       assertEquals(Arrays.asList(2, null, 1), vals);
+    }
+
+    @Test
+    public void test_vdict_save_load() throws IOException
+    {
+       VDictProxy<String> dict = new VDictProxy();
+       dict.insert("test-res/1.png", "one");
+       dict.insert("test-res/2.png", "two");
+       File f = File.createTempFile("vdict", ".bin");
+       f.deleteOnExit();
+       dict.save(f.getPath());
+
+       VDictProxy<String> loaded = new VDictProxy();
+       loaded.insert("test-res/big.png", "big");
+       loaded.load(f.getPath());
+       assertTrue(loaded.size() == 2);
+       assertEquals("one", loaded.lookup("test-res/1.png"));
+       assertEquals("two", loaded.lookup_similar("test-res/2.png", 0.8));
+       assertNull(loaded.lookup("test-res/big.png"));
+    }
+
 }
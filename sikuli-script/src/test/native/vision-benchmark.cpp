@@ -0,0 +1,449 @@
+/*
+ * Copyright 2010-2011, Sikuli.org
+ * Released under the MIT License.
+ *
+ */
+
+// Micro-benchmarks of the vision engine on the fixtures in testdata/.
+//
+// Each benchmark runs until it has taken at least --benchmark_min_time
+// seconds, after one untimed warm-up run. The results are written in the
+// JSON format of Google Benchmark so that they can be compared with its
+// tools (e.g. compare.py) across commits.
+//
+// usage: vision-benchmark [--testdata=DIR] [--tessdata=DIR]
+//                         [--benchmark_filter=SUBSTRING]
+//                         [--benchmark_min_time=SECONDS]
+//                         [--benchmark_format=console|json]
+//                         [--benchmark_out=FILE]
+
+#include <cstdio>
+#include <cstdlib>
+#include <cstring>
+#include <ctime>
+#include <fstream>
+#include <iostream>
+#include <sstream>
+#include <string>
+#include <vector>
+
+#if defined(_WIN32) || defined(_WIN64)
+   #include <windows.h>
+#else
+   #include <sys/time.h>
+#endif
+
+#include "finder.h"
+#include "tessocr.h"
+#include "cvgui.h"
+#include "thread-pool.h"
+#include "vdict.h"
+
+using namespace std;
+
+namespace {
+
+string testdata_dir = "testdata";
+string tessdata_dir = "";
+
+double
+wall_seconds(){
+#if defined(_WIN32) || defined(_WIN64)
+   LARGE_INTEGER freq, now;
+   QueryPerformanceFrequency(&freq);
+   QueryPerformanceCounter(&now);
+   return (double) now.QuadPart / freq.QuadPart;
+#else
+   struct timeval now;
+   gettimeofday(&now, NULL);
+   return now.tv_sec + now.tv_usec / 1e6;
+#endif
+}
+
+double
+cpu_seconds(){
+   return (double) clock() / CLOCKS_PER_SEC;
+}
+
+string
+image_path(const string& dir, const string& name){
+   return testdata_dir + "/" + dir + "/" + name;
+}
+
+string
+screen_path(int screen_i){
+   stringstream ss;
+   ss << screen_i << "-screen.png";
+   return image_path("images", ss.str());
+}
+
+string
+target_path(int screen_i, int target_i){
+   stringstream ss;
+   ss << screen_i << "-target-" << target_i << ".png";
+   return image_path("images", ss.str());
+}
+
+string
+frame_path(int frame_i){
+   stringstream ss;
+   ss << frame_i << ".png";
+   return image_path("frames", ss.str());
+}
+
+class Benchmark {
+public:
+   Benchmark(const string& name) : _name(name) {}
+   virtual ~Benchmark() {}
+
+   const string& name() const { return _name; }
+
+   // loads the fixtures; the benchmark is skipped if this fails
+   virtual bool setUp() { return true; }
+   virtual void run() = 0;
+
+private:
+   string _name;
+};
+
+struct BenchmarkRun {
+   string name;
+   long iterations;
+   double real_time;   // ms per iteration
+   double cpu_time;    // ms per iteration
+};
+
+// finds every target of a screen in it, or in another screen where they
+// are (mostly) missing
+class TemplateFinderBenchmark : public Benchmark {
+public:
+   TemplateFinderBenchmark(const string& name, int screen_i, bool all,
+                           double similarity = 0.7, int targets_i = 0)
+   : Benchmark(name), screen_i(screen_i), all(all), similarity(similarity),
+     targets_i(targets_i ? targets_i : screen_i) {}
+
+   bool setUp(){
+      screen = imread(screen_path(screen_i));
+      for (int i = 1; ; ++i){
+         Mat target = imread(target_path(targets_i, i));
+         if (target.empty())
+            break;
+         targets.push_back(target);
+      }
+      return !screen.empty() && !targets.empty();
+   }
+
+   void run(){
+      for (size_t i = 0; i < targets.size(); ++i){
+         TemplateFinder f(screen);
+         if (all){
+            f.find_all(targets[i], similarity);
+            while (f.hasNext())
+               f.next();
+         }else{
+            f.find(targets[i], similarity);
+            if (f.hasNext())
+               f.next();
+         }
+      }
+   }
+
+private:
+   int screen_i;
+   bool all;
+   double similarity;
+   int targets_i;
+   Mat screen;
+   vector<Mat> targets;
+};
+
+// compares a frame of the recording with the next one
+class ChangeFinderBenchmark : public Benchmark {
+public:
+   ChangeFinderBenchmark(const string& name, int frame_i)
+   : Benchmark(name), frame_i(frame_i) {}
+
+   bool setUp(){
+      before = imread(frame_path(frame_i));
+      after = imread(frame_path(frame_i + 1));
+      return !before.empty() && !after.empty();
+   }
+
+   void run(){
+      ChangeFinder f(before);
+      f.find(after);
+      while (f.hasNext())
+         f.next();
+   }
+
+private:
+   int frame_i;
+   Mat before, after;
+};
+
+class OCRFindPhraseBenchmark : public Benchmark {
+public:
+   OCRFindPhraseBenchmark(const string& name, const char* image, const char* phrase)
+   : Benchmark(name), image_name(image) {
+      stringstream ss(phrase);
+      string word;
+      while (ss >> word)
+         words.push_back(word);
+   }
+
+   bool setUp(){
+      if (tessdata_dir.empty())
+         return false;
+      OCR::init(tessdata_dir.c_str());
+      image = imread(image_path("ocr", image_name));
+      return !image.empty();
+   }
+
+   void run(){
+      OCR::find_phrase(image, words);
+   }
+
+private:
+   string image_name;
+   vector<string> words;
+   Mat image;
+};
+
+class SegmentScreenshotBenchmark : public Benchmark {
+public:
+   SegmentScreenshotBenchmark(const string& name, int screen_i)
+   : Benchmark(name), screen_i(screen_i) {}
+
+   bool setUp(){
+      screen = imread(screen_path(screen_i));
+      return !screen.empty();
+   }
+
+   void run(){
+      vector<Blob> text_blobs, image_blobs;
+      cvgui::segmentScreenshot(screen, text_blobs, image_blobs);
+   }
+
+private:
+   int screen_i;
+   Mat screen;
+};
+
+// looks up the targets of one screen in a dictionary keyed by the
+// targets of all the screens
+class VizDictBenchmark : public Benchmark {
+public:
+   VizDictBenchmark(const string& name, int screen_i)
+   : Benchmark(name), screen_i(screen_i) {}
+
+   bool setUp(){
+      int value = 0;
+      for (int s = 1; s <= 10; ++s){
+         for (int t = 1; ; ++t){
+            string path = target_path(s, t);
+            if (!ifstream(path.c_str()))
+               break;
+            dict.insert(path, value++);
+            if (s == screen_i)
+               keys.push_back(path);
+         }
+      }
+      return !keys.empty();
+   }
+
+   void run(){
+      for (size_t i = 0; i < keys.size(); ++i)
+         dict.lookup_similar(keys[i], 0.9f);
+   }
+
+private:
+   int screen_i;
+   VizDict dict;
+   vector<string> keys;
+};
+
+BenchmarkRun
+measure(Benchmark& b, double min_time){
+   b.run();
+
+   long n = 1;
+   for (;;){
+      double real_begin = wall_seconds();
+      double cpu_begin = cpu_seconds();
+      for (long i = 0; i < n; ++i)
+         b.run();
+      double real = wall_seconds() - real_begin;
+      double cpu = cpu_seconds() - cpu_begin;
+
+      if (real >= min_time || n >= 1000000){
+         BenchmarkRun r;
+         r.name = b.name();
+         r.iterations = n;
+         r.real_time = real * 1000 / n;
+         r.cpu_time = cpu * 1000 / n;
+         return r;
+      }
+
+      // aim a little past min_time, growing at most tenfold per round
+      long next = real > 0 ? (long)(n * 1.4 * min_time / real) : n * 10;
+      if (next > n * 10)
+         next = n * 10;
+      n = next > n ? next : n + 1;
+   }
+}
+
+string
+json_escape(const string& s){
+   string out;
+   for (size_t i = 0; i < s.size(); ++i){
+      if (s[i] == '"' || s[i] == '\\')
+         out += '\\';
+      out += s[i];
+   }
+   return out;
+}
+
+void
+write_json(ostream& out, const char* executable, const vector<BenchmarkRun>& runs){
+   char date[64];
+   time_t now = time(NULL);
+   strftime(date, sizeof(date), "%Y-%m-%d %H:%M:%S", localtime(&now));
+
+   out << "{\n";
+   out << "  \"context\": {\n";
+   out << "    \"date\": \"" << date << "\",\n";
+   out << "    \"executable\": \"" << json_escape(executable) << "\",\n";
+   out << "    \"num_cpus\": " << sikuli::ThreadPool::getNumberOfCores() << ",\n";
+#ifdef NDEBUG
+   out << "    \"library_build_type\": \"release\"\n";
+#else
+   out << "    \"library_build_type\": \"debug\"\n";
+#endif
+   out << "  },\n";
+   out << "  \"benchmarks\": [\n";
+   for (size_t i = 0; i < runs.size(); ++i){
+      const BenchmarkRun& r = runs[i];
+      out << "    {\n";
+      out << "      \"name\": \"" << json_escape(r.name) << "\",\n";
+      out << "      \"run_name\": \"" << json_escape(r.name) << "\",\n";
+      out << "      \"run_type\": \"iteration\",\n";
+      out << "      \"iterations\": " << r.iterations << ",\n";
+      out << "      \"real_time\": " << r.real_time << ",\n";
+      out << "      \"cpu_time\": " << r.cpu_time << ",\n";
+      out << "      \"time_unit\": \"ms\"\n";
+      out << "    }" << (i + 1 < runs.size() ? "," : "") << "\n";
+   }
+   out << "  ]\n";
+   out << "}\n";
+}
+
+void
+write_console(ostream& out, const vector<BenchmarkRun>& runs){
+   char line[256];
+   sprintf(line, "%-36s %14s %14s %10s\n", "Benchmark", "Time", "CPU", "Iterations");
+   out << line;
+   for (size_t i = 0; i < runs.size(); ++i){
+      const BenchmarkRun& r = runs[i];
+      sprintf(line, "%-36s %11.3f ms %11.3f ms %10ld\n",
+              r.name.c_str(), r.real_time, r.cpu_time, r.iterations);
+      out << line;
+   }
+}
+
+void
+register_benchmarks(vector<Benchmark*>& benchmarks){
+   for (int s = 1; s <= 10; ++s){
+      stringstream ss;
+      ss << s;
+      benchmarks.push_back(new TemplateFinderBenchmark("TemplateFinder_find/" + ss.str(), s, false));
+      benchmarks.push_back(new TemplateFinderBenchmark("TemplateFinder_find_all/" + ss.str(), s, true));
+      benchmarks.push_back(new TemplateFinderBenchmark("TemplateFinder_find_exact/" + ss.str(), s, false, 1.0));
+      benchmarks.push_back(new TemplateFinderBenchmark("TemplateFinder_find_all_exact/" + ss.str(), s, true, 1.0));
+      benchmarks.push_back(new TemplateFinderBenchmark("TemplateFinder_find_exact_miss/" + ss.str(), s, false, 1.0,
+                                                       s % 10 + 1));
+   }
+
+   for (int f = 1; f < 20; ++f){
+      stringstream ss;
+      ss << f;
+      benchmarks.push_back(new ChangeFinderBenchmark("ChangeFinder_find/" + ss.str(), f));
+   }
+
+   benchmarks.push_back(new OCRFindPhraseBenchmark("OCR_find_phrase/access", "access.png", "Universal Access"));
+   benchmarks.push_back(new OCRFindPhraseBenchmark("OCR_find_phrase/keyboard", "keyboard.png", "Keyboard Shortcuts"));
+   benchmarks.push_back(new OCRFindPhraseBenchmark("OCR_find_phrase/gmail_zoom", "gmail_zoom.png", "Compose Mail"));
+   benchmarks.push_back(new OCRFindPhraseBenchmark("OCR_find_phrase/network_large", "network_large.png", "Show All"));
+
+   for (int s = 1; s <= 10; ++s){
+      stringstream ss;
+      ss << s;
+      benchmarks.push_back(new SegmentScreenshotBenchmark("cvgui_segmentScreenshot/" + ss.str(), s));
+   }
+
+   benchmarks.push_back(new VizDictBenchmark("VizDict_lookup_similar/1", 1));
+   benchmarks.push_back(new VizDictBenchmark("VizDict_lookup_similar/10", 10));
+}
+
+bool
+parse_flag(const char* arg, const char* flag, string& value){
+   size_t len = strlen(flag);
+   if (strncmp(arg, flag, len) != 0 || arg[len] != '=')
+      return false;
+   value = arg + len + 1;
+   return true;
+}
+
+}
+
+int
+main(int argc, char** argv){
+   string filter, out_file, format = "console", min_time_str = "0.5";
+
+   for (int i = 1; i < argc; ++i){
+      if (!parse_flag(argv[i], "--testdata", testdata_dir) &&
+          !parse_flag(argv[i], "--tessdata", tessdata_dir) &&
+          !parse_flag(argv[i], "--benchmark_filter", filter) &&
+          !parse_flag(argv[i], "--benchmark_min_time", min_time_str) &&
+          !parse_flag(argv[i], "--benchmark_format", format) &&
+          !parse_flag(argv[i], "--benchmark_out", out_file)){
+         cerr << "unknown argument: " << argv[i] << endl;
+         return 1;
+      }
+   }
+   double min_time = atof(min_time_str.c_str());
+
+   vector<Benchmark*> benchmarks;
+   register_benchmarks(benchmarks);
+
+   vector<BenchmarkRun> runs;
+   for (size_t i = 0; i < benchmarks.size(); ++i){
+      Benchmark& b = *benchmarks[i];
+      if (b.name().find(filter) == string::npos)
+         continue;
+      if (!b.setUp()){
+         cerr << b.name() << ": fixtures not found, skipped" << endl;
+         continue;
+      }
+      runs.push_back(measure(b, min_time));
+      if (format != "json")
+         cerr << "done: " << b.name() << endl;
+   }
+
+   for (size_t i = 0; i < benchmarks.size(); ++i)
+      delete benchmarks[i];
+
+   if (format == "json")
+      write_json(cout, argv[0], runs);
+   else
+      write_console(cout, runs);
+
+   if (!out_file.empty()){
+      ofstream out(out_file.c_str());
+      if (!out){
+         cerr << "can't write " << out_file << endl;
+         return 1;
+      }
+      write_json(out, argv[0], runs);
+   }
+   return 0;
+}